@@ -6,15 +6,21 @@ import cz.bedla.bank.tx.Transactional
 
 interface ApplicationContext {
     fun paymentOrderServiceBean(): PaymentOrderService
+    fun paymentOrderQueueBean(): PaymentOrderQueue
     fun paymentOrderDaoBean(): PaymentOrderDao
     fun accountServiceBean(): AccountService
     fun accountDaoBean(): AccountDao
+    fun accountCacheBean(): AccountCache
     fun transactionDaoBean(): TransactionDao
     fun transactionServiceBean(): TransactionService
+    fun balanceCheckpointerBean(): BalanceCheckpointer
+    fun archiveDaoBean(): ArchiveDao
+    fun archiverBean(): Archiver
     fun transactionalBean(): Transactional
     fun databaseBean(): Database
     fun coordinatorBean(): Coordinator
     fun transactorBean(): Transactor
+    fun inlineSettlementBean(): InlineSettlement
     fun bankInitializerBean(): BankInitializer
 
     fun start()
@@ -14,51 +14,95 @@ import java.io.File
 class ApplicationContextImpl(
     private val databaseFile: File,
     private val coordinatorInitDelaySeconds: Int = 5,
-    private val coordinatorPeriodSeconds: Int = 5
+    private val coordinatorPeriodSeconds: Int = 5,
+    private val coordinatorPushDispatch: Boolean = true,
+    private val coordinatorSweepPeriodSeconds: Int = 60,
+    private val coordinatorLanes: Int = 0,
+    private val coordinatorBatchSize: Int = 1,
+    private val coordinatorLeaseSeconds: Int = 60,
+    private val coordinatorHighWaterMark: Int = 0,
+    private val internalAccountShards: Int = 1,
+    private val inlineSettlementByDefault: Boolean = false,
+    private val inlineSettlementBudgetMillis: Long = 200,
+    private val accountCacheSize: Int = 10_000,
+    private val checkpointPeriodSeconds: Int = 60,
+    private val checkpointBatchSize: Int = 1000,
+    private val archiveRetentionDays: Int = 90,
+    private val archivePeriodSeconds: Int = 300,
+    private val archiveBatchSize: Int = 1000,
+    private val dbPoolSize: Int = DatabaseImpl.DEFAULT_POOL_SIZE,
+    private val dbReadOnlyPoolSize: Int = DatabaseImpl.DEFAULT_READ_ONLY_POOL_SIZE
 ) : ApplicationContext {
     private val paymentOrderService = lazyBean {
         PaymentOrderServiceImpl(
             paymentOrderDaoBean(),
             accountServiceBean(),
-            transactionalBean()
+            transactionalBean(),
+            paymentOrderQueueBean()
         )
     }
 
+    private val paymentOrderQueue = lazyBean {
+        PaymentOrderQueueImpl()
+    }
+
     private val paymentOrderDao = lazyBean {
         PaymentOrderDaoImpl(accountDaoBean())
     }
 
     private val accountDao = lazyBean {
-        AccountDaoImpl()
+        CachingAccountDao(AccountDaoImpl(), transactionalBean(), accountCacheSize)
     }
 
     private val transactionDao = lazyBean {
-        TransactionDaoIml(accountDaoBean(), paymentOrderDaoBean())
+        TransactionDaoIml()
     }
 
     private val transactionService = lazyBean {
         TransactionServiceImpl(transactionDaoBean(), transactionalBean())
     }
 
+    private val balanceCheckpointer = lazyBean {
+        BalanceCheckpointerImpl(transactionServiceBean(), checkpointPeriodSeconds, checkpointBatchSize)
+    }
+
+    private val archiveDao = lazyBean {
+        ArchiveDaoImpl()
+    }
+
+    private val archiver = lazyBean {
+        ArchiverImpl(archiveDaoBean(), transactionalBean(), archiveRetentionDays, archivePeriodSeconds, archiveBatchSize)
+    }
+
     private val accountService = lazyBean {
         AccountServiceImpl(accountDaoBean(), transactionalBean())
     }
 
     private val transactional = lazyBean {
-        TransactionalImpl(databaseBean().dataSource)
+        TransactionalImpl(databaseBean().dataSource, databaseBean().readOnlyDataSource)
     }
 
     private val database = lazyBean {
-        DatabaseImpl(databaseFile)
+        DatabaseImpl(databaseFile, dbPoolSize, dbReadOnlyPoolSize)
     }
 
     private val coordinator = lazyBean {
+        val numWorkers = Runtime.getRuntime().availableProcessors() * 2
         CoordinatorImpl(
-            Runtime.getRuntime().availableProcessors() * 2,
+            numWorkers,
             coordinatorInitDelaySeconds,
-            coordinatorPeriodSeconds,
+            if (coordinatorPushDispatch) coordinatorSweepPeriodSeconds else coordinatorPeriodSeconds,
             paymentOrderServiceBean(),
-            transactorBean()
+            transactorBean(),
+            if (coordinatorPushDispatch) paymentOrderQueueBean() else null,
+            if (coordinatorLanes > 0) TransactorLanes(coordinatorLanes) else null,
+            coordinatorBatchSize,
+            coordinatorLeaseSeconds,
+            if (coordinatorHighWaterMark > 0) {
+                coordinatorHighWaterMark
+            } else {
+                numWorkers * maxOf(coordinatorBatchSize, 1) * 2
+            }
         )
     }
 
@@ -71,20 +115,42 @@ class ApplicationContextImpl(
         )
     }
 
+    private val inlineSettlement = lazyBean {
+        InlineSettlementImpl(
+            Runtime.getRuntime().availableProcessors(),
+            paymentOrderServiceBean(),
+            transactorBean(),
+            coordinatorBean(),
+            inlineSettlementByDefault,
+            inlineSettlementBudgetMillis,
+            coordinatorLeaseSeconds
+        )
+    }
+
     private val bankInitializer = lazyBean {
-        BankInitializerImpl(accountServiceBean())
+        BankInitializerImpl(accountServiceBean(), internalAccountShards)
     }
 
     override fun paymentOrderServiceBean(): PaymentOrderService = paymentOrderService.value
 
+    override fun paymentOrderQueueBean(): PaymentOrderQueue = paymentOrderQueue.value
+
     override fun paymentOrderDaoBean(): PaymentOrderDao = paymentOrderDao.value
 
     override fun accountDaoBean(): AccountDao = accountDao.value
 
+    override fun accountCacheBean(): AccountCache = accountDao.value
+
     override fun transactionDaoBean(): TransactionDao = transactionDao.value
 
     override fun transactionServiceBean(): TransactionService = transactionService.value
 
+    override fun balanceCheckpointerBean(): BalanceCheckpointer = balanceCheckpointer.value
+
+    override fun archiveDaoBean(): ArchiveDao = archiveDao.value
+
+    override fun archiverBean(): Archiver = archiver.value
+
     override fun accountServiceBean(): AccountService = accountService.value
 
     override fun transactionalBean(): Transactional = transactional.value
@@ -95,6 +161,8 @@ class ApplicationContextImpl(
 
     override fun transactorBean(): Transactor = transactor.value
 
+    override fun inlineSettlementBean(): InlineSettlement = inlineSettlement.value
+
     override fun bankInitializerBean(): BankInitializer = bankInitializer.value
 
     override fun start() {
@@ -103,6 +171,8 @@ class ApplicationContextImpl(
         val dbInitializer = DbInitializer("database.sql", databaseBean().dataSource)
         if (dbInitializer.checkDbInitialized()) {
             logger.info("DB already initialized")
+            val schemaVersion = dbInitializer.upgrade()
+            logger.info("DB schema is at version $schemaVersion")
         } else {
             logger.info("DB not initialized, running init script...")
             dbInitializer.run()
@@ -112,6 +182,9 @@ class ApplicationContextImpl(
 
         transactorBean().start()
         coordinatorBean().start()
+        inlineSettlementBean().start()
+        balanceCheckpointerBean().start()
+        archiverBean().start()
     }
 
     override fun stop() {
@@ -119,6 +192,9 @@ class ApplicationContextImpl(
 
         databaseBean().stop()
 
+        archiverBean().stop()
+        balanceCheckpointerBean().stop()
+        inlineSettlementBean().stop()
         transactorBean().stop()
         coordinatorBean().stop()
     }
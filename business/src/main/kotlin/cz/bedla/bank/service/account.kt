@@ -1,15 +1,23 @@
 package cz.bedla.bank.service
 
 import cz.bedla.bank.domain.Account
-import java.math.BigDecimal
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 
 interface AccountService {
     fun createPersonalAccount(name: String): Account
-    fun createTopUpAccount(name: String, amount: BigDecimal): Account
-    fun createWithdrawalAccount(name: String, amount: BigDecimal): Account
+    fun createPersonalAccounts(names: List<String>): List<Int>
+    fun createTopUpAccount(name: String, amount: Money): Account
+    fun createWithdrawalAccount(name: String, amount: Money): Account
     fun findAccount(id: Int): Account
     fun findTopUpAccount(): Account
+    fun findTopUpAccount(forAccountId: Int): Account
     fun findWithdrawalAccount(): Account
+    fun findWithdrawalAccount(forAccountId: Int): Account
+    fun findInternalAccounts(type: AccountType): List<Account>
+    fun internalBalance(type: AccountType): InternalBalance
 }
 
+data class InternalBalance(val type: AccountType, val shards: Int, val balance: Money)
+
 class AccountNotFound(accountId: Int) : RuntimeException("Unable to find account.id=$accountId")
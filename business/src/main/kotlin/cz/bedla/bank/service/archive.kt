@@ -0,0 +1,15 @@
+package cz.bedla.bank.service
+
+interface Archiver {
+    fun start()
+    fun stop()
+    fun metrics(): ArchiverMetrics
+}
+
+data class ArchiverMetrics(
+    val retentionDays: Int,
+    val hotPaymentOrders: Int,
+    val hotTransactions: Int,
+    val lagSeconds: Long,
+    val archivedSinceStart: Long
+)
@@ -1,6 +1,24 @@
 package cz.bedla.bank.service
 
+import java.util.concurrent.TimeUnit
+
 interface Coordinator {
     fun start()
     fun stop()
+    fun metrics(): CoordinatorMetrics
+}
+
+data class CoordinatorMetrics(
+    val laneCount: Int,
+    val laneQueueDepths: List<Int>,
+    val queueDepth: Int,
+    val inFlight: Int,
+    val highWaterMark: Int,
+    val rejectedSubmissions: Long,
+    val pollIntervalMillis: Long
+)
+
+interface PaymentOrderQueue {
+    fun offer(paymentOrderId: Int): Boolean
+    fun poll(timeout: Long, unit: TimeUnit): Int?
 }
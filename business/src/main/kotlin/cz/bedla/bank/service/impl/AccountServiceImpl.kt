@@ -2,45 +2,87 @@ package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.service.AccountDao
 import cz.bedla.bank.service.AccountNotFound
 import cz.bedla.bank.service.AccountService
+import cz.bedla.bank.service.InternalBalance
 import cz.bedla.bank.tx.Transactional
-import java.math.BigDecimal
 import java.time.OffsetDateTime
 
 class AccountServiceImpl(
     private val accountDao: AccountDao,
-    private val transactional: Transactional
+    private val transactional: Transactional,
+    private val chunkSize: Int = 1000
 ) : AccountService {
+    init {
+        require(chunkSize > 0) { "Chunk size has to be positive" }
+    }
+
     override fun createPersonalAccount(name: String): Account = transactional.execute {
         require(name.isNotBlank()) { "Account name cannot be empty" }
-        accountDao.create(Account(AccountType.PERSONAL, name, OffsetDateTime.now(), 0.toBigDecimal()))
+        accountDao.create(Account(AccountType.PERSONAL, name, OffsetDateTime.now(), Money.ZERO))
     }
 
-    override fun createTopUpAccount(name: String, amount: BigDecimal): Account = transactional.execute {
+    // one DB transaction for all chunks, failed request creates no account and could be retried
+    override fun createPersonalAccounts(names: List<String>): List<Int> {
+        names.forEach { require(it.isNotBlank()) { "Account name cannot be empty" } }
+        val dateOpened = OffsetDateTime.now()
+        return transactional.execute {
+            names.chunked(chunkSize).flatMap { chunk ->
+                accountDao.createAll(chunk.map { Account(AccountType.PERSONAL, it, dateOpened, Money.ZERO) })
+            }.map { it.id }
+        }
+    }
+
+    override fun createTopUpAccount(name: String, amount: Money): Account = transactional.execute {
         require(name.isNotBlank()) { "Account name cannot be empty" }
         accountDao.create(Account(AccountType.TOP_UP, name, OffsetDateTime.now(), amount))
     }
 
-    override fun createWithdrawalAccount(name: String, amount: BigDecimal): Account = transactional.execute {
+    override fun createWithdrawalAccount(name: String, amount: Money): Account = transactional.execute {
         require(name.isNotBlank()) { "Account name cannot be empty" }
         accountDao.create(Account(AccountType.WITHDRAWAL, name, OffsetDateTime.now(), amount))
     }
 
-    override fun findAccount(id: Int): Account = transactional.execute {
+    override fun findAccount(id: Int): Account = transactional.executeReadOnly {
         accountDao.findAccount(id) ?: throw AccountNotFound(id)
     }
 
-    override fun findTopUpAccount(): Account = transactional.execute {
+    override fun findTopUpAccount(): Account = transactional.executeReadOnly {
         val list = accountDao.findAccountsOfType(AccountType.TOP_UP)
         check(list.isNotEmpty()) { "Unable to find any top-up account" }
         list.sortedBy { it.balance }.first()
     }
 
-    override fun findWithdrawalAccount(): Account = transactional.execute {
+    override fun findTopUpAccount(forAccountId: Int): Account = transactional.executeReadOnly {
+        val list = accountDao.findAccountsOfType(AccountType.TOP_UP)
+        check(list.isNotEmpty()) { "Unable to find any top-up account" }
+        list.shardFor(forAccountId)
+    }
+
+    override fun findWithdrawalAccount(): Account = transactional.executeReadOnly {
         val list = accountDao.findAccountsOfType(AccountType.WITHDRAWAL)
         check(list.isNotEmpty()) { "Unable to find any withdrawal account" }
         list.sortedByDescending { it.balance }.first()
     }
+
+    override fun findWithdrawalAccount(forAccountId: Int): Account = transactional.executeReadOnly {
+        val list = accountDao.findAccountsOfType(AccountType.WITHDRAWAL)
+        check(list.isNotEmpty()) { "Unable to find any withdrawal account" }
+        list.shardFor(forAccountId)
+    }
+
+    override fun findInternalAccounts(type: AccountType): List<Account> = transactional.executeReadOnly {
+        require(type != AccountType.PERSONAL) { "Account type $type is not internal" }
+        accountDao.findAccountsOfType(type).sortedBy { it.id }
+    }
+
+    override fun internalBalance(type: AccountType): InternalBalance {
+        val accounts = findInternalAccounts(type)
+        return InternalBalance(type, accounts.size, accounts.fold(Money.ZERO) { sum, it -> sum + it.balance })
+    }
+
+    private fun List<Account>.shardFor(accountId: Int): Account =
+        sortedBy { it.id }[Math.floorMod(accountId, size)]
 }
@@ -0,0 +1,83 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.service.ArchiveDao
+import cz.bedla.bank.service.Archiver
+import cz.bedla.bank.service.ArchiverMetrics
+import cz.bedla.bank.tx.Transactional
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.time.OffsetDateTime
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class ArchiverImpl(
+    private val archiveDao: ArchiveDao,
+    private val transactional: Transactional,
+    private val retentionDays: Int,
+    private val periodSeconds: Int,
+    private val batchSize: Int = 1000,
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+) : Archiver {
+    private val archivedSinceStart = AtomicLong()
+
+    init {
+        require(retentionDays >= 0) { "Archive retention days cannot be negative" }
+        require(periodSeconds > 0) { "Archive period has to be positive" }
+        require(batchSize > 0) { "Archive batch size has to be positive" }
+    }
+
+    override fun start() {
+        logger.info("Archiver starting")
+        scheduler.scheduleWithFixedDelay({ archive() }, periodSeconds.toLong(), periodSeconds.toLong(), TimeUnit.SECONDS)
+    }
+
+    override fun stop() {
+        logger.info("Archiver stopping")
+        try {
+            scheduler.shutdown()
+            scheduler.awaitTermination(5, TimeUnit.SECONDS)
+        } catch (e: Exception) {
+            logger.error("Error while shutting down: $scheduler", e)
+        }
+    }
+
+    fun archive(): Int {
+        val settledBefore = settledBefore()
+        var total = 0
+        try {
+            // every chunk in its own transaction, so locks on hot tables are held only for one batch
+            do {
+                val archived = transactional.execute { archiveDao.archiveSettled(settledBefore, batchSize) }!!
+                total += archived
+                archivedSinceStart.addAndGet(archived.toLong())
+            } while (archived >= batchSize && !scheduler.isShutdown)
+            if (total > 0) {
+                logger.info("Archived $total payment order(s) settled before $settledBefore")
+            }
+        } catch (e: Exception) {
+            logger.error("Error while archiving payment orders", e)
+        }
+        return total
+    }
+
+    override fun metrics(): ArchiverMetrics {
+        val settledBefore = settledBefore()
+        val stats = transactional.executeReadOnly { archiveDao.stats(settledBefore) }!!
+        return ArchiverMetrics(
+            retentionDays,
+            stats.hotPaymentOrders,
+            stats.hotTransactions,
+            stats.oldestUnarchived?.let { Duration.between(it, settledBefore).seconds } ?: 0,
+            archivedSinceStart.get()
+        )
+    }
+
+    private fun settledBefore(): OffsetDateTime = OffsetDateTime.now().minusDays(retentionDays.toLong())
+
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(ArchiverImpl::class.java)
+    }
+}
@@ -0,0 +1,56 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.service.BalanceCheckpointer
+import cz.bedla.bank.service.TransactionService
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class BalanceCheckpointerImpl(
+    private val transactionService: TransactionService,
+    private val periodSeconds: Int,
+    private val batchSize: Int = 1000,
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
+) : BalanceCheckpointer {
+    init {
+        require(periodSeconds > 0) { "Checkpoint period has to be positive" }
+        require(batchSize > 0) { "Checkpoint batch size has to be positive" }
+    }
+
+    override fun start() {
+        logger.info("Balance checkpointer starting")
+        scheduler.scheduleWithFixedDelay({ checkpoint() }, periodSeconds.toLong(), periodSeconds.toLong(), TimeUnit.SECONDS)
+    }
+
+    override fun stop() {
+        logger.info("Balance checkpointer stopping")
+        try {
+            scheduler.shutdown()
+            scheduler.awaitTermination(5, TimeUnit.SECONDS)
+        } catch (e: Exception) {
+            logger.error("Error while shutting down: $scheduler", e)
+        }
+    }
+
+    fun checkpoint(): Int {
+        var total = 0
+        try {
+            do {
+                val folded = transactionService.advanceCheckpoints(batchSize)
+                total += folded
+            } while (folded >= batchSize && !scheduler.isShutdown)
+            if (total > 0) {
+                logger.info("Folded $total transaction(s) into balance checkpoints")
+            }
+        } catch (e: Exception) {
+            logger.error("Error while advancing balance checkpoints", e)
+        }
+        return total
+    }
+
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(BalanceCheckpointerImpl::class.java)
+    }
+}
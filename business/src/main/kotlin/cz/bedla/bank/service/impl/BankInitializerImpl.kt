@@ -1,35 +1,41 @@
 package cz.bedla.bank.service.impl
 
+import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.AccountService
 import cz.bedla.bank.service.BankInitializer
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
-class BankInitializerImpl(private val accountService: AccountService) : BankInitializer {
-    override fun init() {
-        initTopUpAccount()
-        initWithdrawalAccount()
+class BankInitializerImpl(
+    private val accountService: AccountService,
+    private val internalAccountShards: Int = 1
+) : BankInitializer {
+    init {
+        require(internalAccountShards > 0) { "Number of internal account shards has to be positive" }
     }
 
-    private fun initTopUpAccount() {
-        try {
-            accountService.findTopUpAccount()
-        } catch (e: IllegalStateException) {
-            logger.info("Initializing top-up account")
-            accountService.createTopUpAccount("Bank top-up account", 999999.toBigDecimal())
+    override fun init() {
+        initInternalAccounts(AccountType.TOP_UP, "Bank top-up account") {
+            accountService.createTopUpAccount(it, INITIAL_BALANCE)
+        }
+        initInternalAccounts(AccountType.WITHDRAWAL, "Bank withdrawal account") {
+            accountService.createWithdrawalAccount(it, INITIAL_BALANCE)
         }
     }
 
-    private fun initWithdrawalAccount() {
-        try {
-            accountService.findWithdrawalAccount()
-        } catch (e: IllegalStateException) {
-            logger.info("Initializing withdrawal account")
-            accountService.createWithdrawalAccount("Bank withdrawal account", 999999.toBigDecimal())
+    private fun initInternalAccounts(type: AccountType, name: String, createAction: (String) -> Account) {
+        val existing = accountService.findInternalAccounts(type).size
+        for (shard in existing + 1..internalAccountShards) {
+            logger.info("Initializing $type account #$shard")
+            createAction(if (shard == 1) name else "$name #$shard")
         }
     }
 
     companion object {
         private val logger: Logger = LoggerFactory.getLogger(BankInitializerImpl::class.java)
+
+        private val INITIAL_BALANCE = 999999.toMoney()
     }
 }
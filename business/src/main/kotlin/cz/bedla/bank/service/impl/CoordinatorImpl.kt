@@ -1,44 +1,211 @@
 package cz.bedla.bank.service.impl
 
-import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.service.Coordinator
+import cz.bedla.bank.service.CoordinatorMetrics
+import cz.bedla.bank.service.PaymentOrderQueue
 import cz.bedla.bank.service.PaymentOrderService
 import cz.bedla.bank.service.Transactor
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.UUID
+import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 class CoordinatorImpl(
     numWorkers: Int,
     private val initDelaySeconds: Int,
-    private val periodSeconds: Int,
+    periodSeconds: Int,
     private val paymentOrderService: PaymentOrderService,
     private val transactor: Transactor,
+    private val paymentOrderQueue: PaymentOrderQueue? = null,
+    private val lanes: TransactorLanes? = null,
+    private val batchSize: Int = 1,
+    leaseSeconds: Int = 60,
+    private val highWaterMark: Int = numWorkers * maxOf(batchSize, 1) * 2,
+    private val minPollIntervalMillis: Long = 100,
     private val poller: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor(),
-    private val workerExecutor: ExecutorService = Executors.newFixedThreadPool(numWorkers)
+    private val workerExecutor: ExecutorService = ThreadPoolExecutor(
+        numWorkers, numWorkers, 0, TimeUnit.MILLISECONDS, ArrayBlockingQueue(highWaterMark)
+    ),
+    private val dispatcher: ExecutorService = Executors.newSingleThreadExecutor()
 ) : Coordinator {
+    private val running = AtomicBoolean()
+    private val coordinatorId = "coordinator-${UUID.randomUUID()}"
+    private val claimSequence = AtomicLong()
+    private val lease = Duration.ofSeconds(leaseSeconds.toLong())
+    private val inFlight = AtomicInteger()
+    private val capacityLock = ReentrantLock()
+    private val capacityFreed = capacityLock.newCondition()
+    private val rejectedSubmissions = AtomicLong()
+    private val maxPollIntervalMillis = maxOf(TimeUnit.SECONDS.toMillis(periodSeconds.toLong()), minPollIntervalMillis)
+    private val pollIntervalMillis = AtomicLong(minPollIntervalMillis)
+    private val paymentOrderPoller = PaymentOrderPoller({ reserveCapacity(highWaterMark) }, { released(it) }, {
+        nextClaimOwner()
+    }, { claimOwner, limit ->
+        paymentOrderService.claimItemsToProcess(claimOwner, lease, limit)
+    }, { paymentOrders, claimOwner ->
+        submitAll(paymentOrders, claimOwner)
+    }) { limit, claimed ->
+        schedulePoll(nextPollInterval(limit, claimed), TimeUnit.MILLISECONDS)
+    }
 
     override fun start() {
         logger.info("Coordinator starting")
-        poller.scheduleAtFixedRate(
-            PaymentOrderPoller(paymentOrderService) { paymentOrder ->
-                workerExecutor.submit { transactor.process(paymentOrder) }
-            },
-            initDelaySeconds.toLong(),
-            periodSeconds.toLong(),
-            TimeUnit.SECONDS
-        )
+        running.set(true)
+        schedulePoll(initDelaySeconds.toLong(), TimeUnit.SECONDS)
+        if (paymentOrderQueue != null) {
+            dispatcher.submit(
+                PaymentOrderDispatcher(paymentOrderQueue, running, { reserveCapacity(batchSize) }, { released(it) }, {
+                    nextClaimOwner()
+                }, { paymentOrderId, claimOwner ->
+                    paymentOrderService.claimItemToProcess(paymentOrderId, claimOwner, lease)
+                }) { paymentOrders, claimOwner ->
+                    submitAll(paymentOrders, claimOwner)
+                }
+            )
+        }
     }
 
     override fun stop() {
         logger.info("Coordinator stopping")
+        running.set(false)
+        capacityLock.withLock { capacityFreed.signalAll() }
+        dispatcher.silentlyShutdownAndWait()
+        lanes?.shutdownAndWait()
         workerExecutor.silentlyShutdownAndWait()
         poller.silentlyShutdownAndWait()
     }
 
+    override fun metrics(): CoordinatorMetrics {
+        val laneQueueDepths = lanes?.queueDepths() ?: listOf()
+        return CoordinatorMetrics(
+            lanes?.laneCount ?: 0,
+            laneQueueDepths,
+            laneQueueDepths.sum() + ((workerExecutor as? ThreadPoolExecutor)?.queue?.size ?: 0),
+            inFlight.get(),
+            highWaterMark,
+            rejectedSubmissions.get(),
+            pollIntervalMillis.get()
+        )
+    }
+
+    private fun schedulePoll(delay: Long, unit: TimeUnit) {
+        if (running.get()) {
+            try {
+                poller.schedule(paymentOrderPoller, delay, unit)
+            } catch (e: RejectedExecutionException) {
+                logger.info("Poller is shut down, not scheduling next poll")
+            }
+        }
+    }
+
+    private fun nextPollInterval(limit: Int, claimed: Int): Long = pollIntervalMillis.updateAndGet { current ->
+        when {
+            limit > 0 && claimed >= limit -> 0
+            claimed > 0 -> minPollIntervalMillis
+            else -> minOf(maxOf(current * 2, minPollIntervalMillis), maxPollIntervalMillis)
+        }
+    }
+
+    // capacity is reserved before claiming, so poller and dispatcher never claim more than workers can take,
+    // unused part of reservation is given back by released() after claim
+    private fun reserveCapacity(max: Int): Int = capacityLock.withLock {
+        while (running.get() && inFlight.get() >= highWaterMark) {
+            capacityFreed.await(1, TimeUnit.SECONDS)
+        }
+        if (running.get()) {
+            minOf(max, highWaterMark - inFlight.get()).also { inFlight.addAndGet(it) }
+        } else {
+            0
+        }
+    }
+
+    private fun released(count: Int) {
+        if (count > 0) {
+            inFlight.addAndGet(-count)
+            capacityLock.withLock { capacityFreed.signalAll() }
+        }
+    }
+
+    private fun execute(paymentOrders: List<PaymentOrderRef>, claimOwner: String, action: () -> Unit) {
+        val paymentOrder = paymentOrders.first()
+        val count = paymentOrders.size
+        val task = {
+            try {
+                action()
+            } catch (e: Exception) {
+                logger.error("PaymentOrder.id=${paymentOrder.id} - processing of $count payment-order(s) failed", e)
+            } finally {
+                released(count)
+            }
+        }
+        try {
+            if (lanes != null) {
+                lanes.submit(paymentOrder, task)
+            } else {
+                workerExecutor.submit(task)
+            }
+        } catch (e: RejectedExecutionException) {
+            released(count)
+            rejectedSubmissions.addAndGet(count.toLong())
+            logger.warn("PaymentOrder.id=${paymentOrder.id} - submission of $count payment-order(s) rejected, releasing claim")
+            paymentOrders.forEach { releaseClaim(it, claimOwner) }
+        }
+    }
+
+    private fun releaseClaim(paymentOrder: PaymentOrderRef, claimOwner: String) {
+        try {
+            if (!paymentOrderService.releaseClaimedItem(paymentOrder.id, claimOwner)) {
+                logger.info("PaymentOrder.id=${paymentOrder.id} - claim already lost, not released")
+            }
+        } catch (e: Exception) {
+            logger.error("PaymentOrder.id=${paymentOrder.id} - unable to release claim, left for lease expiration", e)
+        }
+    }
+
+    private fun nextClaimOwner(): String = "$coordinatorId#${claimSequence.incrementAndGet()}"
+
+    private fun submitAll(paymentOrders: List<PaymentOrderRef>, claimOwner: String) {
+        if (batchSize <= 1) {
+            paymentOrders.forEach { submit(it, claimOwner) }
+        } else if (lanes != null) {
+            val (sameLane, crossLane) = paymentOrders.partition {
+                lanes.laneOf(it.fromAccountId) == lanes.laneOf(it.toAccountId)
+            }
+            sameLane.groupBy { lanes.laneOf(it.fromAccountId) }
+                .values
+                .flatMap { it.chunked(batchSize) }
+                .forEach { submitBatch(it, claimOwner) }
+            crossLane.forEach { submit(it, claimOwner) }
+        } else {
+            paymentOrders.chunked(batchSize).forEach { submitBatch(it, claimOwner) }
+        }
+    }
+
+    private fun submitBatch(paymentOrders: List<PaymentOrderRef>, claimOwner: String) {
+        if (paymentOrders.size == 1) {
+            submit(paymentOrders.first(), claimOwner)
+        } else {
+            execute(paymentOrders, claimOwner) { transactor.processBatch(paymentOrders) }
+        }
+    }
+
+    private fun submit(paymentOrder: PaymentOrderRef, claimOwner: String) {
+        execute(listOf(paymentOrder), claimOwner) { transactor.process(paymentOrder) }
+    }
+
     private fun ExecutorService.silentlyShutdownAndWait() {
         try {
             shutdown()
@@ -53,15 +220,35 @@ class CoordinatorImpl(
     }
 
     private class PaymentOrderPoller(
-        private val paymentOrderService: PaymentOrderService,
-        private val processAction: (PaymentOrder) -> Unit
+        private val capacityAction: () -> Int,
+        private val releaseAction: (Int) -> Unit,
+        private val claimOwnerAction: () -> String,
+        private val claimAction: (String, Int) -> List<PaymentOrderRef>,
+        private val processAction: (List<PaymentOrderRef>, String) -> Unit,
+        private val rescheduleAction: (Int, Int) -> Unit
     ) : Runnable {
         override fun run() {
-            logger.info("Polling for new payment-order requests")
-            val list = paymentOrderService.listItemsToProcess()
-            logger.info("Found ${list.size} potential requests to process")
-            for (paymentOrder in list) {
-                processAction(paymentOrder)
+            var limit = 0
+            var claimed = 0
+            try {
+                logger.debug("Polling for new payment-order requests")
+                limit = capacityAction()
+                if (limit > 0) {
+                    val claimOwner = claimOwnerAction()
+                    val list = try {
+                        claimAction(claimOwner, limit).also { claimed = it.size }
+                    } finally {
+                        releaseAction(limit - claimed)
+                    }
+                    if (list.isNotEmpty()) {
+                        logger.info("Claimed $claimed requests to process")
+                        processAction(list, claimOwner)
+                    }
+                }
+            } catch (e: Exception) {
+                logger.error("Error while polling for payment-orders", e)
+            } finally {
+                rescheduleAction(limit, claimed)
             }
         }
 
@@ -69,4 +256,59 @@ class CoordinatorImpl(
             private val logger: Logger = LoggerFactory.getLogger(PaymentOrderPoller::class.java)
         }
     }
+
+    private class PaymentOrderDispatcher(
+        private val paymentOrderQueue: PaymentOrderQueue,
+        private val running: AtomicBoolean,
+        private val capacityAction: () -> Int,
+        private val releaseAction: (Int) -> Unit,
+        private val claimOwnerAction: () -> String,
+        private val claimAction: (Int, String) -> PaymentOrderRef?,
+        private val processAction: (List<PaymentOrderRef>, String) -> Unit
+    ) : Runnable {
+        override fun run() {
+            while (running.get()) {
+                try {
+                    val limit = capacityAction()
+                    if (limit <= 0) {
+                        continue
+                    }
+                    val claimOwner = claimOwnerAction()
+                    var claimed = 0
+                    val paymentOrders = try {
+                        pollIds(limit).mapNotNull { paymentOrderId ->
+                            claimAction(paymentOrderId, claimOwner).also {
+                                if (it == null) {
+                                    logger.info("PaymentOrder.id=$paymentOrderId - already claimed or processed, skipping.")
+                                }
+                            }
+                        }.also { claimed = it.size }
+                    } finally {
+                        releaseAction(limit - claimed)
+                    }
+                    if (paymentOrders.isNotEmpty()) {
+                        processAction(paymentOrders, claimOwner)
+                    }
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    return
+                } catch (e: Exception) {
+                    logger.error("Error while dispatching payment-order", e)
+                }
+            }
+        }
+
+        private fun pollIds(limit: Int): List<Int> {
+            val first = paymentOrderQueue.poll(1, TimeUnit.SECONDS) ?: return listOf()
+            val list = mutableListOf(first)
+            while (list.size < limit) {
+                list.add(paymentOrderQueue.poll(0, TimeUnit.SECONDS) ?: break)
+            }
+            return list
+        }
+
+        companion object {
+            private val logger: Logger = LoggerFactory.getLogger(PaymentOrderDispatcher::class.java)
+        }
+    }
 }
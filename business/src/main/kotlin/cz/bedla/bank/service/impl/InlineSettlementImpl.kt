@@ -0,0 +1,112 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.service.Coordinator
+import cz.bedla.bank.service.InlineSettlement
+import cz.bedla.bank.service.PaymentOrderService
+import cz.bedla.bank.service.SettlementResult
+import cz.bedla.bank.service.Transactor
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.time.Duration
+import java.util.UUID
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+
+class InlineSettlementImpl(
+    numWorkers: Int,
+    private val paymentOrderService: PaymentOrderService,
+    private val transactor: Transactor,
+    private val coordinator: Coordinator,
+    private val enabledByDefault: Boolean = false,
+    private val budgetMillis: Long = 200,
+    leaseSeconds: Int = 60,
+    private val executor: ExecutorService = ThreadPoolExecutor(
+        numWorkers, numWorkers, 0, TimeUnit.MILLISECONDS, SynchronousQueue()
+    )
+) : InlineSettlement {
+    private val settlementId = "inline-${UUID.randomUUID()}"
+    private val claimSequence = AtomicLong()
+    private val lease = Duration.ofSeconds(leaseSeconds.toLong())
+
+    override fun transfer(
+        fromAccountId: Int,
+        toAccountId: Int,
+        amount: Money,
+        settleInline: Boolean?
+    ): SettlementResult {
+        if (!(settleInline ?: enabledByDefault) || isBacklogged()) {
+            return asyncResult(paymentOrderService.receivePaymentRequest(fromAccountId, toAccountId, amount))
+        }
+
+        val claimOwner = "$settlementId#${claimSequence.incrementAndGet()}"
+        val paymentOrder = paymentOrderService.receiveClaimedPaymentRequest(
+            fromAccountId, toAccountId, amount, claimOwner, lease
+        )
+        val future = try {
+            executor.submit<Transactor.ResultState> { transactor.process(paymentOrder.toRef()) }
+        } catch (e: RejectedExecutionException) {
+            logger.debug("PaymentOrder.id=${paymentOrder.id} - no free inline worker, falling back to async path")
+            return release(paymentOrder, claimOwner)
+        }
+
+        return try {
+            when (future.get(budgetMillis, TimeUnit.MILLISECONDS)) {
+                Transactor.ResultState.MONEY_SENT -> inlineResult(paymentOrder, PaymentOrderState.OK)
+                Transactor.ResultState.NO_FUNDS -> inlineResult(paymentOrder, PaymentOrderState.NO_FUNDS)
+                Transactor.ResultState.FAILED -> inlineResult(paymentOrder, PaymentOrderState.FAILED)
+                else -> release(paymentOrder, claimOwner)
+            }
+        } catch (e: TimeoutException) {
+            logger.debug("PaymentOrder.id=${paymentOrder.id} - latency budget exceeded, settlement continues asynchronously")
+            asyncResult(paymentOrder, PaymentOrderState.PROCESSING)
+        } catch (e: ExecutionException) {
+            logger.error("PaymentOrder.id=${paymentOrder.id} - inline settlement failed, left for lease expiration", e.cause)
+            asyncResult(paymentOrder, PaymentOrderState.PROCESSING)
+        }
+    }
+
+    override fun start() {
+        logger.info("Inline settlement starting")
+    }
+
+    override fun stop() {
+        logger.info("Inline settlement stopping")
+        try {
+            executor.shutdown()
+            executor.awaitTermination(5, TimeUnit.SECONDS)
+        } catch (e: Exception) {
+            logger.error("Error while shutting down: $executor", e)
+        }
+    }
+
+    // in-flight orders include queued ones
+    private fun isBacklogged(): Boolean = coordinator.metrics().let {
+        it.inFlight >= it.highWaterMark
+    }
+
+    private fun release(paymentOrder: PaymentOrder, claimOwner: String): SettlementResult {
+        paymentOrderService.releaseClaimedItem(paymentOrder.id, claimOwner)
+        return asyncResult(paymentOrder)
+    }
+
+    private fun asyncResult(
+        paymentOrder: PaymentOrder,
+        state: PaymentOrderState = PaymentOrderState.RECEIVED
+    ): SettlementResult = SettlementResult(paymentOrder, state, InlineSettlement.Path.ASYNC)
+
+    private fun inlineResult(paymentOrder: PaymentOrder, state: PaymentOrderState): SettlementResult =
+        SettlementResult(paymentOrder, state, InlineSettlement.Path.INLINE)
+
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(InlineSettlementImpl::class.java)
+    }
+}
@@ -0,0 +1,24 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.service.PaymentOrderQueue
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class PaymentOrderQueueImpl(capacity: Int = 10_000) : PaymentOrderQueue {
+    private val queue = LinkedBlockingQueue<Int>(capacity)
+
+    override fun offer(paymentOrderId: Int): Boolean =
+        queue.offer(paymentOrderId).also { accepted ->
+            if (!accepted) {
+                logger.warn("PaymentOrder.id=$paymentOrderId - dispatch queue full, leaving it for the poller.")
+            }
+        }
+
+    override fun poll(timeout: Long, unit: TimeUnit): Int? = queue.poll(timeout, unit)
+
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(PaymentOrderQueueImpl::class.java)
+    }
+}
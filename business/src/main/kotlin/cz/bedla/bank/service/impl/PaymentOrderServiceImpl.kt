@@ -2,45 +2,46 @@ package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
 import cz.bedla.bank.service.*
 import cz.bedla.bank.tx.Transactional
-import java.math.BigDecimal
+import java.time.Duration
 import java.time.OffsetDateTime
 
 class PaymentOrderServiceImpl(
     private val paymentOrderDao: PaymentOrderDao,
     private val accountService: AccountService,
-    private val transactional: Transactional
+    private val transactional: Transactional,
+    private val paymentOrderQueue: PaymentOrderQueue
 ) : PaymentOrderService {
-    override fun receivePaymentRequest(fromAccountId: Int, toAccountId: Int, amount: BigDecimal): PaymentOrder =
+    override fun receivePaymentRequest(fromAccountId: Int, toAccountId: Int, amount: Money): PaymentOrder =
         transactional.execute {
-            check(amount > 0.toBigDecimal()) { "Invalid amount value" }
-
-            val fromAccount = accountService.findAccount(fromAccountId)
-            val toAccount = accountService.findAccount(toAccountId)
-
-            if (fromAccount.type == AccountType.PERSONAL && toAccount.type == AccountType.PERSONAL) {
-                paymentOrderDao.create(
-                    PaymentOrder(
-                        fromAccount,
-                        toAccount,
-                        amount,
-                        PaymentOrderState.RECEIVED,
-                        OffsetDateTime.now()
-                    )
-                )
-            } else {
-                throw InvalidPaymentRequest(fromAccountId, toAccountId)
-            }
+            createPaymentRequest(fromAccountId, toAccountId, amount).dispatchAfterCommit()
         }
 
-    override fun topUpRequest(toAccountId: Int, amount: BigDecimal): PaymentOrder = transactional.execute {
-        check(amount > 0.toBigDecimal()) { "Invalid amount value" }
+    override fun receiveClaimedPaymentRequest(
+        fromAccountId: Int,
+        toAccountId: Int,
+        amount: Money,
+        claimOwner: String,
+        lease: Duration
+    ): PaymentOrder = transactional.execute {
+        val paymentOrder = createPaymentRequest(fromAccountId, toAccountId, amount)
+        val now = OffsetDateTime.now()
+        val claimed = checkNotNull(paymentOrderDao.claimItem(paymentOrder.id, claimOwner, now.plus(lease), now)) {
+            "Unable to claim paymentOrder.id=${paymentOrder.id}"
+        }
+        paymentOrder.copy(state = claimed.state, version = claimed.version)
+    }
+
+    override fun topUpRequest(toAccountId: Int, amount: Money): PaymentOrder = transactional.execute {
+        check(amount.isPositive()) { "Invalid amount value" }
 
         val account = accountService.findAccount(toAccountId)
-        val topUpAccount = accountService.findTopUpAccount()
+        val topUpAccount = accountService.findTopUpAccount(toAccountId)
 
         account.topUpWithPersonalAccountOnly {
             paymentOrderDao.create(
@@ -51,15 +52,15 @@ class PaymentOrderServiceImpl(
                     PaymentOrderState.RECEIVED,
                     OffsetDateTime.now()
                 )
-            )
+            ).dispatchAfterCommit()
         }
     }
 
-    override fun withdrawalRequest(fromAccountId: Int, amount: BigDecimal): PaymentOrder = transactional.execute {
-        check(amount > 0.toBigDecimal()) { "Invalid amount value" }
+    override fun withdrawalRequest(fromAccountId: Int, amount: Money): PaymentOrder = transactional.execute {
+        check(amount.isPositive()) { "Invalid amount value" }
 
         val account = accountService.findAccount(fromAccountId)
-        val withdrawalAccount = accountService.findWithdrawalAccount()
+        val withdrawalAccount = accountService.findWithdrawalAccount(fromAccountId)
 
         account.withdrawWithPersonalAccountOnly {
             paymentOrderDao.create(
@@ -70,15 +71,15 @@ class PaymentOrderServiceImpl(
                     PaymentOrderState.RECEIVED,
                     OffsetDateTime.now()
                 )
-            )
+            ).dispatchAfterCommit()
         }
     }
 
-    override fun paymentOrderState(id: Int): PaymentOrderState = transactional.execute {
+    override fun paymentOrderState(id: Int): PaymentOrderState = transactional.executeReadOnly {
         (paymentOrderDao.findPaymentOrder(id) ?: throw PaymentOrderNotFound(id)).state
     }
 
-    override fun listItemsForPersonalAccounts(accountId: Int): List<PaymentOrder> = transactional.execute {
+    override fun listItemsForPersonalAccounts(accountId: Int): List<PaymentOrder> = transactional.executeReadOnly {
         val account = accountService.findAccount(accountId)
 
         account.withPersonalAccountOnly({
@@ -88,8 +89,64 @@ class PaymentOrderServiceImpl(
         })
     }
 
-    override fun listItemsToProcess(): List<PaymentOrder> = transactional.execute {
-        paymentOrderDao.findItemsWithState(PaymentOrderState.RECEIVED)
+    override fun listItemsForPersonalAccounts(accountId: Int, page: PageRequest): List<PaymentOrder> =
+        transactional.executeReadOnly {
+            val account = accountService.findAccount(accountId)
+
+            account.withPersonalAccountOnly({
+                paymentOrderDao.findItemsForAccount(it, page)
+            }, {
+                throw InvalidAccountRequest(it.id, "list request")
+            })
+        }
+
+    override fun listItemsToProcess(afterId: Int, limit: Int): List<PaymentOrderRef> = transactional.executeReadOnly {
+        paymentOrderDao.findItemsWithState(PaymentOrderState.RECEIVED, afterId, limit)
+    }
+
+    override fun claimItemsToProcess(claimOwner: String, lease: Duration, limit: Int): List<PaymentOrderRef> =
+        transactional.execute {
+            val now = OffsetDateTime.now()
+            paymentOrderDao.claimItems(claimOwner, now.plus(lease), now, limit)
+        }
+
+    override fun claimItemToProcess(id: Int, claimOwner: String, lease: Duration): PaymentOrderRef? =
+        transactional.execute {
+            val now = OffsetDateTime.now()
+            paymentOrderDao.claimItem(id, claimOwner, now.plus(lease), now)
+        }
+
+    override fun releaseClaimedItem(id: Int, claimOwner: String): Boolean = transactional.execute {
+        paymentOrderDao.releaseItem(id, claimOwner).also { released ->
+            if (released) {
+                transactional.afterCommit { paymentOrderQueue.offer(id) }
+            }
+        }
+    }
+
+    private fun createPaymentRequest(fromAccountId: Int, toAccountId: Int, amount: Money): PaymentOrder {
+        check(amount.isPositive()) { "Invalid amount value" }
+
+        val fromAccount = accountService.findAccount(fromAccountId)
+        val toAccount = accountService.findAccount(toAccountId)
+
+        return if (fromAccount.type == AccountType.PERSONAL && toAccount.type == AccountType.PERSONAL) {
+            paymentOrderDao.create(
+                PaymentOrder(
+                    fromAccount,
+                    toAccount,
+                    amount,
+                    PaymentOrderState.RECEIVED,
+                    OffsetDateTime.now()
+                )
+            )
+        } else {
+            throw InvalidPaymentRequest(fromAccountId, toAccountId)
+        }
+    }
+
+    private fun PaymentOrder.dispatchAfterCommit(): PaymentOrder = also {
+        transactional.afterCommit { paymentOrderQueue.offer(it.id) }
     }
 
     private inline fun <T> Account.withdrawWithPersonalAccountOnly(block: (Account) -> T): T =
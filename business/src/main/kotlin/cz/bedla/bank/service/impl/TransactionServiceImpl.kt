@@ -1,21 +1,43 @@
 package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.Account
-import cz.bedla.bank.domain.Transaction
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.TransactionView
+import cz.bedla.bank.service.BalanceVerification
+import cz.bedla.bank.service.PageRequest
 import cz.bedla.bank.service.TransactionDao
 import cz.bedla.bank.service.TransactionService
 import cz.bedla.bank.tx.Transactional
-import java.math.BigDecimal
 
 class TransactionServiceImpl(
     private val transactionDao: TransactionDao,
     private val transactional: Transactional
 ) : TransactionService {
-    override fun calculateBalance(account: Account): BigDecimal = transactional.execute {
+    override fun calculateBalance(account: Account): Money = transactional.executeReadOnly {
         transactionDao.calculateBalance(account)
     }
 
-    override fun findAccountTransactions(account: Account): List<Transaction> = transactional.execute {
+    override fun verifyBalance(account: Account): BalanceVerification = transactional.executeReadOnly {
+        transactionDao.verifyBalance(account).let { (balance, recalculatedBalance) ->
+            BalanceVerification(balance, recalculatedBalance)
+        }
+    }
+
+    override fun advanceCheckpoints(limit: Int): Int = transactional.execute {
+        transactionDao.advanceCheckpoints(limit)
+    }
+
+    override fun findAccountTransactions(account: Account): List<TransactionView> = transactional.executeReadOnly {
         transactionDao.findAccountTransactions(account)
     }
+
+    override fun findAccountTransactions(account: Account, page: PageRequest): List<TransactionView> =
+        transactional.executeReadOnly {
+            transactionDao.findAccountTransactions(account, page)
+        }
+
+    override fun exportAccountTransactions(account: Account, action: (TransactionView) -> Unit): Int =
+        transactional.executeReadOnly {
+            transactionDao.exportAccountTransactions(account, action)
+        }
 }
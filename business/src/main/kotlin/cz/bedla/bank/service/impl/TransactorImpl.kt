@@ -1,82 +1,302 @@
 package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.AccountType
-import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.service.AccountConflictMetrics
 import cz.bedla.bank.service.AccountDao
 import cz.bedla.bank.service.PaymentOrderDao
 import cz.bedla.bank.service.TransactionDao
 import cz.bedla.bank.service.Transactor
+import cz.bedla.bank.service.TransactorMetrics
+import cz.bedla.bank.tx.Propagation
 import cz.bedla.bank.tx.Transactional
+import org.jooq.exception.DataChangedException
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.time.OffsetDateTime
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.LongAdder
 
 class TransactorImpl(
     private val transactionDao: TransactionDao,
     private val paymentOrderDao: PaymentOrderDao,
     private val accountDao: AccountDao,
     private val transactional: Transactional,
+    private val maxRetries: Int = 5,
+    private val retryBackoffMillis: Long = 10,
+    private val maxAttempts: Int = 3,
     private val beforeProcessBlock: () -> Unit = {}
 ) : Transactor {
     private val running = AtomicBoolean()
+    private val accountConflicts = ConcurrentHashMap<Int, AccountConflicts>()
+    private val conflicts = LongAdder()
+    private val retries = LongAdder()
+    private val deadLettered = LongAdder()
 
-    override fun process(paymentOrder: PaymentOrder): Transactor.ResultState =
-        when {
-            !running.get() -> {
-                logger.info("PaymentOrder.id=${paymentOrder.id} - transactor not running, skipping.")
-                Transactor.ResultState.STOPPED
+    override fun process(paymentOrder: PaymentOrderRef): Transactor.ResultState {
+        if (!running.get()) {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - transactor not running, skipping.")
+            return Transactor.ResultState.STOPPED
+        }
+
+        var attempt = 0
+        while (true) {
+            try {
+                return trySendMoney(paymentOrder)
+            } catch (e: DataChangedException) {
+                conflicts.increment()
+                paymentOrder.conflicted { it.conflicts.increment() }
+                if (attempt >= maxRetries) {
+                    logger.warn("PaymentOrder.id=${paymentOrder.id} - version conflict, retry budget of $maxRetries exhausted", e)
+                    deadLetter(paymentOrder)
+                    return Transactor.ResultState.FAILED
+                }
+                attempt++
+                retries.increment()
+                paymentOrder.conflicted { it.retries.increment() }
+                val backoffLimit = retryBackoffMillis shl (attempt - 1)
+                val backoff = ThreadLocalRandom.current().nextLong(backoffLimit + 1)
+                logger.info("PaymentOrder.id=${paymentOrder.id} - version conflict, retry #$attempt in ${backoff}ms")
+                Thread.sleep(backoff)
+            } catch (e: Exception) {
+                if (failedAttempt(paymentOrder, e)) {
+                    return Transactor.ResultState.FAILED
+                }
+                throw e
             }
-            checkPaymentOrderReceived(paymentOrder) -> {
-                logger.info("PaymentOrder.id=${paymentOrder.id} - already processed (heavy-load?), skipping.")
-                Transactor.ResultState.INVALID_STATE
+        }
+    }
+
+    override fun metrics(): TransactorMetrics {
+        val hotAccounts = accountConflicts
+            .map { (accountId, account) ->
+                AccountConflictMetrics(accountId, account.conflicts.sum(), account.retries.sum())
             }
-            else -> trySendMoney(paymentOrder)
+            .sortedByDescending { it.conflicts }
+            .take(HOT_ACCOUNTS)
+        return TransactorMetrics(conflicts.sum(), retries.sum(), deadLettered.sum(), hotAccounts)
+    }
+
+    private fun deadLetter(paymentOrder: PaymentOrderRef) {
+        try {
+            // parked independently of transaction of caller (if any)
+            transactional.run(Propagation.REQUIRES_NEW) {
+                paymentOrderDao.updateState(paymentOrder.copy(state = PaymentOrderState.FAILED))
+            }
+            deadLettered.increment()
+            logger.warn("PaymentOrder.id=${paymentOrder.id} - parked in ${PaymentOrderState.FAILED} state")
+        } catch (e: DataChangedException) {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - changed meanwhile, not parking it")
         }
+    }
 
-    private fun checkPaymentOrderReceived(paymentOrder: PaymentOrder) = transactional.execute {
-        (paymentOrderDao.findPaymentOrder(paymentOrder.id)
-            ?: error("Unable to find paymentOrder.id=${paymentOrder.id}"))
-            .state != PaymentOrderState.RECEIVED
+    // failed order is left for lease expiration, it is parked when it fails maxAttempts times
+    private fun failedAttempt(paymentOrder: PaymentOrderRef, cause: Exception): Boolean {
+        val attempts = try {
+            transactional.execute(Propagation.REQUIRES_NEW) { paymentOrderDao.recordFailedAttempt(paymentOrder.id) }
+        } catch (e: Exception) {
+            cause.addSuppressed(e)
+            return false
+        }
+        if (attempts < maxAttempts) {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - attempt #$attempts of $maxAttempts failed")
+            return false
+        }
+        logger.warn("PaymentOrder.id=${paymentOrder.id} - all $maxAttempts attempts failed", cause)
+        deadLetter(paymentOrder)
+        return true
     }
 
-    private fun isPersonalAccountWithoutFunds(paymentOrder: PaymentOrder): Boolean {
-        val fromAccount = paymentOrder.fromAccount
-        return fromAccount.type == AccountType.PERSONAL && fromAccount.balance < paymentOrder.amount
+    private inline fun PaymentOrderRef.conflicted(block: (AccountConflicts) -> Unit) {
+        block(accountConflicts.computeIfAbsent(fromAccountId) { AccountConflicts() })
+        block(accountConflicts.computeIfAbsent(toAccountId) { AccountConflicts() })
     }
 
-    private fun trySendMoney(paymentOrder: PaymentOrder) = transactional.execute {
+    override fun processBatch(paymentOrders: List<PaymentOrderRef>): List<Transactor.ResultState> {
+        if (!running.get()) {
+            logger.info("Batch of ${paymentOrders.size} payment-orders - transactor not running, skipping.")
+            return paymentOrders.map { Transactor.ResultState.STOPPED }
+        }
+
+        val conflicting = mutableListOf<PaymentOrderRef>()
+        val failed = mutableListOf<Pair<PaymentOrderRef, Exception>>()
+        val results = HashMap(transactional.execute { settleBatch(paymentOrders, conflicting, failed) })
+
+        // recorded after batch transaction is finished, so rows are not locked by it anymore
+        for ((paymentOrder, e) in failed) {
+            failedAttempt(paymentOrder, e)
+        }
+
+        for (paymentOrder in conflicting) {
+            results[paymentOrder.id] = try {
+                process(paymentOrder)
+            } catch (e: Exception) {
+                logger.error("PaymentOrder.id=${paymentOrder.id} - single processing after batch conflict failed", e)
+                Transactor.ResultState.FAILED
+            }
+        }
+        return paymentOrders.map { results.getValue(it.id) }
+    }
+
+    // JDBC batches run inside savepoint, when they fail orders are settled one by one in their own savepoints
+    // of the same DB transaction, so one failing order does not discard the rest of the batch
+    private fun settleBatch(
+        paymentOrders: List<PaymentOrderRef>,
+        conflicting: MutableList<PaymentOrderRef>,
+        failed: MutableList<Pair<PaymentOrderRef, Exception>>
+    ): Map<Int, Transactor.ResultState> {
         beforeProcessBlock()
-        if (isPersonalAccountWithoutFunds(paymentOrder)) {
-            logger.info("PaymentOrder.id=${paymentOrder.id} - from account.id=${paymentOrder.fromAccount.id} does not have enough funds.")
-            paymentOrderDao.updateState(paymentOrder.copy(state = PaymentOrderState.NO_FUNDS))
-            Transactor.ResultState.NO_FUNDS
-        } else {
-            val fromAccount = paymentOrder.fromAccount
-            val toAccount = paymentOrder.toAccount
-            logger.info("PaymentOrder.id=${paymentOrder.id} - sending money from account.id=${fromAccount.id} to account.id=${toAccount.id}")
-
-            val transaction = transactionDao.create(
-                paymentOrder.id,
-                fromAccount.id,
-                toAccount.id,
-                paymentOrder.amount,
-                OffsetDateTime.now()
-            )
-            logger.info("PaymentOrder.id=${paymentOrder.id} - created transaction.wrId=${transaction.paymentOrder.id}")
-
-            accountDao.updateBalance(fromAccount.copy(balance = fromAccount.balance - paymentOrder.amount))
-            accountDao.updateBalance(toAccount.copy(balance = toAccount.balance + paymentOrder.amount))
-            logger.info("PaymentOrder.id=${paymentOrder.id} - balances updated with amount=${paymentOrder.amount}")
+        try {
+            return transactional.execute(Propagation.NESTED) { trySettleBatch(paymentOrders) }
+        } catch (e: BatchConflictException) {
+            logger.info("Batch of ${paymentOrders.size} payment-orders - ${e.paymentOrders.size} conflicting, settling them one by one.")
+            conflicts.add(e.paymentOrders.size.toLong())
+            e.paymentOrders.forEach { paymentOrder -> paymentOrder.conflicted { it.conflicts.increment() } }
+        } catch (e: Exception) {
+            logger.warn("Batch of ${paymentOrders.size} payment-orders - failed, settling them one by one.", e)
+        }
+
+        val results = HashMap<Int, Transactor.ResultState>()
+        for (paymentOrder in paymentOrders) {
+            try {
+                results[paymentOrder.id] = transactional.execute(Propagation.NESTED) { sendMoney(paymentOrder) }
+            } catch (e: DataChangedException) {
+                logger.info("PaymentOrder.id=${paymentOrder.id} - version conflict in batch, processing it alone")
+                conflicts.increment()
+                paymentOrder.conflicted { it.conflicts.increment() }
+                conflicting.add(paymentOrder)
+            } catch (e: Exception) {
+                logger.error("PaymentOrder.id=${paymentOrder.id} - settlement in batch failed", e)
+                failed.add(paymentOrder to e)
+                results[paymentOrder.id] = Transactor.ResultState.FAILED
+            }
+        }
+        return results
+    }
+
+    private fun trySettleBatch(paymentOrders: List<PaymentOrderRef>): Map<Int, Transactor.ResultState> {
+        // accounts are hydrated here, queued payment orders carry account ids only
+        val accountIds = paymentOrders.flatMap { listOf(it.fromAccountId, it.toAccountId) }
+        val accounts = HashMap(accountDao.findAccountsById(accountIds))
+        val sent = mutableListOf<PaymentOrderRef>()
+        val noFunds = mutableListOf<PaymentOrderRef>()
+
+        for (paymentOrder in paymentOrders) {
+            val from = accounts[paymentOrder.fromAccountId]
+                ?: error("Unable to find fromAccount.id=${paymentOrder.fromAccountId} for paymentOrder.id=${paymentOrder.id}")
+            if (from.type == AccountType.PERSONAL && from.balance < paymentOrder.amount) {
+                noFunds.add(paymentOrder)
+            } else {
+                accounts[from.id] = from.copy(balance = from.balance - paymentOrder.amount)
+                val to = accounts[paymentOrder.toAccountId]
+                    ?: error("Unable to find toAccount.id=${paymentOrder.toAccountId} for paymentOrder.id=${paymentOrder.id}")
+                accounts[to.id] = to.copy(balance = to.balance + paymentOrder.amount)
+                sent.add(paymentOrder)
+            }
+        }
+
+        logger.info("Batch of ${paymentOrders.size} payment-orders - sending ${sent.size}, ${noFunds.size} without funds")
+        val alreadyTransacted = sent
+            .zip(transactionDao.createAll(sent, OffsetDateTime.now()))
+            .filter { !it.second }
+            .map { it.first }
+        if (alreadyTransacted.isNotEmpty()) {
+            throw BatchConflictException(alreadyTransacted)
+        }
+
+        val touchedAccounts = accounts.values.toList()
+        val conflictingAccountIds = touchedAccounts
+            .zip(accountDao.updateBalances(touchedAccounts))
+            .filter { !it.second }
+            .map { it.first.id }
+            .toSet()
+
+        val updatedPaymentOrders = sent.map { it.copy(state = PaymentOrderState.OK) } +
+                noFunds.map { it.copy(state = PaymentOrderState.NO_FUNDS) }
+        val conflictingIds = updatedPaymentOrders
+            .zip(paymentOrderDao.updateStates(updatedPaymentOrders))
+            .filter {
+                !it.second ||
+                        it.first.fromAccountId in conflictingAccountIds ||
+                        it.first.toAccountId in conflictingAccountIds
+            }
+            .map { it.first.id }
+            .toSet()
+        if (conflictingIds.isNotEmpty()) {
+            throw BatchConflictException(paymentOrders.filter { it.id in conflictingIds })
+        }
+
+        return sent.associate { it.id to Transactor.ResultState.MONEY_SENT } +
+                noFunds.associate { it.id to Transactor.ResultState.NO_FUNDS }
+    }
+
+    private fun isWaitingForProcessing(paymentOrder: PaymentOrderRef): Boolean {
+        val found = paymentOrderDao.findPaymentOrderRef(paymentOrder.id)
+            ?: error("Unable to find paymentOrder.id=${paymentOrder.id}")
+        return found.state in WAITING_STATES && found.version == paymentOrder.version
+    }
+
+    private fun trySendMoney(paymentOrder: PaymentOrderRef) = transactional.execute { sendMoney(paymentOrder) }
+
+    private fun sendMoney(paymentOrder: PaymentOrderRef): Transactor.ResultState {
+        if (!isWaitingForProcessing(paymentOrder)) {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - already processed or claimed by someone else, skipping.")
+            return Transactor.ResultState.INVALID_STATE
+        }
+        beforeProcessBlock()
+        return if (transferBalances(paymentOrder)) {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - sent money from account.id=${paymentOrder.fromAccountId} to account.id=${paymentOrder.toAccountId} with amount=${paymentOrder.amount}")
+            if (!transactionDao.createAll(listOf(paymentOrder), OffsetDateTime.now()).single()) {
+                // transaction row committed by someone else, roll back transfer and let retry see the new state
+                throw DataChangedException("PaymentOrder.id=${paymentOrder.id} - transaction already exists")
+            }
 
             logger.info("PaymentOrder.id=${paymentOrder.id} - state updated to ${PaymentOrderState.OK}, commit...")
             paymentOrderDao.updateState(paymentOrder.copy(state = PaymentOrderState.OK))
-
             Transactor.ResultState.MONEY_SENT
+        } else {
+            logger.info("PaymentOrder.id=${paymentOrder.id} - from account.id=${paymentOrder.fromAccountId} does not have enough funds.")
+            paymentOrderDao.updateState(paymentOrder.copy(state = PaymentOrderState.NO_FUNDS))
+            Transactor.ResultState.NO_FUNDS
+        }
+    }
+
+    // Rows are always locked in ascending account id order so opposite transfers cannot deadlock,
+    // credit applied before failed debit is rolled back to savepoint.
+    private fun transferBalances(paymentOrder: PaymentOrderRef): Boolean {
+        val fromAccountId = paymentOrder.fromAccountId
+        val toAccountId = paymentOrder.toAccountId
+        val amount = paymentOrder.amount
+        val requireFunds = paymentOrder.fromAccountType == AccountType.PERSONAL
+        return if (fromAccountId < toAccountId) {
+            accountDao.debit(fromAccountId, amount, requireFunds) &&
+                    accountDao.credit(toAccountId, amount).also { checkAccountUpdated(it, toAccountId, paymentOrder) }
+        } else {
+            try {
+                transactional.execute(Propagation.NESTED) {
+                    checkAccountUpdated(accountDao.credit(toAccountId, amount), toAccountId, paymentOrder)
+                    if (!accountDao.debit(fromAccountId, amount, requireFunds)) {
+                        throw NotDebitedException()
+                    }
+                    true
+                }
+            } catch (e: NotDebitedException) {
+                false
+            }
+        }.also { debited ->
+            if (!debited && !requireFunds) {
+                error("Unable to find fromAccount.id=$fromAccountId for paymentOrder.id=${paymentOrder.id}")
+            }
         }
     }
 
+    private fun checkAccountUpdated(updated: Boolean, accountId: Int, paymentOrder: PaymentOrderRef) {
+        check(updated) { "Unable to find toAccount.id=$accountId for paymentOrder.id=${paymentOrder.id}" }
+    }
+
     override fun start() {
         running.set(true)
     }
@@ -87,5 +307,18 @@ class TransactorImpl(
 
     companion object {
         private val logger: Logger = LoggerFactory.getLogger(TransactorImpl::class.java)
+
+        private val WAITING_STATES = setOf(PaymentOrderState.RECEIVED, PaymentOrderState.PROCESSING)
+
+        private const val HOT_ACCOUNTS = 20
     }
+
+    private class AccountConflicts {
+        val conflicts = LongAdder()
+        val retries = LongAdder()
+    }
+
+    private class NotDebitedException : RuntimeException(null, null, false, false)
+
+    private class BatchConflictException(val paymentOrders: List<PaymentOrderRef>) : RuntimeException(null, null, false, false)
 }
@@ -0,0 +1,75 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.domain.PaymentOrderRef
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.concurrent.*
+
+class TransactorLanes(numLanes: Int) {
+    init {
+        require(numLanes > 0) { "Number of lanes has to be positive" }
+    }
+
+    private val lanes: List<ThreadPoolExecutor> = List(numLanes) { lane ->
+        ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, LinkedBlockingQueue<Runnable>(), ThreadFactory {
+            Thread(it, "transactor-lane-$lane")
+        })
+    }
+
+    val laneCount: Int
+        get() = lanes.size
+
+    fun queueDepths(): List<Int> = lanes.map { it.queue.size }
+
+    fun laneOf(accountId: Int): Int = Math.floorMod(accountId, lanes.size)
+
+    fun submit(paymentOrder: PaymentOrderRef, action: () -> Unit) {
+        val fromLane = laneOf(paymentOrder.fromAccountId)
+        val toLane = laneOf(paymentOrder.toAccountId)
+        if (fromLane == toLane) {
+            lanes[fromLane].execute(action)
+        } else {
+            submitCrossLane(minOf(fromLane, toLane), maxOf(fromLane, toLane), action)
+        }
+    }
+
+    // Lower lane runs the action while higher lane is parked, both tasks are enqueued atomically
+    // so every pair of lanes sees cross-lane tasks in the same order (no deadlock).
+    @Synchronized
+    private fun submitCrossLane(ownerLane: Int, parkedLane: Int, action: () -> Unit) {
+        val parked = CountDownLatch(1)
+        val done = CountDownLatch(1)
+        lanes[parkedLane].execute {
+            parked.countDown()
+            done.await()
+        }
+        try {
+            lanes[ownerLane].execute {
+                try {
+                    parked.await()
+                    action()
+                } finally {
+                    done.countDown()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            done.countDown()
+            throw e
+        }
+    }
+
+    fun shutdownAndWait() {
+        lanes.forEach { it.shutdown() }
+        for (lane in lanes) {
+            try {
+                lane.awaitTermination(5, TimeUnit.SECONDS)
+            } catch (e: Exception) {
+                logger.error("Error while shutting down: $lane", e)
+            }
+        }
+    }
+
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(TransactorLanes::class.java)
+    }
+}
@@ -1,22 +1,40 @@
 package cz.bedla.bank.service
 
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
-import java.math.BigDecimal
+import java.time.Duration
 
 
 interface PaymentOrderService {
-    fun receivePaymentRequest(fromAccountId: Int, toAccountId: Int, amount: BigDecimal): PaymentOrder
+    fun receivePaymentRequest(fromAccountId: Int, toAccountId: Int, amount: Money): PaymentOrder
 
-    fun topUpRequest(toAccountId: Int, amount: BigDecimal): PaymentOrder
+    fun receiveClaimedPaymentRequest(
+        fromAccountId: Int,
+        toAccountId: Int,
+        amount: Money,
+        claimOwner: String,
+        lease: Duration
+    ): PaymentOrder
 
-    fun withdrawalRequest(fromAccountId: Int, amount: BigDecimal): PaymentOrder
+    fun topUpRequest(toAccountId: Int, amount: Money): PaymentOrder
+
+    fun withdrawalRequest(fromAccountId: Int, amount: Money): PaymentOrder
 
     fun paymentOrderState(id: Int): PaymentOrderState
 
     fun listItemsForPersonalAccounts(accountId: Int): List<PaymentOrder>
 
-    fun listItemsToProcess(): List<PaymentOrder>
+    fun listItemsForPersonalAccounts(accountId: Int, page: PageRequest): List<PaymentOrder>
+
+    fun listItemsToProcess(afterId: Int, limit: Int): List<PaymentOrderRef>
+
+    fun claimItemsToProcess(claimOwner: String, lease: Duration, limit: Int): List<PaymentOrderRef>
+
+    fun claimItemToProcess(id: Int, claimOwner: String, lease: Duration): PaymentOrderRef?
+
+    fun releaseClaimedItem(id: Int, claimOwner: String): Boolean
 }
 
 class PaymentOrderNotFound(paymentOrderId: Int) : RuntimeException("Unable to find paymentOrder.id=$paymentOrderId")
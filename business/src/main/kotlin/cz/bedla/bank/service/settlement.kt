@@ -0,0 +1,21 @@
+package cz.bedla.bank.service
+
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderState
+
+interface InlineSettlement {
+    fun transfer(fromAccountId: Int, toAccountId: Int, amount: Money, settleInline: Boolean? = null): SettlementResult
+    fun start()
+    fun stop()
+
+    enum class Path {
+        INLINE, ASYNC
+    }
+}
+
+data class SettlementResult(
+    val paymentOrder: PaymentOrder,
+    val state: PaymentOrderState,
+    val path: InlineSettlement.Path
+)
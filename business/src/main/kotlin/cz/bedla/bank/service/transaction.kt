@@ -1,11 +1,32 @@
 package cz.bedla.bank.service
 
 import cz.bedla.bank.domain.Account
-import cz.bedla.bank.domain.Transaction
-import java.math.BigDecimal
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.TransactionView
 
 interface TransactionService {
-    fun calculateBalance(account: Account): BigDecimal
+    fun calculateBalance(account: Account): Money
 
-    fun findAccountTransactions(account: Account): List<Transaction>
+    fun verifyBalance(account: Account): BalanceVerification
+
+    fun advanceCheckpoints(limit: Int): Int
+
+    fun findAccountTransactions(account: Account): List<TransactionView>
+
+    fun findAccountTransactions(account: Account, page: PageRequest): List<TransactionView>
+
+    fun exportAccountTransactions(account: Account, action: (TransactionView) -> Unit): Int
+}
+
+interface BalanceCheckpointer {
+    fun start()
+    fun stop()
+}
+
+data class BalanceVerification(
+    val balance: Money,
+    val recalculatedBalance: Money
+) {
+    val verified: Boolean
+        get() = balance == recalculatedBalance
 }
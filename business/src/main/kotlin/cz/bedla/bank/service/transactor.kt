@@ -1,13 +1,28 @@
 package cz.bedla.bank.service
 
-import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 
 interface Transactor {
-    fun process(paymentOrder: PaymentOrder): ResultState
+    fun process(paymentOrder: PaymentOrderRef): ResultState
+    fun processBatch(paymentOrders: List<PaymentOrderRef>): List<ResultState>
     fun start()
     fun stop()
+    fun metrics(): TransactorMetrics
 
     enum class ResultState {
-        STOPPED, INVALID_STATE, MONEY_SENT, NO_FUNDS
+        STOPPED, INVALID_STATE, MONEY_SENT, NO_FUNDS, FAILED
     }
 }
+
+data class TransactorMetrics(
+    val conflicts: Long,
+    val retries: Long,
+    val deadLettered: Long,
+    val hotAccounts: List<AccountConflictMetrics>
+)
+
+data class AccountConflictMetrics(
+    val accountId: Int,
+    val conflicts: Long,
+    val retries: Long
+)
@@ -3,6 +3,7 @@ package cz.bedla.bank.service.impl
 import com.nhaarman.mockitokotlin2.*
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.AccountDao
 import cz.bedla.bank.service.AccountNotFound
 import org.assertj.core.api.Assertions.assertThat
@@ -24,7 +25,7 @@ class AccountServiceImplTest {
             val account = fixture.createPersonalAccount("Mr. Foo")
             assertThat(account.type).isEqualTo(AccountType.PERSONAL)
             assertThat(account.name).isEqualTo("Mr. Foo")
-            assertThat(account.balance).isEqualTo(0.toBigDecimal())
+            assertThat(account.balance).isEqualTo(0.toMoney())
 
             verify(accountDao).create(any())
             verifyNoMoreInteractions(accountDao)
@@ -41,6 +42,45 @@ class AccountServiceImplTest {
         }
     }
 
+    @Nested
+    inner class `Create Personal accounts` {
+        @Test
+        fun `business`() {
+            var nextId = 100
+            val accountDao = mock<AccountDao> {
+                on { createAll(any()) } doAnswer { invocation ->
+                    invocation.getArgument<List<Account>>(0).map { it.copy(id = nextId++) }
+                }
+            }
+            val fixture = AccountServiceImpl(accountDao, transactional, chunkSize = 2)
+
+            val ids = fixture.createPersonalAccounts(listOf("Mr. A", "Mr. B", "Mr. C", "Mr. D", "Mr. E"))
+            assertThat(ids).containsExactly(100, 101, 102, 103, 104)
+
+            argumentCaptor<List<Account>>().apply {
+                verify(accountDao, times(3)).createAll(capture())
+                assertThat(allValues.map { chunk -> chunk.map { it.name } })
+                    .containsExactly(listOf("Mr. A", "Mr. B"), listOf("Mr. C", "Mr. D"), listOf("Mr. E"))
+                assertThat(allValues.flatten()).allMatch { it.type == AccountType.PERSONAL }
+            }
+            verifyNoMoreInteractions(accountDao)
+        }
+
+        @Test
+        fun `invalid name`() {
+            val accountDao = mock<AccountDao> {
+                on { createAll(any()) } doAnswer { invocation -> invocation.getArgument<List<Account>>(0) }
+            }
+            val fixture = AccountServiceImpl(accountDao, transactional, chunkSize = 2)
+            assertThatThrownBy {
+                fixture.createPersonalAccounts(listOf("Mr. A", "Mr. B", "Mr. C", ""))
+            }.isInstanceOf(IllegalArgumentException::class.java)
+                .hasMessage("Account name cannot be empty")
+
+            verifyZeroInteractions(accountDao)
+        }
+    }
+
     @Nested
     inner class `Create Top-up account` {
         @Test
@@ -50,10 +90,10 @@ class AccountServiceImplTest {
             }
             val fixture = AccountServiceImpl(accountDao, transactional)
 
-            val account = fixture.createTopUpAccount("Bank top-up", 999.toBigDecimal())
+            val account = fixture.createTopUpAccount("Bank top-up", 999.toMoney())
             assertThat(account.type).isEqualTo(AccountType.TOP_UP)
             assertThat(account.name).isEqualTo("Bank top-up")
-            assertThat(account.balance).isEqualTo(999.toBigDecimal())
+            assertThat(account.balance).isEqualTo(999.toMoney())
 
             verify(accountDao).create(any())
             verifyNoMoreInteractions(accountDao)
@@ -63,7 +103,7 @@ class AccountServiceImplTest {
         fun `invalid name`() {
             val fixture = AccountServiceImpl(mock(), transactional)
             assertThatThrownBy {
-                fixture.createTopUpAccount("", 0.toBigDecimal())
+                fixture.createTopUpAccount("", 0.toMoney())
             }.isInstanceOf(IllegalArgumentException::class.java)
                 .hasMessage("Account name cannot be empty")
 
@@ -79,10 +119,10 @@ class AccountServiceImplTest {
             }
             val fixture = AccountServiceImpl(accountDao, transactional)
 
-            val account = fixture.createWithdrawalAccount("Bank withdrawal", 999.toBigDecimal())
+            val account = fixture.createWithdrawalAccount("Bank withdrawal", 999.toMoney())
             assertThat(account.type).isEqualTo(AccountType.WITHDRAWAL)
             assertThat(account.name).isEqualTo("Bank withdrawal")
-            assertThat(account.balance).isEqualTo(999.toBigDecimal())
+            assertThat(account.balance).isEqualTo(999.toMoney())
 
             verify(accountDao).create(any())
             verifyNoMoreInteractions(accountDao)
@@ -92,7 +132,7 @@ class AccountServiceImplTest {
         fun `invalid name`() {
             val fixture = AccountServiceImpl(mock(), transactional)
             assertThatThrownBy {
-                fixture.createWithdrawalAccount("", 0.toBigDecimal())
+                fixture.createWithdrawalAccount("", 0.toMoney())
             }.isInstanceOf(IllegalArgumentException::class.java)
                 .hasMessage("Account name cannot be empty")
 
@@ -144,7 +184,7 @@ class AccountServiceImplTest {
 
             val account = fixture.findTopUpAccount()
             assertThat(account.name).isEqualTo("Mr. TOP_UP Account")
-            assertThat(account.balance).isEqualTo(1000.toBigDecimal())
+            assertThat(account.balance).isEqualTo(1000.toMoney())
 
             verify(accountDao).findAccountsOfType(AccountType.TOP_UP)
             verifyNoMoreInteractions(accountDao)
@@ -163,6 +203,22 @@ class AccountServiceImplTest {
                 .hasMessage("Unable to find any top-up account")
         }
 
+        @Test
+        fun `sharded by account`() {
+            val accountDao = mock<AccountDao> {
+                on { findAccountsOfType(AccountType.TOP_UP) } doReturn listOf(
+                    account(AccountType.TOP_UP, 1000, id = 3),
+                    account(AccountType.TOP_UP, 2000, id = 1),
+                    account(AccountType.TOP_UP, 3000, id = 2)
+                )
+            }
+            val fixture = AccountServiceImpl(accountDao, transactional)
+
+            assertThat(fixture.findTopUpAccount(30).id).isEqualTo(1)
+            assertThat(fixture.findTopUpAccount(31).id).isEqualTo(2)
+            assertThat(fixture.findTopUpAccount(32).id).isEqualTo(3)
+            assertThat(fixture.findTopUpAccount(31).id).isEqualTo(2)
+        }
     }
 
     @Nested
@@ -179,7 +235,7 @@ class AccountServiceImplTest {
 
             val account = fixture.findWithdrawalAccount()
             assertThat(account.name).isEqualTo("Mr. WITHDRAWAL Account")
-            assertThat(account.balance).isEqualTo(2000.toBigDecimal())
+            assertThat(account.balance).isEqualTo(2000.toMoney())
 
             verify(accountDao).findAccountsOfType(AccountType.WITHDRAWAL)
             verifyNoMoreInteractions(accountDao)
@@ -198,8 +254,50 @@ class AccountServiceImplTest {
                 .hasMessage("Unable to find any withdrawal account")
         }
 
+        @Test
+        fun `sharded by account`() {
+            val accountDao = mock<AccountDao> {
+                on { findAccountsOfType(AccountType.WITHDRAWAL) } doReturn listOf(
+                    account(AccountType.WITHDRAWAL, 1000, id = 2),
+                    account(AccountType.WITHDRAWAL, 2000, id = 1)
+                )
+            }
+            val fixture = AccountServiceImpl(accountDao, transactional)
+
+            assertThat(fixture.findWithdrawalAccount(10).id).isEqualTo(1)
+            assertThat(fixture.findWithdrawalAccount(11).id).isEqualTo(2)
+        }
+    }
+
+    @Nested
+    inner class `Internal balance` {
+        @Test
+        fun `business`() {
+            val accountDao = mock<AccountDao> {
+                on { findAccountsOfType(AccountType.TOP_UP) } doReturn listOf(
+                    account(AccountType.TOP_UP, 1000, id = 2),
+                    account(AccountType.TOP_UP, 2000, id = 1)
+                )
+            }
+            val fixture = AccountServiceImpl(accountDao, transactional)
+
+            val balance = fixture.internalBalance(AccountType.TOP_UP)
+            assertThat(balance.type).isEqualTo(AccountType.TOP_UP)
+            assertThat(balance.shards).isEqualTo(2)
+            assertThat(balance.balance).isEqualTo(3000.toMoney())
+        }
+
+        @Test
+        fun `personal account`() {
+            val fixture = AccountServiceImpl(mock(), transactional)
+
+            assertThatThrownBy {
+                fixture.internalBalance(AccountType.PERSONAL)
+            }.isInstanceOf(IllegalArgumentException::class.java)
+                .hasMessage("Account type PERSONAL is not internal")
+        }
     }
 
-    private fun account(type: AccountType, balance: Int = 0) =
-        Account(type, "Mr. $type Account", OffsetDateTime.now(), balance.toBigDecimal())
+    private fun account(type: AccountType, balance: Int = 0, id: Int = 0) =
+        Account(type, "Mr. $type Account", OffsetDateTime.now(), balance.toMoney(), id)
 }
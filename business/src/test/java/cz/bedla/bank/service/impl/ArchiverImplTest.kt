@@ -0,0 +1,62 @@
+package cz.bedla.bank.service.impl
+
+import com.nhaarman.mockitokotlin2.*
+import cz.bedla.bank.service.ArchiveDao
+import cz.bedla.bank.service.ArchiveStats
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.OffsetDateTime
+
+class ArchiverImplTest {
+    @Test
+    fun archiveUntilBacklogDrained() {
+        val archiveDao = mock<ArchiveDao> {
+            on { archiveSettled(any(), eq(10)) }.doReturn(10, 10, 3)
+        }
+        val fixture = ArchiverImpl(archiveDao, transactional, 30, 60, 10)
+
+        assertThat(fixture.archive()).isEqualTo(23)
+        val settledBefore = argumentCaptor<OffsetDateTime>()
+        verify(archiveDao, times(3)).archiveSettled(settledBefore.capture(), eq(10))
+        assertThat(settledBefore.allValues.distinct()).hasSize(1)
+        assertThat(settledBefore.firstValue).isBefore(OffsetDateTime.now().minusDays(29))
+    }
+
+    @Test
+    fun failedArchiveIsRetriedNextPeriod() {
+        val archiveDao = mock<ArchiveDao> {
+            on { archiveSettled(any(), eq(10)) } doReturn 10 doThrow IllegalStateException("db down")
+            on { stats(any()) } doReturn ArchiveStats(0, 0, null)
+        }
+        val fixture = ArchiverImpl(archiveDao, transactional, 30, 60, 10)
+
+        assertThat(fixture.archive()).isEqualTo(10)
+        verify(archiveDao, times(2)).archiveSettled(any(), eq(10))
+        assertThat(fixture.metrics().archivedSinceStart).isEqualTo(10)
+    }
+
+    @Test
+    fun metrics() {
+        val archiveDao = mock<ArchiveDao> {
+            on { stats(any()) } doReturn ArchiveStats(5, 4, OffsetDateTime.now().minusDays(32))
+        }
+        val fixture = ArchiverImpl(archiveDao, transactional, 30, 60, 10)
+
+        val metrics = fixture.metrics()
+        assertThat(metrics.retentionDays).isEqualTo(30)
+        assertThat(metrics.hotPaymentOrders).isEqualTo(5)
+        assertThat(metrics.hotTransactions).isEqualTo(4)
+        assertThat(metrics.lagSeconds).isBetween(2 * 86400L - 60, 2 * 86400L)
+        assertThat(metrics.archivedSinceStart).isEqualTo(0)
+    }
+
+    @Test
+    fun noLag() {
+        val archiveDao = mock<ArchiveDao> {
+            on { stats(any()) } doReturn ArchiveStats(5, 4, null)
+        }
+        val fixture = ArchiverImpl(archiveDao, transactional, 30, 60, 10)
+
+        assertThat(fixture.metrics().lagSeconds).isEqualTo(0)
+    }
+}
@@ -0,0 +1,41 @@
+package cz.bedla.bank.service.impl
+
+import com.nhaarman.mockitokotlin2.*
+import cz.bedla.bank.service.TransactionService
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class BalanceCheckpointerImplTest {
+    @Test
+    fun foldUntilBacklogDrained() {
+        val transactionService = mock<TransactionService> {
+            on { advanceCheckpoints(10) }.doReturn(10, 10, 3)
+        }
+        val fixture = BalanceCheckpointerImpl(transactionService, 60, 10)
+
+        assertThat(fixture.checkpoint()).isEqualTo(23)
+        verify(transactionService, times(3)).advanceCheckpoints(10)
+    }
+
+    @Test
+    fun nothingToFold() {
+        val transactionService = mock<TransactionService> {
+            on { advanceCheckpoints(10) } doReturn 0
+        }
+        val fixture = BalanceCheckpointerImpl(transactionService, 60, 10)
+
+        assertThat(fixture.checkpoint()).isEqualTo(0)
+        verify(transactionService).advanceCheckpoints(10)
+    }
+
+    @Test
+    fun failedFoldIsRetriedNextPeriod() {
+        val transactionService = mock<TransactionService> {
+            on { advanceCheckpoints(10) } doReturn 10 doThrow IllegalStateException("db down")
+        }
+        val fixture = BalanceCheckpointerImpl(transactionService, 60, 10)
+
+        assertThat(fixture.checkpoint()).isEqualTo(10)
+        verify(transactionService, times(2)).advanceCheckpoints(10)
+    }
+}
@@ -4,6 +4,7 @@ import cz.bedla.bank.Database
 import cz.bedla.bank.DatabaseImpl
 import cz.bedla.bank.DbInitializer
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.AccountService
 import cz.bedla.bank.service.BankInitializer
 import cz.bedla.bank.tx.TransactionalImpl
@@ -49,6 +50,21 @@ class BankInitializerImplTest {
         assertThat(accountService.findWithdrawalAccount().type).isEqualTo(AccountType.WITHDRAWAL)
     }
 
+    @Test
+    fun initShardedBank() {
+        BankInitializerImpl(accountService, 2).init()
+        BankInitializerImpl(accountService, 4).init()
+
+        assertThat(accountService.findInternalAccounts(AccountType.TOP_UP).map { it.name })
+            .containsExactly("Bank top-up account", "Bank top-up account #2",
+                "Bank top-up account #3", "Bank top-up account #4")
+        assertThat(accountService.findInternalAccounts(AccountType.WITHDRAWAL)).hasSize(4)
+
+        val balance = accountService.internalBalance(AccountType.TOP_UP)
+        assertThat(balance.shards).isEqualTo(4)
+        assertThat(balance.balance).isEqualTo((4 * 999999).toMoney())
+    }
+
     @AfterEach
     internal fun tearDown() {
         database.stop()
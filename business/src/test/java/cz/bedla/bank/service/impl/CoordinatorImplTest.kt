@@ -1,12 +1,17 @@
 package cz.bedla.bank.service.impl
 
 import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.argThat
+import com.nhaarman.mockitokotlin2.atLeast
 import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.eq
 import com.nhaarman.mockitokotlin2.mock
-import cz.bedla.bank.domain.Account
+import com.nhaarman.mockitokotlin2.verify
 import cz.bedla.bank.domain.AccountType
-import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.Coordinator
 import cz.bedla.bank.service.PaymentOrderService
 import cz.bedla.bank.service.Transactor
@@ -15,24 +20,27 @@ import org.awaitility.Awaitility.await
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
-import java.time.OffsetDateTime
+import java.time.Duration
+import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 
 class CoordinatorImplTest {
     private lateinit var fixture: Coordinator
-    private val processed: ConcurrentMap<String, MutableList<PaymentOrder>> =
-        ConcurrentHashMap<String, MutableList<PaymentOrder>>()
-    private val toProcess = ConcurrentLinkedQueue<List<PaymentOrder>>()
+    private val processed: ConcurrentMap<String, MutableList<PaymentOrderRef>> =
+        ConcurrentHashMap<String, MutableList<PaymentOrderRef>>()
+    private val toProcess = ConcurrentLinkedQueue<List<PaymentOrderRef>>()
     private val countInvocations = AtomicInteger()
 
     @BeforeEach
     fun setUp() {
         val paymentOrderService = mock<PaymentOrderService> {
-            on { listItemsToProcess() } doAnswer {
+            on { claimItemsToProcess(any(), any(), any()) } doAnswer {
                 (toProcess.poll() ?: listOf()).also {
                     countInvocations.incrementAndGet()
                 }
@@ -41,12 +49,12 @@ class CoordinatorImplTest {
         val transactor = mock<Transactor> {
             on { process(any()) } doAnswer { invocation ->
                 processed.computeIfAbsent(Thread.currentThread().name) { mutableListOf() }
-                    .add(invocation.getArgument<PaymentOrder>(0))
+                    .add(invocation.getArgument<PaymentOrderRef>(0))
                 Transactor.ResultState.MONEY_SENT
             }
         }
 
-        fixture = CoordinatorImpl(2, 1, 1, paymentOrderService, transactor)
+        fixture = CoordinatorImpl(2, 1, 1, paymentOrderService, transactor, highWaterMark = 20)
         fixture.start()
     }
 
@@ -85,14 +93,210 @@ class CoordinatorImplTest {
             }
     }
 
-    private fun paymentOrder(): PaymentOrder {
-        return PaymentOrder(
-            Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal()),
-            Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toBigDecimal()),
-            100.toBigDecimal(),
-            PaymentOrderState.OK,
-            OffsetDateTime.now()
+    @Test
+    fun pushDispatch() {
+        val paymentOrderQueue = PaymentOrderQueueImpl()
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doReturn listOf()
+            on { claimItemToProcess(any(), any(), any()) } doAnswer { invocation ->
+                invocation.getArgument<Int>(0).takeIf { it != 2 }?.let { paymentOrder(it) }
+            }
+        }
+        val dispatched = ConcurrentLinkedQueue<Int>()
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer { invocation ->
+                dispatched.add(invocation.getArgument<PaymentOrderRef>(0).id)
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+
+        val pushFixture = CoordinatorImpl(2, 60, 60, paymentOrderService, transactor, paymentOrderQueue)
+        pushFixture.start()
+        try {
+            assertThat(paymentOrderQueue.offer(1)).isTrue()
+            assertThat(paymentOrderQueue.offer(2)).isTrue()
+            assertThat(paymentOrderQueue.offer(3)).isTrue()
+
+            await().atMost(3, TimeUnit.SECONDS).until { dispatched.size == 2 }
+            assertThat(dispatched).containsExactlyInAnyOrder(1, 3)
+        } finally {
+            pushFixture.stop()
+        }
+    }
+
+    @Test
+    fun batchDispatch() {
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doReturn List(5) { paymentOrder(it + 1) } doReturn listOf()
+        }
+        val batches = ConcurrentLinkedQueue<List<Int>>()
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer { invocation ->
+                batches.add(listOf(invocation.getArgument<PaymentOrderRef>(0).id))
+                Transactor.ResultState.MONEY_SENT
+            }
+            on { processBatch(any()) } doAnswer { invocation ->
+                val paymentOrders = invocation.getArgument<List<PaymentOrderRef>>(0)
+                batches.add(paymentOrders.map { it.id })
+                paymentOrders.map { Transactor.ResultState.MONEY_SENT }
+            }
+        }
+
+        val batchFixture = CoordinatorImpl(2, 0, 60, paymentOrderService, transactor, batchSize = 2)
+        batchFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { batches.flatten().size == 5 }
+            assertThat(batches).containsExactlyInAnyOrder(listOf(1, 2), listOf(3, 4), listOf(5))
+        } finally {
+            batchFixture.stop()
+        }
+    }
+
+    @Test
+    fun claimOwnerIsUniquePerClaim() {
+        val claimOwners = ConcurrentLinkedQueue<String>()
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doAnswer { invocation ->
+                claimOwners.add(invocation.getArgument(0))
+                listOf<PaymentOrderRef>()
+            }
+        }
+
+        val claimFixture = CoordinatorImpl(1, 0, 1, paymentOrderService, mock(), highWaterMark = 10)
+        claimFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { claimOwners.size >= 2 }
+            assertThat(claimOwners.toSet()).hasSameSizeAs(claimOwners)
+            assertThat(claimOwners).allSatisfy { assertThat(it).startsWith("coordinator-").contains("#") }
+            verify(paymentOrderService, atLeast(2)).claimItemsToProcess(any(), eq(Duration.ofSeconds(60)), eq(10))
+        } finally {
+            claimFixture.stop()
+        }
+    }
+
+    @Test
+    fun claimsBoundedByWorkerCapacity() {
+        val claimed = AtomicInteger()
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doAnswer { invocation ->
+                val limit = invocation.getArgument<Int>(2)
+                List(limit) { paymentOrder(claimed.incrementAndGet()) }
+            }
+        }
+        val latch = CountDownLatch(1)
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer {
+                latch.await()
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+
+        val boundedFixture = CoordinatorImpl(2, 0, 60, paymentOrderService, transactor)
+        boundedFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { claimed.get() == 4 }
+            Thread.sleep(200)
+            assertThat(claimed.get()).isEqualTo(4)
+
+            latch.countDown()
+            await().atMost(3, TimeUnit.SECONDS).until { claimed.get() > 100 }
+        } finally {
+            boundedFixture.stop()
+        }
+    }
+
+    @Test
+    fun capacityReservedAcrossPollerAndDispatcher() {
+        val paymentOrderQueue = PaymentOrderQueueImpl()
+        val claimed = AtomicInteger()
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doAnswer { invocation ->
+                Thread.sleep(100)
+                val limit = invocation.getArgument<Int>(2)
+                List(limit) { paymentOrder(1000 + claimed.incrementAndGet()) }
+            }
+            on { claimItemToProcess(any(), any(), any()) } doAnswer { invocation ->
+                claimed.incrementAndGet()
+                paymentOrder(invocation.getArgument(0))
+            }
+        }
+        val latch = CountDownLatch(1)
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer {
+                latch.await()
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+
+        val reservingFixture = CoordinatorImpl(
+            1, 0, 60, paymentOrderService, transactor, paymentOrderQueue, highWaterMark = 4
         )
+        (1..3).forEach { assertThat(paymentOrderQueue.offer(it)).isTrue() }
+        reservingFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { claimed.get() == 4 }
+            Thread.sleep(300)
+            assertThat(claimed.get()).isEqualTo(4)
+            reservingFixture.metrics().also {
+                assertThat(it.inFlight).isEqualTo(4)
+                assertThat(it.rejectedSubmissions).isEqualTo(0)
+            }
+        } finally {
+            latch.countDown()
+            reservingFixture.stop()
+        }
+    }
+
+    @Test
+    fun adaptivePollInterval() {
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doReturn listOf()
+        }
+
+        val adaptiveFixture = CoordinatorImpl(1, 0, 1, paymentOrderService, mock(), minPollIntervalMillis = 10)
+        adaptiveFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { adaptiveFixture.metrics().pollIntervalMillis == 1000L }
+            verify(paymentOrderService, atLeast(5)).claimItemsToProcess(any(), any(), any())
+        } finally {
+            adaptiveFixture.stop()
+        }
+    }
+
+    @Test
+    fun rejectedSubmissions() {
+        val paymentOrderService = mock<PaymentOrderService> {
+            on { claimItemsToProcess(any(), any(), any()) } doReturn List(3) { paymentOrder(it + 1) } doReturn listOf()
+        }
+        val latch = CountDownLatch(1)
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer {
+                latch.await()
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+        val workerExecutor = ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, ArrayBlockingQueue(1))
+
+        val rejectingFixture = CoordinatorImpl(
+            1, 0, 60, paymentOrderService, transactor, highWaterMark = 10, workerExecutor = workerExecutor
+        )
+        rejectingFixture.start()
+        try {
+            await().atMost(3, TimeUnit.SECONDS).until { rejectingFixture.metrics().rejectedSubmissions == 1L }
+            rejectingFixture.metrics().also {
+                assertThat(it.inFlight).isEqualTo(2)
+                assertThat(it.queueDepth).isEqualTo(1)
+                assertThat(it.highWaterMark).isEqualTo(10)
+            }
+            verify(paymentOrderService).releaseClaimedItem(eq(3), argThat { startsWith("coordinator-") })
+        } finally {
+            latch.countDown()
+            rejectingFixture.stop()
+        }
+    }
+
+    private fun paymentOrder(id: Int = 0): PaymentOrderRef {
+        return PaymentOrderRef(0, AccountType.PERSONAL, 0, 100.toMoney(), PaymentOrderState.OK, id, 0)
     }
 
     private fun awaitUntilInvoked(block: () -> Unit) {
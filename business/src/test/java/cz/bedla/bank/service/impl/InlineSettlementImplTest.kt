@@ -0,0 +1,171 @@
+package cz.bedla.bank.service.impl
+
+import com.nhaarman.mockitokotlin2.*
+import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.toMoney
+import cz.bedla.bank.service.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.time.OffsetDateTime
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class InlineSettlementImplTest {
+    private val latch = CountDownLatch(1)
+
+    private val paymentOrderService = mock<PaymentOrderService> {
+        on { receivePaymentRequest(eq(123), eq(456), any()) } doReturn paymentOrder(PaymentOrderState.RECEIVED)
+        on { receiveClaimedPaymentRequest(eq(123), eq(456), any(), any(), any()) } doReturn
+                paymentOrder(PaymentOrderState.PROCESSING)
+    }
+
+    private var fixture: InlineSettlement? = null
+
+    @Test
+    fun settleInline() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doReturn Transactor.ResultState.MONEY_SENT
+        }
+        val result = fixture(transactor).transfer(123, 456, 100.toMoney(), true)
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.INLINE)
+        verify(paymentOrderService).receiveClaimedPaymentRequest(eq(123), eq(456), any(), any(), any())
+        verify(transactor).process(any())
+        verifyNoMoreInteractions(paymentOrderService)
+    }
+
+    @Test
+    fun settleInlineWithoutFunds() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doReturn Transactor.ResultState.NO_FUNDS
+        }
+        val result = fixture(transactor).transfer(123, 456, 100.toMoney(), true)
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.NO_FUNDS)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.INLINE)
+    }
+
+    @Test
+    fun disabledByDefault() {
+        val transactor = mock<Transactor>()
+        val result = fixture(transactor).transfer(123, 456, 100.toMoney())
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.RECEIVED)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verify(paymentOrderService).receivePaymentRequest(eq(123), eq(456), any())
+        verifyNoMoreInteractions(paymentOrderService)
+        verifyZeroInteractions(transactor)
+    }
+
+    @Test
+    fun requestOverridesDefault() {
+        val transactor = mock<Transactor>()
+        val result = fixture(transactor, enabledByDefault = true).transfer(123, 456, 100.toMoney(), false)
+
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verifyZeroInteractions(transactor)
+    }
+
+    @Test
+    fun backlogged() {
+        val transactor = mock<Transactor>()
+        val result = fixture(transactor, enabledByDefault = true, inFlight = 10).transfer(123, 456, 100.toMoney())
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.RECEIVED)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verify(paymentOrderService).receivePaymentRequest(eq(123), eq(456), any())
+        verifyNoMoreInteractions(paymentOrderService)
+        verifyZeroInteractions(transactor)
+    }
+
+    @Test
+    fun queuedOrdersCountedOnce() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doReturn Transactor.ResultState.MONEY_SENT
+        }
+        val result = fixture(transactor, enabledByDefault = true, queueDepth = 5, inFlight = 9)
+            .transfer(123, 456, 100.toMoney())
+
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.INLINE)
+        verify(transactor).process(any())
+    }
+
+    @Test
+    fun budgetExceeded() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer {
+                latch.await(5, TimeUnit.SECONDS)
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+        val result = fixture(transactor).transfer(123, 456, 100.toMoney(), true)
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.PROCESSING)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verify(paymentOrderService, never()).releaseClaimedItem(any(), any())
+    }
+
+    @Test
+    fun noFreeWorker() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doAnswer {
+                latch.await(5, TimeUnit.SECONDS)
+                Transactor.ResultState.MONEY_SENT
+            }
+        }
+        val fixture = fixture(transactor)
+        fixture.transfer(123, 456, 100.toMoney(), true)
+
+        val result = fixture.transfer(123, 456, 100.toMoney(), true)
+        assertThat(result.state).isEqualTo(PaymentOrderState.RECEIVED)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verify(paymentOrderService).releaseClaimedItem(eq(789), any())
+    }
+
+    @Test
+    fun transactorStopped() {
+        val transactor = mock<Transactor> {
+            on { process(any()) } doReturn Transactor.ResultState.STOPPED
+        }
+        val result = fixture(transactor).transfer(123, 456, 100.toMoney(), true)
+
+        assertThat(result.state).isEqualTo(PaymentOrderState.RECEIVED)
+        assertThat(result.path).isEqualTo(InlineSettlement.Path.ASYNC)
+        verify(paymentOrderService).releaseClaimedItem(eq(789), any())
+    }
+
+    @AfterEach
+    fun tearDown() {
+        latch.countDown()
+        fixture?.stop()
+    }
+
+    private fun fixture(
+        transactor: Transactor,
+        enabledByDefault: Boolean = false,
+        inFlight: Int = 0,
+        queueDepth: Int = 0
+    ): InlineSettlement {
+        val coordinator = mock<Coordinator> {
+            on { metrics() } doReturn CoordinatorMetrics(0, listOf(), queueDepth, inFlight, 10, 0, 100)
+        }
+        return InlineSettlementImpl(1, paymentOrderService, transactor, coordinator, enabledByDefault, 100)
+            .also { fixture = it }
+    }
+
+    private fun paymentOrder(state: PaymentOrderState) = PaymentOrder(
+        account(),
+        account(),
+        100.toMoney(),
+        state,
+        OffsetDateTime.now(),
+        789
+    )
+
+    private fun account() = Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), 0.toMoney())
+}
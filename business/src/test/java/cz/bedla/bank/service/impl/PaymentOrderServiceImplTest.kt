@@ -5,11 +5,13 @@ import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
 import cz.bedla.bank.domain.PaymentOrder
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.*
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.assertThatThrownBy
 import org.junit.jupiter.api.Nested
 import org.junit.jupiter.api.Test
+import java.time.Duration
 import java.time.OffsetDateTime
 
 class PaymentOrderServiceImplTest {
@@ -22,28 +24,30 @@ class PaymentOrderServiceImplTest {
                 on { findAccount(eq(456)) } doReturn account(AccountType.PERSONAL, "Mr. Bar")
             }
             val paymentOrderDao = mock<PaymentOrderDao> {
-                on { create(any()) } doAnswer returnsFirstArg()
+                on { create(any()) } doAnswer { (it.getArgument(0) as PaymentOrder).copy(id = 789) }
             }
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional)
+            val paymentOrderQueue = mock<PaymentOrderQueue>()
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, paymentOrderQueue)
 
-            val paymentOrder = fixture.receivePaymentRequest(123, 456, 999.toBigDecimal())
+            val paymentOrder = fixture.receivePaymentRequest(123, 456, 999.toMoney())
             assertThat(paymentOrder.fromAccount.name).isEqualTo("Mr. Foo")
             assertThat(paymentOrder.toAccount.name).isEqualTo("Mr. Bar")
-            assertThat(paymentOrder.amount).isEqualTo(999.toBigDecimal())
+            assertThat(paymentOrder.amount).isEqualTo(999.toMoney())
             assertThat(paymentOrder.state).isEqualTo(PaymentOrderState.RECEIVED)
 
             verify(accountService).findAccount(eq(123))
             verify(accountService).findAccount(eq(456))
             verify(paymentOrderDao).create(any())
-            verifyNoMoreInteractions(accountService, paymentOrderDao)
+            verify(paymentOrderQueue).offer(eq(789))
+            verifyNoMoreInteractions(accountService, paymentOrderDao, paymentOrderQueue)
         }
 
 
         @Test
         fun `invalid amount`() {
-            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional, mock())
             assertThatThrownBy {
-                fixture.receivePaymentRequest(123, 456, 0.toBigDecimal())
+                fixture.receivePaymentRequest(123, 456, 0.toMoney())
             }.isInstanceOf(IllegalStateException::class.java)
                 .hasMessage("Invalid amount value")
 
@@ -55,15 +59,15 @@ class PaymentOrderServiceImplTest {
                 on { findAccount(eq(123)) } doReturn account(AccountType.TOP_UP)
                 on { findAccount(eq(456)) } doReturn account(AccountType.PERSONAL)
             }
-            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional, mock())
 
             assertThatThrownBy {
-                fixture.receivePaymentRequest(123, 456, 999.toBigDecimal())
+                fixture.receivePaymentRequest(123, 456, 999.toMoney())
             }.isInstanceOf(InvalidPaymentRequest::class.java)
                 .hasMessage("Invalid payment request from account.id=123 to account.id=456")
 
             assertThatThrownBy {
-                fixture.receivePaymentRequest(456, 123, 999.toBigDecimal())
+                fixture.receivePaymentRequest(456, 123, 999.toMoney())
             }.isInstanceOf(InvalidPaymentRequest::class.java)
                 .hasMessage("Invalid payment request from account.id=456 to account.id=123")
         }
@@ -75,30 +79,30 @@ class PaymentOrderServiceImplTest {
         fun `business`() {
             val accountService = mock<AccountService> {
                 on { findAccount(eq(123)) } doReturn account(AccountType.PERSONAL, "Mr. Foo")
-                on { findTopUpAccount() } doReturn account(AccountType.TOP_UP, "Bank")
+                on { findTopUpAccount(any()) } doReturn account(AccountType.TOP_UP, "Bank")
             }
             val paymentOrderDao = mock<PaymentOrderDao> {
                 on { create(any()) } doAnswer returnsFirstArg()
             }
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, mock())
 
-            val paymentOrder = fixture.topUpRequest(123, 999.toBigDecimal())
+            val paymentOrder = fixture.topUpRequest(123, 999.toMoney())
             assertThat(paymentOrder.fromAccount.type).isEqualTo(AccountType.TOP_UP)
             assertThat(paymentOrder.toAccount.type).isEqualTo(AccountType.PERSONAL)
-            assertThat(paymentOrder.amount).isEqualTo(999.toBigDecimal())
+            assertThat(paymentOrder.amount).isEqualTo(999.toMoney())
             assertThat(paymentOrder.state).isEqualTo(PaymentOrderState.RECEIVED)
 
             verify(accountService).findAccount(eq(123))
-            verify(accountService).findTopUpAccount()
+            verify(accountService).findTopUpAccount(eq(123))
             verify(paymentOrderDao).create(any())
             verifyNoMoreInteractions(accountService, paymentOrderDao)
         }
 
         @Test
         fun `invalid amount`() {
-            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional, mock())
             assertThatThrownBy {
-                fixture.topUpRequest(123, 0.toBigDecimal())
+                fixture.topUpRequest(123, 0.toMoney())
             }.isInstanceOf(IllegalStateException::class.java)
                 .hasMessage("Invalid amount value")
 
@@ -108,12 +112,12 @@ class PaymentOrderServiceImplTest {
         fun `invalid AccountType`() {
             val accountService = mock<AccountService> {
                 on { findAccount(eq(123)) } doReturn account(AccountType.TOP_UP, "Mr. Invalid")
-                on { findTopUpAccount() } doReturn account(AccountType.TOP_UP, "Bank")
+                on { findTopUpAccount(any()) } doReturn account(AccountType.TOP_UP, "Bank")
             }
 
-            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional, mock())
             assertThatThrownBy {
-                fixture.topUpRequest(123, 999.toBigDecimal())
+                fixture.topUpRequest(123, 999.toMoney())
             }.isInstanceOf(InvalidTopUpRequest::class.java)
                 .hasMessage("Invalid top-up request for account.id=0")
         }
@@ -125,30 +129,30 @@ class PaymentOrderServiceImplTest {
         fun `business`() {
             val accountService = mock<AccountService> {
                 on { findAccount(eq(123)) } doReturn account(AccountType.PERSONAL, "Mr. Foo")
-                on { findWithdrawalAccount() } doReturn account(AccountType.WITHDRAWAL, "Bank")
+                on { findWithdrawalAccount(any()) } doReturn account(AccountType.WITHDRAWAL, "Bank")
             }
             val paymentOrderDao = mock<PaymentOrderDao> {
                 on { create(any()) } doAnswer returnsFirstArg()
             }
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, mock())
 
-            val paymentOrder = fixture.withdrawalRequest(123, 999.toBigDecimal())
+            val paymentOrder = fixture.withdrawalRequest(123, 999.toMoney())
             assertThat(paymentOrder.fromAccount.type).isEqualTo(AccountType.PERSONAL)
             assertThat(paymentOrder.toAccount.type).isEqualTo(AccountType.WITHDRAWAL)
-            assertThat(paymentOrder.amount).isEqualTo(999.toBigDecimal())
+            assertThat(paymentOrder.amount).isEqualTo(999.toMoney())
             assertThat(paymentOrder.state).isEqualTo(PaymentOrderState.RECEIVED)
 
             verify(accountService).findAccount(eq(123))
-            verify(accountService).findWithdrawalAccount()
+            verify(accountService).findWithdrawalAccount(eq(123))
             verify(paymentOrderDao).create(any())
             verifyNoMoreInteractions(accountService, paymentOrderDao)
         }
 
         @Test
         fun `invalid amount`() {
-            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), mock(), transactional, mock())
             assertThatThrownBy {
-                fixture.withdrawalRequest(123, 0.toBigDecimal())
+                fixture.withdrawalRequest(123, 0.toMoney())
             }.isInstanceOf(IllegalStateException::class.java)
                 .hasMessage("Invalid amount value")
 
@@ -158,12 +162,12 @@ class PaymentOrderServiceImplTest {
         fun `invalid AccountType`() {
             val accountService = mock<AccountService> {
                 on { findAccount(eq(123)) } doReturn account(AccountType.WITHDRAWAL, "Mr. Invalid")
-                on { findWithdrawalAccount() } doReturn account(AccountType.WITHDRAWAL, "Bank")
+                on { findWithdrawalAccount(any()) } doReturn account(AccountType.WITHDRAWAL, "Bank")
             }
 
-            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional, mock())
             assertThatThrownBy {
-                fixture.withdrawalRequest(123, 999.toBigDecimal())
+                fixture.withdrawalRequest(123, 999.toMoney())
             }.isInstanceOf(InvalidWithdrawalRequest::class.java)
                 .hasMessage("Invalid withdrawal request for account.id=0")
         }
@@ -180,7 +184,7 @@ class PaymentOrderServiceImplTest {
                 on { findItemsForAccount(any()) } doReturn listOf()
             }
 
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, mock())
             fixture.listItemsForPersonalAccounts(123)
 
             verify(accountService).findAccount(eq(123))
@@ -188,13 +192,30 @@ class PaymentOrderServiceImplTest {
             verifyNoMoreInteractions(accountService, paymentOrderDao)
         }
 
+        @Test
+        fun `business paged`() {
+            val accountService = mock<AccountService> {
+                on { findAccount(eq(123)) } doReturn account(AccountType.PERSONAL, "Mr. Foo")
+            }
+            val paymentOrderDao = mock<PaymentOrderDao> {
+                on { findItemsForAccount(any(), any()) } doReturn listOf()
+            }
+
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, mock())
+            fixture.listItemsForPersonalAccounts(123, PageRequest(10))
+
+            verify(accountService).findAccount(eq(123))
+            verify(paymentOrderDao).findItemsForAccount(any(), eq(PageRequest(10)))
+            verifyNoMoreInteractions(accountService, paymentOrderDao)
+        }
+
         @Test
         fun `invalid AccountType`() {
             val accountService = mock<AccountService> {
                 on { findAccount(eq(123)) } doReturn account(AccountType.WITHDRAWAL, "Mr. Invalid")
             }
 
-            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional)
+            val fixture = PaymentOrderServiceImpl(mock(), accountService, transactional, mock())
             assertThatThrownBy {
                 fixture.listItemsForPersonalAccounts(123)
             }.isInstanceOf(InvalidAccountRequest::class.java)
@@ -210,7 +231,7 @@ class PaymentOrderServiceImplTest {
                 on { findPaymentOrder(eq(123)) } doReturn paymentOrder(PaymentOrderState.NO_FUNDS)
             }
 
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional)
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, mock())
             assertThat(fixture.paymentOrderState(123)).isEqualTo(PaymentOrderState.NO_FUNDS)
 
             verify(paymentOrderDao).findPaymentOrder(eq(123))
@@ -223,7 +244,7 @@ class PaymentOrderServiceImplTest {
                 on { findPaymentOrder(eq(123)) } doReturn null
             }
 
-            val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional)
+            val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, mock())
             assertThatThrownBy {
                 fixture.paymentOrderState(123)
             }.isInstanceOf(PaymentOrderNotFound::class.java)
@@ -234,24 +255,91 @@ class PaymentOrderServiceImplTest {
     @Test
     fun `List items to process`() {
         val paymentOrderDao = mock<PaymentOrderDao> {
-            on { findItemsWithState(any()) } doReturn listOf()
+            on { findItemsWithState(any(), any(), any()) } doReturn listOf()
+        }
+
+        val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, mock())
+        assertThat(fixture.listItemsToProcess(123, 10)).isEmpty()
+
+        verify(paymentOrderDao).findItemsWithState(eq(PaymentOrderState.RECEIVED), eq(123), eq(10))
+        verifyNoMoreInteractions(paymentOrderDao)
+    }
+
+    @Test
+    fun `Claim items to process`() {
+        val paymentOrderDao = mock<PaymentOrderDao> {
+            on { claimItems(any(), any(), any(), any()) } doReturn listOf(paymentOrder(PaymentOrderState.PROCESSING).toRef())
         }
 
-        val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional)
-        assertThat(fixture.listItemsToProcess()).isEmpty()
+        val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, mock())
+        assertThat(fixture.claimItemsToProcess("owner#1", Duration.ofSeconds(30), 10)).hasSize(1)
 
-        verify(paymentOrderDao).findItemsWithState(eq(PaymentOrderState.RECEIVED))
+        argumentCaptor<OffsetDateTime>().apply {
+            verify(paymentOrderDao).claimItems(eq("owner#1"), capture(), capture(), eq(10))
+            assertThat(Duration.between(secondValue, firstValue)).isEqualTo(Duration.ofSeconds(30))
+        }
         verifyNoMoreInteractions(paymentOrderDao)
     }
 
+    @Test
+    fun `Claim item to process`() {
+        val paymentOrderDao = mock<PaymentOrderDao> {
+            on { claimItem(eq(123), any(), any(), any()) } doReturn paymentOrder(PaymentOrderState.PROCESSING).toRef()
+        }
+
+        val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, mock())
+        assertThat(fixture.claimItemToProcess(123, "owner#1", Duration.ofSeconds(30))).isNotNull
+        assertThat(fixture.claimItemToProcess(456, "owner#2", Duration.ofSeconds(30))).isNull()
+    }
+
+    @Test
+    fun `Receive claimed payment request`() {
+        val accountService = mock<AccountService> {
+            on { findAccount(eq(123)) } doReturn account(AccountType.PERSONAL, "Mr. Foo")
+            on { findAccount(eq(456)) } doReturn account(AccountType.PERSONAL, "Mr. Bar")
+        }
+        val paymentOrderDao = mock<PaymentOrderDao> {
+            on { create(any()) } doAnswer { (it.getArgument(0) as PaymentOrder).copy(id = 789) }
+            on { claimItem(eq(789), eq("owner#1"), any(), any()) } doReturn
+                    paymentOrder(PaymentOrderState.PROCESSING).copy(id = 789, version = 2).toRef()
+        }
+        val paymentOrderQueue = mock<PaymentOrderQueue>()
+        val fixture = PaymentOrderServiceImpl(paymentOrderDao, accountService, transactional, paymentOrderQueue)
+
+        val paymentOrder = fixture.receiveClaimedPaymentRequest(
+            123, 456, 999.toMoney(), "owner#1", Duration.ofSeconds(30)
+        )
+        assertThat(paymentOrder.id).isEqualTo(789)
+        assertThat(paymentOrder.state).isEqualTo(PaymentOrderState.PROCESSING)
+
+        verify(paymentOrderDao).create(any())
+        verify(paymentOrderDao).claimItem(eq(789), eq("owner#1"), any(), any())
+        verifyZeroInteractions(paymentOrderQueue)
+    }
+
+    @Test
+    fun `Release claimed item`() {
+        val paymentOrderDao = mock<PaymentOrderDao> {
+            on { releaseItem(eq(123), eq("owner#1")) } doReturn true
+        }
+        val paymentOrderQueue = mock<PaymentOrderQueue>()
+
+        val fixture = PaymentOrderServiceImpl(paymentOrderDao, mock(), transactional, paymentOrderQueue)
+        assertThat(fixture.releaseClaimedItem(123, "owner#1")).isTrue()
+        assertThat(fixture.releaseClaimedItem(123, "owner#2")).isFalse()
+
+        verify(paymentOrderQueue).offer(eq(123))
+        verifyNoMoreInteractions(paymentOrderQueue)
+    }
+
     private fun paymentOrder(state: PaymentOrderState) = PaymentOrder(
         account(AccountType.PERSONAL),
         account(AccountType.PERSONAL),
-        0.toBigDecimal(),
+        0.toMoney(),
         state,
         OffsetDateTime.now()
     )
 
     private fun account(accountType: AccountType, name: String = "foo") =
-        Account(accountType, name, OffsetDateTime.now(), 0.toBigDecimal())
+        Account(accountType, name, OffsetDateTime.now(), 0.toMoney())
 }
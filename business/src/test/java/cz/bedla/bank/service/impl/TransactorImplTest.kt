@@ -4,6 +4,7 @@ import cz.bedla.bank.Database
 import cz.bedla.bank.DatabaseImpl
 import cz.bedla.bank.DbInitializer
 import cz.bedla.bank.domain.*
+import cz.bedla.bank.service.AccountConflictMetrics
 import cz.bedla.bank.service.AccountDao
 import cz.bedla.bank.service.PaymentOrderDao
 import cz.bedla.bank.service.TransactionDao
@@ -23,6 +24,7 @@ import org.junitpioneer.jupiter.TempDirectory
 import java.nio.file.Path
 import java.time.OffsetDateTime
 import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 
 @ExtendWith(TempDirectory::class)
@@ -44,13 +46,13 @@ class TransactorImplTest {
         transactional = TransactionalImpl(database.dataSource)
         accountDao = AccountDaoImpl()
         paymentOrderDao = PaymentOrderDaoImpl(accountDao)
-        transactionDao = TransactionDaoIml(accountDao, paymentOrderDao)
+        transactionDao = TransactionDaoIml()
         fixture = TransactorImpl(transactionDao, paymentOrderDao, accountDao, transactional)
         fixture.start()
     }
 
     @Test
-    fun optimisticLockBalanceChangesInMiddleOfTransaction() {
+    fun balanceChangesInMiddleOfTransaction() {
         val executor = Executors.newFixedThreadPool(1)
         val beforeLatch = MyCountDownLatch(1)
         val fixtureConcurrent = TransactorImpl(transactionDao, paymentOrderDao, accountDao, transactional) {
@@ -72,14 +74,65 @@ class TransactorImplTest {
             )
         }
 
-        val future = executor.submit {
-            fixtureConcurrent.process(paymentOrder)
+        val future = executor.submit(Callable {
+            fixtureConcurrent.process(paymentOrder.toRef())
+        })
+
+        await().atMost(5, TimeUnit.SECONDS).until { beforeLatch.awaitCount() == 1 }
+
+        transactional.run {
+            accountDao.updateBalance(account2.copy(balance = 123.toMoney()))
+        }
+
+        beforeLatch.countDown()
+
+        awaitForFutures(future)
+
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+
+        assertThat(future.get()).isEqualTo(Transactor.ResultState.MONEY_SENT)
+        val saved = transactional.execute { paymentOrderDao.findPaymentOrder(paymentOrder.id) } ?: error("Not found")
+        assertThat(saved.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(saved.fromAccount.balance).isEqualTo(0.toMoney())
+        assertThat(saved.toAccount.balance).isEqualTo((123 + 1000).toMoney())
+        assertThat(fixtureConcurrent.metrics().conflicts).isEqualTo(0)
+    }
+
+    @Test
+    fun transactionCreatedInMiddleOfTransaction() {
+        val executor = Executors.newFixedThreadPool(1)
+        val beforeLatch = MyCountDownLatch(1)
+        val fixtureConcurrent = TransactorImpl(transactionDao, paymentOrderDao, accountDao, transactional) {
+            beforeLatch.await()
         }
+        fixtureConcurrent.start()
+
+        val account1 = createPersonalAccount("Mr. Bar", 1000)
+        val account2 = createWithdrawalAccount()
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 1000
+                )
+            )
+        }
+
+        val future = executor.submit(Callable {
+            fixtureConcurrent.process(paymentOrder.toRef())
+        })
 
         await().atMost(5, TimeUnit.SECONDS).until { beforeLatch.awaitCount() == 1 }
 
         transactional.run {
-            accountDao.updateBalance(account2.copy(balance = 123.toBigDecimal()))
+            assertThat(
+                transactionDao.create(paymentOrder.id, account1.id, account2.id, 1000.toMoney(), OffsetDateTime.now())
+            ).isTrue()
+            paymentOrderDao.updateState(paymentOrder.toRef().copy(state = PaymentOrderState.OK))
         }
 
         beforeLatch.countDown()
@@ -89,15 +142,15 @@ class TransactorImplTest {
         executor.shutdown()
         executor.awaitTermination(5, TimeUnit.SECONDS)
 
-        assertNoPaymentOccurred(
-            account1, account2, paymentOrder, PaymentOrderState.RECEIVED,
-            expectedAccount1Balance = 1000,
-            expectedAccount2Balance = 123
-        )
+        assertThat(future.get()).isEqualTo(Transactor.ResultState.INVALID_STATE)
+        val saved = transactional.execute { paymentOrderDao.findPaymentOrder(paymentOrder.id) } ?: error("Not found")
+        assertThat(saved.fromAccount.balance).isEqualTo(1000.toMoney())
+        assertThat(transactional.execute { transactionDao.findAccountTransactions(account1) }).hasSize(1)
+        assertThat(fixtureConcurrent.metrics().conflicts).isEqualTo(1)
     }
 
     @RepeatedTest(100)
-    fun optimisticLockVersionCollision() {
+    fun concurrentTransfersToSameAccount() {
         val executor = Executors.newFixedThreadPool(2)
         val beforeLatch = MyCountDownLatch(1)
         val fixtureConcurrent = TransactorImpl(transactionDao, paymentOrderDao, accountDao, transactional) {
@@ -133,12 +186,12 @@ class TransactorImplTest {
             )
         }
 
-        val future1 = executor.submit {
-            fixtureConcurrent.process(paymentOrder1)
-        }
-        val future2 = executor.submit {
-            fixtureConcurrent.process(paymentOrder2)
-        }
+        val future1 = executor.submit(Callable {
+            fixtureConcurrent.process(paymentOrder1.toRef())
+        })
+        val future2 = executor.submit(Callable {
+            fixtureConcurrent.process(paymentOrder2.toRef())
+        })
 
         await().atMost(5, TimeUnit.SECONDS).until { beforeLatch.awaitCount() == 2 }
         beforeLatch.countDown()
@@ -155,41 +208,69 @@ class TransactorImplTest {
             paymentOrderDao.findPaymentOrder(paymentOrder2.id)
         } ?: error("Not found")
 
-        if (savedPaymentOrder1.state == PaymentOrderState.OK) {
-            assertThat(savedPaymentOrder2.state).isEqualTo(PaymentOrderState.RECEIVED)
+        assertThat(future1.get()).isEqualTo(Transactor.ResultState.MONEY_SENT)
+        assertThat(future2.get()).isEqualTo(Transactor.ResultState.MONEY_SENT)
+        assertThat(savedPaymentOrder1.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(savedPaymentOrder2.state).isEqualTo(PaymentOrderState.OK)
 
-            assertThat(savedPaymentOrder1.fromAccount.balance).isEqualByComparingTo(amount1.unaryMinus().toBigDecimal())
-            assertThat(savedPaymentOrder1.toAccount.balance).isEqualByComparingTo((balance + amount1).toBigDecimal())
+        assertThat(savedPaymentOrder2.fromAccount.balance).isEqualTo((-amount1 - amount2).toMoney())
+        assertThat(savedPaymentOrder2.toAccount.balance).isEqualTo((balance + amount1 + amount2).toMoney())
+        assertThat(fixtureConcurrent.metrics().conflicts).isEqualTo(0)
+    }
 
-            assertThat(savedPaymentOrder2.fromAccount.balance).isEqualByComparingTo(amount1.unaryMinus().toBigDecimal())
-            assertThat(savedPaymentOrder2.toAccount.balance).isEqualByComparingTo((balance + amount1).toBigDecimal())
+    @Test
+    fun oppositeTransfersDoNotDeadlock() {
+        val executor = Executors.newFixedThreadPool(4)
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
 
-            future1.get()
-            assertThatThrownBy {
-                future2.get()
-            }.hasCauseInstanceOf(DataChangedException::class.java)
-                .hasMessageContaining("Database record has been changed or doesn't exist any longer")
-        } else if (savedPaymentOrder1.state == PaymentOrderState.RECEIVED) {
-            assertThat(savedPaymentOrder2.state).isEqualTo(PaymentOrderState.OK)
+        val paymentOrders = transactional.execute {
+            (1..50).flatMap {
+                listOf(
+                    paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 3),
+                    paymentOrder(fromAccount = account2, toAccount = account1, state = PaymentOrderState.RECEIVED, amount = 2)
+                )
+            }.map { paymentOrderDao.create(it) }
+        }
 
-            assertThat(savedPaymentOrder1.fromAccount.balance).isEqualByComparingTo(amount2.unaryMinus().toBigDecimal())
-            assertThat(savedPaymentOrder1.toAccount.balance).isEqualByComparingTo((balance + amount2).toBigDecimal())
+        val futures = paymentOrders.map { executor.submit(Callable { fixture.process(it.toRef()) }) }
+        awaitForFutures(*futures.toTypedArray())
+
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+
+        assertThat(futures.map { it.get() }).containsOnly(Transactor.ResultState.MONEY_SENT)
+        transactional.run {
+            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo((1000 - 50).toMoney())
+            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo((1000 + 50).toMoney())
+        }
+    }
 
-            assertThat(savedPaymentOrder2.fromAccount.balance).isEqualByComparingTo(amount2.unaryMinus().toBigDecimal())
-            assertThat(savedPaymentOrder2.toAccount.balance).isEqualByComparingTo((balance + amount2).toBigDecimal())
+    @Test
+    fun fundsAreDecidedByDbState() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
 
-            assertThatThrownBy {
-                future1.get()
-            }.hasCauseInstanceOf(DataChangedException::class.java)
-                .hasMessageContaining("Database record has been changed or doesn't exist any longer")
-            future2.get()
-        } else {
-            error("Invalid paymentOrder states $paymentOrder1 and $paymentOrder2, ${future1.get()}, ${future2.get()}")
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 999
+                )
+            )
         }
+
+        transactional.run { accountDao.updateBalance(account1.copy(balance = 123.toMoney())) }
+
+        assertThat(fixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.NO_FUNDS)
+
+        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.NO_FUNDS, 123)
     }
 
     @Test
-    fun doNotTransferWhenDbStateChanged() {
+    fun staleSnapshotDoesNotFailTransfer() {
         val account1 = createTopUpAccount()
         val account2 = createPersonalAccount("Mr. Bar", 1000)
 
@@ -204,13 +285,113 @@ class TransactorImplTest {
             )
         }
 
-        transactional.run { accountDao.updateBalance(account1.copy(balance = 123.toBigDecimal())) }
+        transactional.run { accountDao.updateBalance(account1.copy(balance = 123.toMoney())) }
+
+        assertThat(fixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.MONEY_SENT)
+
+        val saved = transactional.execute { paymentOrderDao.findPaymentOrder(paymentOrder.id) } ?: error("Not found")
+        assertThat(saved.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(saved.fromAccount.balance).isEqualTo((123 - 999).toMoney())
+        assertThat(saved.toAccount.balance).isEqualTo((1000 + 999).toMoney())
+        assertThat(fixture.metrics().conflicts).isEqualTo(0)
+    }
+
+    @Test
+    fun retryConflictWithBackoff() {
+        val account1 = createTopUpAccount()
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val conflictingAccountDao = conflictingAccountDao(account2, conflicts = 1)
+        val retryingFixture = TransactorImpl(transactionDao, paymentOrderDao, conflictingAccountDao, transactional)
+        retryingFixture.start()
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 10
+                )
+            )
+        }
+
+        assertThat(retryingFixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.MONEY_SENT)
+
+        val saved = transactional.execute { paymentOrderDao.findPaymentOrder(paymentOrder.id) } ?: error("Not found")
+        assertThat(saved.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(saved.fromAccount.balance).isEqualTo((-10).toMoney())
+        assertThat(saved.toAccount.balance).isEqualTo(1010.toMoney())
+        retryingFixture.metrics().also {
+            assertThat(it.conflicts).isEqualTo(1)
+            assertThat(it.retries).isEqualTo(1)
+            assertThat(it.deadLettered).isEqualTo(0)
+            assertThat(it.hotAccounts)
+                .containsExactlyInAnyOrder(
+                    AccountConflictMetrics(account1.id, 1, 1),
+                    AccountConflictMetrics(account2.id, 1, 1)
+                )
+        }
+    }
+
+    @Test
+    fun deadLetterWhenRetryBudgetExhausted() {
+        val account1 = createTopUpAccount()
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val conflictingAccountDao = conflictingAccountDao(account2, conflicts = Int.MAX_VALUE)
+        val hotFixture = TransactorImpl(transactionDao, paymentOrderDao, conflictingAccountDao, transactional, maxRetries = 2)
+        hotFixture.start()
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 10
+                )
+            )
+        }
+
+        assertThat(hotFixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.FAILED)
+
+        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.FAILED, 0, 1000)
+        hotFixture.metrics().also {
+            assertThat(it.conflicts).isEqualTo(3)
+            assertThat(it.retries).isEqualTo(2)
+            assertThat(it.deadLettered).isEqualTo(1)
+            assertThat(it.hotAccounts.first { metrics -> metrics.accountId == account2.id })
+                .isEqualTo(AccountConflictMetrics(account2.id, 3, 2))
+        }
+    }
+
+    @Test
+    fun deadLetterWhenAttemptsExhausted() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val failingFixture = TransactorImpl(
+            transactionDao, paymentOrderDao, failingAccountDao(account2), transactional, maxAttempts = 2
+        )
+        failingFixture.start()
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 10
+                )
+            )
+        }
 
-        assertThatThrownBy { fixture.process(paymentOrder) }
-            .isInstanceOf(DataChangedException::class.java)
-            .hasMessage("Database record has been changed or doesn't exist any longer")
+        assertThatThrownBy { failingFixture.process(paymentOrder.toRef()) }
+            .isInstanceOf(IllegalStateException::class.java)
+            .hasMessage("Account.id=${account2.id} is broken")
+        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.RECEIVED, 1000, 1000)
 
-        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.RECEIVED, 123)
+        assertThat(failingFixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.FAILED)
+        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.FAILED, 1000, 1000)
+        assertThat(failingFixture.metrics().deadLettered).isEqualTo(1)
     }
 
     @Test
@@ -228,16 +409,16 @@ class TransactorImplTest {
                 )
             )
         }
-        val result = fixture.process(paymentOrder)
+        val result = fixture.process(paymentOrder.toRef())
         assertThat(result).isEqualTo(Transactor.ResultState.MONEY_SENT)
 
-        val transaction = findTransaction(account1, paymentOrder.id)
+        val transaction = findTransaction(paymentOrder.id)
         assertThat(transaction.paymentOrder.state).isEqualTo(PaymentOrderState.OK)
         assertThat(transaction.fromAccount.name).isEqualTo("Top-up")
-        assertThat(transaction.fromAccount.balance).isEqualTo((-999).toBigDecimal())
-        assertThat(transaction.toAccount.balance).isEqualTo(1999.toBigDecimal())
+        assertThat(transaction.fromAccount.balance).isEqualTo((-999).toMoney())
+        assertThat(transaction.toAccount.balance).isEqualTo(1999.toMoney())
         assertThat(transaction.toAccount.name).isEqualTo("Mr. Bar")
-        assertThat(transaction.amount).isEqualTo(999.toBigDecimal())
+        assertThat(transaction.amount).isEqualTo(999.toMoney())
     }
 
     @Test
@@ -255,16 +436,16 @@ class TransactorImplTest {
                 )
             )
         }
-        val result = fixture.process(paymentOrder)
+        val result = fixture.process(paymentOrder.toRef())
         assertThat(result).isEqualTo(Transactor.ResultState.MONEY_SENT)
 
-        val transaction = findTransaction(account1, paymentOrder.id)
+        val transaction = findTransaction(paymentOrder.id)
         assertThat(transaction.paymentOrder.state).isEqualTo(PaymentOrderState.OK)
         assertThat(transaction.fromAccount.name).isEqualTo("Mr. Foo")
-        assertThat(transaction.fromAccount.balance).isEqualTo(950.toBigDecimal())
-        assertThat(transaction.toAccount.balance).isEqualTo(1050.toBigDecimal())
+        assertThat(transaction.fromAccount.balance).isEqualTo(950.toMoney())
+        assertThat(transaction.toAccount.balance).isEqualTo(1050.toMoney())
         assertThat(transaction.toAccount.name).isEqualTo("Mr. Bar")
-        assertThat(transaction.amount).isEqualTo(50.toBigDecimal())
+        assertThat(transaction.amount).isEqualTo(50.toMoney())
     }
 
     @Test
@@ -282,10 +463,179 @@ class TransactorImplTest {
                 )
             )
         }
-        val result = fixture.process(paymentOrder)
+        val result = fixture.process(paymentOrder.toRef())
+        assertThat(result).isEqualTo(Transactor.ResultState.NO_FUNDS)
+
+        assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.NO_FUNDS)
+    }
+
+    @Test
+    fun personalAccountWithoutFundsToLowerAccountId() {
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 9999,
+                    fromAccount = account1,
+                    toAccount = account2
+                )
+            )
+        }
+        val result = fixture.process(paymentOrder.toRef())
         assertThat(result).isEqualTo(Transactor.ResultState.NO_FUNDS)
 
         assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.NO_FUNDS)
+        // credit of account with lower id is rolled back to savepoint, not compensated by another update
+        transactional.run {
+            assertThat(accountDao.findAccount(account2.id)?.version).isEqualTo(account2.version)
+        }
+    }
+
+    @Test
+    fun processBatch() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val account3 = createTopUpAccount()
+
+        val paymentOrders = transactional.execute {
+            listOf(
+                paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 300),
+                paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 600),
+                paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 200),
+                paymentOrder(fromAccount = account3, toAccount = account1, state = PaymentOrderState.RECEIVED, amount = 50)
+            ).map { paymentOrderDao.create(it) }
+        }
+
+        val result = fixture.processBatch(paymentOrders.map { it.toRef() })
+        assertThat(result).containsExactly(
+            Transactor.ResultState.MONEY_SENT,
+            Transactor.ResultState.MONEY_SENT,
+            Transactor.ResultState.NO_FUNDS,
+            Transactor.ResultState.MONEY_SENT
+        )
+
+        transactional.run {
+            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo(150.toMoney())
+            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo(1900.toMoney())
+            assertThat(accountDao.findAccount(account3.id)?.balance).isEqualTo((-50).toMoney())
+            assertThat(paymentOrders.map { paymentOrderDao.findPaymentOrder(it.id)?.state }).containsExactly(
+                PaymentOrderState.OK, PaymentOrderState.OK, PaymentOrderState.NO_FUNDS, PaymentOrderState.OK
+            )
+            assertThat(transactionDao.findAccountTransactions(account1)).hasSize(3)
+        }
+    }
+
+    @Test
+    fun processBatchConflictFallsBackToSingleProcessing() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val account3 = createPersonalAccount("Mr. Baz", 1000)
+        val account4 = createPersonalAccount("Mr. Qux", 1000)
+
+        val paymentOrders = transactional.execute {
+            listOf(
+                paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 10),
+                paymentOrder(fromAccount = account3, toAccount = account4, state = PaymentOrderState.RECEIVED, amount = 20)
+            ).map { paymentOrderDao.create(it) }
+        }
+
+        transactional.run { accountDao.updateBalance(account3.copy(balance = 500.toMoney())) }
+        val staleFixture = TransactorImpl(transactionDao, paymentOrderDao, staleAccountDao(account3), transactional)
+        staleFixture.start()
+
+        val result = staleFixture.processBatch(paymentOrders.map { it.toRef() })
+        assertThat(result).containsExactly(Transactor.ResultState.MONEY_SENT, Transactor.ResultState.MONEY_SENT)
+
+        transactional.run {
+            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo(990.toMoney())
+            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo(1010.toMoney())
+            assertThat(accountDao.findAccount(account3.id)?.balance).isEqualTo(480.toMoney())
+            assertThat(accountDao.findAccount(account4.id)?.balance).isEqualTo(1020.toMoney())
+            assertThat(paymentOrders.map { paymentOrderDao.findPaymentOrder(it.id)?.state }).containsExactly(
+                PaymentOrderState.OK, PaymentOrderState.OK
+            )
+        }
+        assertThat(staleFixture.metrics().conflicts).isEqualTo(1)
+        assertThat(staleFixture.metrics().retries).isEqualTo(0)
+    }
+
+    @Test
+    fun processBatchFailingOrderRolledBackToSavepoint() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val account3 = createPersonalAccount("Mr. Baz", 1000)
+        val account4 = createPersonalAccount("Mr. Qux", 1000)
+
+        val paymentOrders = transactional.execute {
+            listOf(
+                paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = 10),
+                paymentOrder(fromAccount = account3, toAccount = account4, state = PaymentOrderState.RECEIVED, amount = 20)
+            ).map { paymentOrderDao.create(it) }
+        }
+        val failingFixture = TransactorImpl(transactionDao, paymentOrderDao, failingAccountDao(account4), transactional)
+        failingFixture.start()
+
+        val result = failingFixture.processBatch(paymentOrders.map { it.toRef() })
+        assertThat(result).containsExactly(Transactor.ResultState.MONEY_SENT, Transactor.ResultState.FAILED)
+
+        transactional.run {
+            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo(990.toMoney())
+            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo(1010.toMoney())
+            assertThat(accountDao.findAccount(account3.id)?.balance).isEqualTo(1000.toMoney())
+            assertThat(accountDao.findAccount(account4.id)?.balance).isEqualTo(1000.toMoney())
+            assertThat(paymentOrders.map { paymentOrderDao.findPaymentOrder(it.id)?.state }).containsExactly(
+                PaymentOrderState.OK, PaymentOrderState.RECEIVED
+            )
+            assertThat(transactionDao.findAccountTransactions(account3)).isEmpty()
+        }
+        assertThat(failingFixture.metrics().conflicts).isEqualTo(0)
+    }
+
+    @Test
+    fun processBatchDeadLettersOrderWhenAttemptsExhausted() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+        val account3 = createPersonalAccount("Mr. Baz", 1000)
+        val account4 = createPersonalAccount("Mr. Qux", 1000)
+
+        val failing = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(fromAccount = account3, toAccount = account4, state = PaymentOrderState.RECEIVED, amount = 20)
+            )
+        }
+        val failingFixture = TransactorImpl(
+            transactionDao, paymentOrderDao, failingAccountDao(account4), transactional, maxAttempts = 2
+        )
+        failingFixture.start()
+
+        for (amount in listOf(10, 30)) {
+            val ok = transactional.execute {
+                paymentOrderDao.create(
+                    paymentOrder(fromAccount = account1, toAccount = account2, state = PaymentOrderState.RECEIVED, amount = amount)
+                )
+            }
+            val result = failingFixture.processBatch(listOf(ok.toRef(), failing.toRef()))
+            assertThat(result).containsExactly(Transactor.ResultState.MONEY_SENT, Transactor.ResultState.FAILED)
+        }
+
+        transactional.run {
+            assertThat(paymentOrderDao.findPaymentOrder(failing.id)?.state).isEqualTo(PaymentOrderState.FAILED)
+            assertThat(accountDao.findAccount(account3.id)?.balance).isEqualTo(1000.toMoney())
+            assertThat(accountDao.findAccount(account4.id)?.balance).isEqualTo(1000.toMoney())
+        }
+        assertThat(failingFixture.metrics().deadLettered).isEqualTo(1)
+    }
+
+    @Test
+    fun processBatchNotRunning() {
+        fixture.stop()
+        val result = fixture.processBatch(
+            listOf(paymentOrder(id = 99999, fromAccount = account("A"), toAccount = account("B")).toRef())
+        )
+        assertThat(result).containsExactly(Transactor.ResultState.STOPPED)
     }
 
     @Test
@@ -302,19 +652,53 @@ class TransactorImplTest {
                 )
             )
         }
-        val result = fixture.process(paymentOrder)
+        val result = fixture.process(paymentOrder.toRef())
         assertThat(result).isEqualTo(Transactor.ResultState.INVALID_STATE)
 
         assertNoPaymentOccurred(account1, account2, paymentOrder, PaymentOrderState.OK)
     }
 
+    @Test
+    fun claimedPaymentOrder() {
+        val account1 = createPersonalAccount("Mr. Foo", 1000)
+        val account2 = createPersonalAccount("Mr. Bar", 1000)
+
+        val paymentOrder: PaymentOrder = transactional.execute {
+            paymentOrderDao.create(
+                paymentOrder(
+                    fromAccount = account1,
+                    toAccount = account2,
+                    state = PaymentOrderState.RECEIVED,
+                    amount = 100
+                )
+            )
+        }
+        val claimed = transactional.execute {
+            val now = OffsetDateTime.now()
+            paymentOrderDao.claimItem(paymentOrder.id, "owner#1", now.plusMinutes(1), now)
+        } ?: error("Not claimed")
+
+        assertThat(fixture.process(paymentOrder.toRef())).isEqualTo(Transactor.ResultState.INVALID_STATE)
+        assertNoPaymentOccurred(
+            account1, account2, paymentOrder, PaymentOrderState.PROCESSING,
+            expectedAccount1Balance = 1000,
+            expectedAccount2Balance = 1000
+        )
+
+        assertThat(fixture.process(claimed)).isEqualTo(Transactor.ResultState.MONEY_SENT)
+        val saved = transactional.execute { paymentOrderDao.findPaymentOrder(paymentOrder.id) } ?: error("Not found")
+        assertThat(saved.state).isEqualTo(PaymentOrderState.OK)
+        assertThat(saved.fromAccount.balance).isEqualTo(900.toMoney())
+        assertThat(saved.toAccount.balance).isEqualTo(1100.toMoney())
+    }
+
     @Test
     fun paymentOrderNotFound() {
         assertThatThrownBy {
             fixture.process(
                 paymentOrder(
                     id = 99999, fromAccount = account("Mr. X"), toAccount = account("Mr. Y")
-                )
+                ).toRef()
             )
         }.isInstanceOf(IllegalStateException::class.java)
             .hasMessage("Unable to find paymentOrder.id=99999")
@@ -326,7 +710,7 @@ class TransactorImplTest {
         val result = fixture.process(
             paymentOrder(
                 id = 99999, fromAccount = account("A"), toAccount = account("B")
-            )
+            ).toRef()
         )
         assertThat(result).isEqualTo(Transactor.ResultState.STOPPED)
     }
@@ -337,25 +721,25 @@ class TransactorImplTest {
         toAccount: Account,
         state: PaymentOrderState = PaymentOrderState.OK,
         amount: Int = 100
-    ): PaymentOrder = PaymentOrder(fromAccount, toAccount, amount.toBigDecimal(), state, OffsetDateTime.now(), id)
+    ): PaymentOrder = PaymentOrder(fromAccount, toAccount, amount.toMoney(), state, OffsetDateTime.now(), id)
 
     private fun account(name: String) =
-        Account(AccountType.PERSONAL, name, OffsetDateTime.now(), 1000.toBigDecimal())
+        Account(AccountType.PERSONAL, name, OffsetDateTime.now(), 1000.toMoney())
 
     private fun createPersonalAccount(name: String, balance: Int): Account = transactional.execute {
-        accountDao.create(Account(AccountType.PERSONAL, name, OffsetDateTime.now(), balance.toBigDecimal()))
+        accountDao.create(Account(AccountType.PERSONAL, name, OffsetDateTime.now(), balance.toMoney()))
     }
 
     private fun createWithdrawalAccount(): Account = transactional.execute {
-        accountDao.create(Account(AccountType.WITHDRAWAL, "Withdrawal", OffsetDateTime.now(), 0.toBigDecimal()))
+        accountDao.create(Account(AccountType.WITHDRAWAL, "Withdrawal", OffsetDateTime.now(), 0.toMoney()))
     }
 
     private fun createTopUpAccount(): Account = transactional.execute {
-        accountDao.create(Account(AccountType.TOP_UP, "Top-up", OffsetDateTime.now(), 0.toBigDecimal()))
+        accountDao.create(Account(AccountType.TOP_UP, "Top-up", OffsetDateTime.now(), 0.toMoney()))
     }
 
-    private fun findTransaction(account: Account, paymentOrderId: Int): Transaction = transactional.execute {
-        transactionDao.findAccountTransactions(account).first { it.paymentOrder.id == paymentOrderId }
+    private fun findTransaction(paymentOrderId: Int): Transaction = transactional.execute {
+        transactionDao.findTransaction(paymentOrderId) ?: error("Not found")
     }
 
     private fun assertNoPaymentOccurred(
@@ -370,8 +754,43 @@ class TransactorImplTest {
             assertThat(transactionDao.findAccountTransactions(account1)).isEmpty()
             assertThat(transactionDao.findAccountTransactions(account2)).isEmpty()
             assertThat(paymentOrderDao.findPaymentOrder(paymentOrder.id)?.state).isEqualTo(expectedState)
-            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo(expectedAccount1Balance.toBigDecimal())
-            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo(expectedAccount2Balance.toBigDecimal())
+            assertThat(accountDao.findAccount(account1.id)?.balance).isEqualTo(expectedAccount1Balance.toMoney())
+            assertThat(accountDao.findAccount(account2.id)?.balance).isEqualTo(expectedAccount2Balance.toMoney())
+        }
+    }
+
+    private fun conflictingAccountDao(account: Account, conflicts: Int): AccountDao {
+        val remaining = AtomicInteger(conflicts)
+        return object : AccountDao by accountDao {
+            override fun credit(accountId: Int, amount: Money): Boolean {
+                if (accountId == account.id && remaining.getAndDecrement() > 0) {
+                    throw DataChangedException("Database record has been changed or doesn't exist any longer")
+                }
+                return accountDao.credit(accountId, amount)
+            }
+        }
+    }
+
+    // first batch read returns account as it was before concurrent balance change
+    private fun staleAccountDao(account: Account): AccountDao {
+        val stale = AtomicBoolean(true)
+        return object : AccountDao by accountDao {
+            override fun findAccountsById(ids: Collection<Int>): Map<Int, Account> {
+                val accounts = accountDao.findAccountsById(ids)
+                return if (account.id in accounts && stale.getAndSet(false)) accounts + (account.id to account) else accounts
+            }
+        }
+    }
+
+    private fun failingAccountDao(account: Account): AccountDao = object : AccountDao by accountDao {
+        override fun updateBalances(accounts: List<Account>): List<Boolean> {
+            check(accounts.none { it.id == account.id }) { "Account.id=${account.id} is broken" }
+            return accountDao.updateBalances(accounts)
+        }
+
+        override fun credit(accountId: Int, amount: Money): Boolean {
+            check(accountId != account.id) { "Account.id=${account.id} is broken" }
+            return accountDao.credit(accountId, amount)
         }
     }
 
@@ -0,0 +1,90 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.PaymentOrderRef
+import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.toMoney
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.awaitility.Awaitility.await
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class TransactorLanesTest {
+    private lateinit var fixture: TransactorLanes
+
+    @BeforeEach
+    fun setUp() {
+        fixture = TransactorLanes(4)
+    }
+
+    @Test
+    fun sameLaneRunsOnSingleThread() {
+        val threads = ConcurrentHashMap.newKeySet<String>()
+        val counter = AtomicInteger()
+        repeat(10) {
+            fixture.submit(paymentOrder(1, 5)) {
+                threads.add(Thread.currentThread().name)
+                counter.incrementAndGet()
+            }
+        }
+
+        await().atMost(5, TimeUnit.SECONDS).until { counter.get() == 10 }
+        assertThat(threads).containsExactly("transactor-lane-1")
+        assertThat(fixture.laneCount).isEqualTo(4)
+        assertThat(fixture.queueDepths()).containsExactly(0, 0, 0, 0)
+    }
+
+    @Test
+    fun accountIsNeverProcessedConcurrently() {
+        val random = Random(42)
+        val active = List(20) { AtomicInteger() }
+        val maxActive = AtomicInteger()
+        val finished = AtomicInteger()
+        val count = 2000
+
+        repeat(count) {
+            val fromId = random.nextInt(20)
+            val toId = (fromId + 1 + random.nextInt(19)) % 20
+            fixture.submit(paymentOrder(fromId, toId)) {
+                val from = active[fromId].incrementAndGet()
+                val to = active[toId].incrementAndGet()
+                maxActive.accumulateAndGet(maxOf(from, to)) { a, b -> maxOf(a, b) }
+                Thread.yield()
+                active[fromId].decrementAndGet()
+                active[toId].decrementAndGet()
+                finished.incrementAndGet()
+            }
+        }
+
+        await().atMost(30, TimeUnit.SECONDS).until { finished.get() == count }
+        assertThat(maxActive.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun invalidNumberOfLanes() {
+        assertThatThrownBy { TransactorLanes(0) }
+            .isInstanceOf(IllegalArgumentException::class.java)
+            .hasMessage("Number of lanes has to be positive")
+    }
+
+    private fun paymentOrder(fromAccountId: Int, toAccountId: Int) = PaymentOrderRef(
+        fromAccountId,
+        AccountType.PERSONAL,
+        toAccountId,
+        100.toMoney(),
+        PaymentOrderState.RECEIVED,
+        0,
+        0
+    )
+
+    @AfterEach
+    fun tearDown() {
+        fixture.shutdownAndWait()
+    }
+}
@@ -1,5 +1,7 @@
 package cz.bedla.bank.service.impl
 
+import cz.bedla.bank.tx.Isolation
+import cz.bedla.bank.tx.Propagation
 import cz.bedla.bank.tx.TransactionExecuteCallback
 import cz.bedla.bank.tx.TransactionRunCallback
 import cz.bedla.bank.tx.Transactional
@@ -11,9 +13,33 @@ val transactional = object : Transactional {
         action?.doInTransaction()
     }
 
+    override fun run(propagation: Propagation?, action: TransactionRunCallback?) {
+        action?.doInTransaction()
+    }
+
     override fun <T : Any?> execute(action: TransactionExecuteCallback<T>?): T? {
         return action?.doInTransaction()
     }
+
+    override fun <T : Any?> execute(propagation: Propagation?, action: TransactionExecuteCallback<T>?): T? {
+        return action?.doInTransaction()
+    }
+
+    override fun <T : Any?> execute(
+        propagation: Propagation?,
+        isolation: Isolation?,
+        action: TransactionExecuteCallback<T>?
+    ): T? {
+        return action?.doInTransaction()
+    }
+
+    override fun <T : Any?> executeReadOnly(action: TransactionExecuteCallback<T>?): T? {
+        return action?.doInTransaction()
+    }
+
+    override fun afterCommit(action: TransactionRunCallback?) {
+        action?.doInTransaction()
+    }
 }
 
 fun returnsFirstArg(): Answer<Any> {
@@ -0,0 +1,16 @@
+package cz.bedla.bank.service
+
+interface AccountCache {
+    fun metrics(): AccountCacheMetrics
+    fun clear()
+}
+
+data class AccountCacheMetrics(
+    val size: Int,
+    val maximumSize: Int,
+    val hits: Long,
+    val misses: Long,
+    val hitRate: Double,
+    val evictions: Long,
+    val invalidations: Long
+)
@@ -2,11 +2,17 @@ package cz.bedla.bank.service
 
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 
 interface AccountDao : Dao {
     fun create(account: Account): Account
+    fun createAll(accounts: List<Account>): List<Account>
     fun updateBalance(account: Account)
+    fun updateBalances(accounts: List<Account>): List<Boolean>
+    fun debit(accountId: Int, amount: Money, requireFunds: Boolean): Boolean
+    fun credit(accountId: Int, amount: Money): Boolean
     fun findAccount(id: Int): Account?
+    fun findAccountsById(ids: Collection<Int>): Map<Int, Account>
     fun findAccounts(): List<Account>
     fun findAccountsOfType(type: AccountType): List<Account>
 }
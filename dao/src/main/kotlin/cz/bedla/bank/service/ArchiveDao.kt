@@ -0,0 +1,15 @@
+package cz.bedla.bank.service
+
+import java.time.OffsetDateTime
+
+interface ArchiveDao : Dao {
+    fun archiveSettled(settledBefore: OffsetDateTime, limit: Int): Int
+
+    fun stats(settledBefore: OffsetDateTime): ArchiveStats
+}
+
+data class ArchiveStats(
+    val hotPaymentOrders: Int,
+    val hotTransactions: Int,
+    val oldestUnarchived: OffsetDateTime?
+)
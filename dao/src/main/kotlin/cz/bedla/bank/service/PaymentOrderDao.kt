@@ -2,18 +2,34 @@ package cz.bedla.bank.service
 
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
+import java.time.OffsetDateTime
 
 interface PaymentOrderDao : Dao {
     fun create(item: PaymentOrder): PaymentOrder
 
     fun findPaymentOrder(id: Int): PaymentOrder?
 
-    fun findItemsWithState(state: PaymentOrderState): List<PaymentOrder>
+    fun findPaymentOrderRef(id: Int): PaymentOrderRef?
+
+    fun findItemsWithState(state: PaymentOrderState, afterId: Int, limit: Int): List<PaymentOrderRef>
+
+    fun claimItems(claimOwner: String, leaseExpires: OffsetDateTime, now: OffsetDateTime, limit: Int): List<PaymentOrderRef>
+
+    fun claimItem(id: Int, claimOwner: String, leaseExpires: OffsetDateTime, now: OffsetDateTime): PaymentOrderRef?
+
+    fun releaseItem(id: Int, claimOwner: String): Boolean
+
+    fun recordFailedAttempt(id: Int): Int
 
     fun findItemsForAccount(account: Account): List<PaymentOrder>
 
-    fun updateState(paymentOrder: PaymentOrder)
+    fun findItemsForAccount(account: Account, page: PageRequest): List<PaymentOrder>
+
+    fun updateState(paymentOrder: PaymentOrderRef)
+
+    fun updateStates(paymentOrders: List<PaymentOrderRef>): List<Boolean>
 
     fun delete(item: PaymentOrder)
 }
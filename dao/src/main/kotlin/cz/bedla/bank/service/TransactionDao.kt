@@ -1,8 +1,10 @@
 package cz.bedla.bank.service
 
 import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.Transaction
-import java.math.BigDecimal
+import cz.bedla.bank.domain.TransactionView
 import java.time.OffsetDateTime
 
 interface TransactionDao : Dao {
@@ -10,11 +12,25 @@ interface TransactionDao : Dao {
         paymentOrderId: Int,
         fromAccountId: Int,
         toAccountId: Int,
-        amount: BigDecimal,
+        amount: Money,
         dateTransacted: OffsetDateTime
-    ): Transaction
+    ): Boolean
 
-    fun calculateBalance(account: Account): BigDecimal
+    fun createAll(paymentOrders: List<PaymentOrderRef>, dateTransacted: OffsetDateTime): List<Boolean>
 
-    fun findAccountTransactions(account: Account): List<Transaction>
+    fun calculateBalance(account: Account): Money
+
+    fun recalculateBalance(account: Account): Money
+
+    fun verifyBalance(account: Account): Pair<Money, Money>
+
+    fun advanceCheckpoints(limit: Int): Int
+
+    fun findTransaction(paymentOrderId: Int): Transaction?
+
+    fun findAccountTransactions(account: Account): List<TransactionView>
+
+    fun findAccountTransactions(account: Account, page: PageRequest): List<TransactionView>
+
+    fun exportAccountTransactions(account: Account, action: (TransactionView) -> Unit): Int
 }
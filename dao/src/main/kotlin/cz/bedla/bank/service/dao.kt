@@ -1,15 +1,54 @@
 package cz.bedla.bank.service
 
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.tx.Transactional
+import org.jooq.Condition
 import org.jooq.DSLContext
+import org.jooq.Field
 import org.jooq.SQLDialect
 import org.jooq.conf.Settings
 import org.jooq.impl.DSL
+import org.jooq.impl.SQLDataType
+import java.time.OffsetDateTime
 
 interface Dao {
 }
 
+data class Keyset(val date: OffsetDateTime, val id: Int)
+
+data class PageRequest(
+    val limit: Int,
+    val after: Keyset? = null,
+    val from: OffsetDateTime? = null,
+    val to: OffsetDateTime? = null
+) {
+    init {
+        require(limit > 0) { "Page limit has to be positive" }
+    }
+}
+
 fun Dao.createDsl(): DSLContext = DSL.using(
         Transactional.currentConnection(),
         SQLDialect.H2,
         Settings().withExecuteWithOptimisticLocking(true))
+
+fun PageRequest.toCondition(date: Field<OffsetDateTime>, id: Field<Int>): Condition {
+    var condition: Condition = DSL.trueCondition()
+    if (from != null) {
+        condition = condition.and(date.ge(from))
+    }
+    if (to != null) {
+        condition = condition.and(date.lt(to))
+    }
+    if (after != null) {
+        // "date >= ?" keeps index range scan, "(date, id) > (?, ?)" would be expanded to OR
+        condition = condition.and(date.ge(after.date)).and(date.gt(after.date).or(id.gt(after.id)))
+    }
+    return condition
+}
+
+// jOOQ aggregates accept only numbers, money column is summed as BIGINT and read back through its converter
+fun sumMoney(field: Field<Money>): Field<Money> = DSL.sum(field.coerce(SQLDataType.BIGINT)).coerce(field.dataType)
+
+// union result can be ordered only by its own column names
+fun <T> Field<T>.unqualified(): Field<T> = DSL.field(unqualifiedName, dataType)
@@ -4,8 +4,16 @@ import cz.bedla.bank.service.AccountDao
 import cz.bedla.bank.service.createDsl
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.jooq.tables.Account.ACCOUNT
+import cz.bedla.bank.jooq.tables.Account as AccountTable
+import cz.bedla.bank.tx.Transactional
 import org.jooq.Record
+import org.jooq.impl.DSL.inline
+import org.jooq.impl.DSL.param
+import org.jooq.impl.DSL.value
+import java.sql.Statement
+import java.time.OffsetDateTime
 
 
 class AccountDaoImpl() : AccountDao {
@@ -14,7 +22,7 @@ class AccountDaoImpl() : AccountDao {
 
         val accountRecord = dsl.newRecord(ACCOUNT)
         accountRecord.id = null
-        accountRecord.type = account.type.name
+        accountRecord.type = account.type
         accountRecord.name = account.name
         accountRecord.dateOpened = account.dateOpened
         accountRecord.balance = account.balance
@@ -25,6 +33,41 @@ class AccountDaoImpl() : AccountDao {
         return account.copy(id = accountRecord.id, version = accountRecord.version)
     }
 
+    override fun createAll(accounts: List<Account>): List<Account> {
+        if (accounts.isEmpty()) {
+            return listOf()
+        }
+        val sql = createDsl()
+            .insertInto(ACCOUNT, ACCOUNT.TYPE, ACCOUNT.NAME, ACCOUNT.DATE_OPENED, ACCOUNT.BALANCE, ACCOUNT.VERSION)
+            .values(
+                param("type", ACCOUNT.TYPE.dataType),
+                param("name", String::class.java),
+                param("dateOpened", OffsetDateTime::class.java),
+                param("balance", ACCOUNT.BALANCE.dataType),
+                param("version", Int::class.javaObjectType)
+            )
+            .sql
+
+        // jOOQ batch does not return generated keys, JDBC batch does
+        val ids = Transactional.currentConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS).use { statement ->
+            for (account in accounts) {
+                statement.setByte(1, account.type.code)
+                statement.setString(2, account.name)
+                statement.setObject(3, account.dateOpened)
+                statement.setLong(4, account.balance.minorUnits)
+                statement.setInt(5, INITIAL_VERSION)
+                statement.addBatch()
+            }
+            statement.executeBatch()
+            statement.generatedKeys.use { keys ->
+                generateSequence { if (keys.next()) keys.getInt(1) else null }.toList()
+            }
+        }
+        check(ids.size == accounts.size) { "Expected ${accounts.size} generated keys, got ${ids.size}" }
+
+        return accounts.zip(ids) { account, id -> account.copy(id = id, version = INITIAL_VERSION) }
+    }
+
     override fun updateBalance(account: Account) {
         val dsl = createDsl()
         val record = dsl.selectFrom(ACCOUNT).where(ACCOUNT.ID.eq(account.id)).fetchOne()
@@ -33,12 +76,65 @@ class AccountDaoImpl() : AccountDao {
         record.store()
     }
 
+    override fun updateBalances(accounts: List<Account>): List<Boolean> {
+        if (accounts.isEmpty()) {
+            return listOf()
+        }
+        val dsl = createDsl()
+        val batch = dsl.batch(
+            dsl.update(ACCOUNT)
+                .set(ACCOUNT.BALANCE, param("balance", ACCOUNT.BALANCE.dataType))
+                .set(ACCOUNT.VERSION, ACCOUNT.VERSION.plus(inline(1)))
+                .where(ACCOUNT.ID.eq(param("id", Int::class.javaObjectType)))
+                .and(ACCOUNT.VERSION.eq(param("version", Int::class.javaObjectType)))
+        )
+        for (account in accounts) {
+            batch.bind(account.balance, account.id, account.version)
+        }
+        return batch.execute().map { it == 1 }
+    }
+
+    override fun debit(accountId: Int, amount: Money, requireFunds: Boolean): Boolean {
+        val dsl = createDsl()
+        val update = dsl.update(ACCOUNT)
+            .set(ACCOUNT.BALANCE, ACCOUNT.BALANCE.minus(value(amount, ACCOUNT.BALANCE)))
+            .set(ACCOUNT.VERSION, ACCOUNT.VERSION.plus(inline(1)))
+            .where(ACCOUNT.ID.eq(accountId))
+        val updated = if (requireFunds) {
+            update.and(ACCOUNT.BALANCE.ge(amount)).execute()
+        } else {
+            update.execute()
+        }
+        return updated == 1
+    }
+
+    override fun credit(accountId: Int, amount: Money): Boolean {
+        val dsl = createDsl()
+        return dsl.update(ACCOUNT)
+            .set(ACCOUNT.BALANCE, ACCOUNT.BALANCE.plus(value(amount, ACCOUNT.BALANCE)))
+            .set(ACCOUNT.VERSION, ACCOUNT.VERSION.plus(inline(1)))
+            .where(ACCOUNT.ID.eq(accountId))
+            .execute() == 1
+    }
+
     override fun findAccount(id: Int): Account? {
         val dsl = createDsl()
         val record = dsl.selectFrom(ACCOUNT).where(ACCOUNT.ID.eq(id)).fetchOne()
         return record?.toAccount()
     }
 
+    override fun findAccountsById(ids: Collection<Int>): Map<Int, Account> {
+        if (ids.isEmpty()) {
+            return mapOf()
+        }
+        val dsl = createDsl()
+        return ids.distinct()
+            .chunked(MAX_IN_LIST_SIZE)
+            .flatMap { chunk -> dsl.selectFrom(ACCOUNT).where(ACCOUNT.ID.`in`(chunk)).fetch() }
+            .map { it.toAccount() }
+            .associateBy { it.id }
+    }
+
     override fun findAccounts(): List<Account> {
         val dsl = createDsl()
         val result = dsl.selectFrom(ACCOUNT).orderBy(ACCOUNT.NAME).fetch()
@@ -48,16 +144,22 @@ class AccountDaoImpl() : AccountDao {
     override fun findAccountsOfType(type: AccountType): List<Account> {
         val dsl = createDsl()
         val result = dsl.selectFrom(ACCOUNT)
-                .where(ACCOUNT.TYPE.eq(type.name))
+                .where(ACCOUNT.TYPE.eq(type))
                 .orderBy(ACCOUNT.NAME).fetch()
         return result.map { it.toAccount() }
     }
 
-    private fun Record.toAccount() = Account(
-            AccountType.valueOf(getValue(ACCOUNT.TYPE)),
-            getValue(ACCOUNT.NAME),
-            getValue(ACCOUNT.DATE_OPENED),
-            getValue(ACCOUNT.BALANCE),
-            getValue(ACCOUNT.ID),
-            getValue(ACCOUNT.VERSION))
+    companion object {
+        private const val MAX_IN_LIST_SIZE = 1000
+        // version jOOQ optimistic locking assigns to stored new record
+        private const val INITIAL_VERSION = 1
+    }
 }
+
+internal fun Record.toAccount(table: AccountTable = ACCOUNT) = Account(
+        getValue(table.TYPE),
+        getValue(table.NAME),
+        getValue(table.DATE_OPENED),
+        getValue(table.BALANCE),
+        getValue(table.ID),
+        getValue(table.VERSION))
@@ -0,0 +1,75 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.jooq.Tables.PAYMENT_ORDER
+import cz.bedla.bank.jooq.Tables.TRANSACTION
+import cz.bedla.bank.service.ArchiveDao
+import cz.bedla.bank.service.ArchiveStats
+import cz.bedla.bank.service.createDsl
+import org.jooq.Condition
+import org.jooq.impl.DSL.count
+import org.jooq.impl.DSL.min
+import org.jooq.impl.DSL.select
+import org.jooq.impl.DSL.selectFrom
+import org.jooq.impl.DSL.selectOne
+import java.time.OffsetDateTime
+
+class ArchiveDaoImpl : ArchiveDao {
+    override fun archiveSettled(settledBefore: OffsetDateTime, limit: Int): Int {
+        val dsl = createDsl()
+        val ids = dsl.select(PAYMENT_ORDER.ID)
+            .from(PAYMENT_ORDER)
+            .where(archivable(settledBefore))
+            .orderBy(PAYMENT_ORDER.ID)
+            .limit(limit)
+            .forUpdate()
+            .fetch(PAYMENT_ORDER.ID)
+        if (ids.isEmpty()) {
+            return 0
+        }
+
+        dsl.insertInto(PAYMENT_ORDER_ARCHIVE)
+            .select(selectFrom(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.`in`(ids)))
+            .execute()
+        dsl.insertInto(TRANSACTION_ARCHIVE)
+            .select(selectFrom(TRANSACTION).where(TRANSACTION.PO_ID.`in`(ids)))
+            .execute()
+        dsl.deleteFrom(TRANSACTION).where(TRANSACTION.PO_ID.`in`(ids)).execute()
+        dsl.deleteFrom(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.`in`(ids)).execute()
+        return ids.size
+    }
+
+    // archive tables grow without limit, so they are not counted
+    override fun stats(settledBefore: OffsetDateTime): ArchiveStats {
+        val dsl = createDsl()
+        val record = dsl.select(
+            select(count()).from(PAYMENT_ORDER).asField<Int>(),
+            select(count()).from(TRANSACTION).asField<Int>(),
+            select(min(PAYMENT_ORDER.DATE_CREATED)).from(PAYMENT_ORDER).where(settled(settledBefore))
+                .asField<OffsetDateTime>()
+        ).fetchOne()
+        return ArchiveStats(record.value1(), record.value2(), record.value3())
+    }
+
+    private fun settled(settledBefore: OffsetDateTime): Condition =
+        PAYMENT_ORDER.STATE.`in`(PaymentOrderState.OK, PaymentOrderState.NO_FUNDS)
+            .and(PAYMENT_ORDER.DATE_CREATED.lt(settledBefore))
+
+    // transactions not yet folded into balance checkpoint stay hot, so calculated balance never reads archive
+    private fun archivable(settledBefore: OffsetDateTime): Condition =
+        settled(settledBefore)
+            .andNotExists(
+                selectOne()
+                    .from(TRANSACTION)
+                    .where(TRANSACTION.PO_ID.eq(PAYMENT_ORDER.ID))
+                    .and(TRANSACTION.CHECKPOINT_ID.eq(NOT_CHECKPOINTED))
+            )
+
+    companion object {
+        private const val NOT_CHECKPOINTED = 0
+    }
+}
+
+// archive tables have the same columns as hot ones, jOOQ classes are not generated for them
+internal val PAYMENT_ORDER_ARCHIVE = PAYMENT_ORDER.rename("PAYMENT_ORDER_ARCHIVE")!!
+internal val TRANSACTION_ARCHIVE = TRANSACTION.rename("TRANSACTION_ARCHIVE")!!
@@ -0,0 +1,143 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.service.AccountCache
+import cz.bedla.bank.service.AccountCacheMetrics
+import cz.bedla.bank.service.AccountDao
+import cz.bedla.bank.tx.Transactional
+import java.util.concurrent.atomic.AtomicLong
+
+class CachingAccountDao(
+    private val delegate: AccountDao,
+    private val transactional: Transactional,
+    private val maximumSize: Int = 10_000
+) : AccountDao, AccountCache {
+    private val lock = Any()
+    private val entries = object : LinkedHashMap<Int, Account>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, Account>?): Boolean =
+            (size > maximumSize).also { if (it) evictions.incrementAndGet() }
+    }
+    private val epoch = AtomicLong()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val invalidations = AtomicLong()
+
+    init {
+        require(maximumSize > 0) { "Maximal size of account cache has to be positive" }
+    }
+
+    override fun create(account: Account): Account {
+        val epochBefore = epoch.get()
+        return delegate.create(account).also { cacheAfterCommit(listOf(it), epochBefore) }
+    }
+
+    // bulk created accounts are not cached, onboarding would only push out hot accounts
+    override fun createAll(accounts: List<Account>): List<Account> = delegate.createAll(accounts)
+
+    override fun updateBalance(account: Account) {
+        invalidate(listOf(account.id))
+        delegate.updateBalance(account)
+    }
+
+    override fun updateBalances(accounts: List<Account>): List<Boolean> {
+        invalidate(accounts.map { it.id })
+        return delegate.updateBalances(accounts)
+    }
+
+    override fun debit(accountId: Int, amount: Money, requireFunds: Boolean): Boolean {
+        invalidate(listOf(accountId))
+        return delegate.debit(accountId, amount, requireFunds)
+    }
+
+    override fun credit(accountId: Int, amount: Money): Boolean {
+        invalidate(listOf(accountId))
+        return delegate.credit(accountId, amount)
+    }
+
+    override fun findAccount(id: Int): Account? {
+        cached(id)?.also {
+            hits.incrementAndGet()
+            return it
+        }
+        misses.incrementAndGet()
+        val epochBefore = epoch.get()
+        return delegate.findAccount(id)?.also { cacheAfterCommit(listOf(it), epochBefore) }
+    }
+
+    override fun findAccountsById(ids: Collection<Int>): Map<Int, Account> {
+        val found = HashMap<Int, Account>()
+        val missing = mutableListOf<Int>()
+        for (id in ids.distinct()) {
+            val account = cached(id)
+            if (account != null) {
+                found[id] = account
+            } else {
+                missing.add(id)
+            }
+        }
+        hits.addAndGet(found.size.toLong())
+        misses.addAndGet(missing.size.toLong())
+        if (missing.isNotEmpty()) {
+            val epochBefore = epoch.get()
+            val loaded = delegate.findAccountsById(missing)
+            cacheAfterCommit(loaded.values, epochBefore)
+            found.putAll(loaded)
+        }
+        return found
+    }
+
+    override fun findAccounts(): List<Account> = delegate.findAccounts()
+
+    override fun findAccountsOfType(type: AccountType): List<Account> = delegate.findAccountsOfType(type)
+
+    override fun metrics(): AccountCacheMetrics {
+        val hitCount = hits.get()
+        val missCount = misses.get()
+        val requests = hitCount + missCount
+        return AccountCacheMetrics(
+            synchronized(lock) { entries.size },
+            maximumSize,
+            hitCount,
+            missCount,
+            if (requests > 0) hitCount.toDouble() / requests else 0.0,
+            evictions.get(),
+            invalidations.get()
+        )
+    }
+
+    override fun clear() {
+        epoch.incrementAndGet()
+        synchronized(lock) { entries.clear() }
+    }
+
+    private fun cached(id: Int): Account? = synchronized(lock) { entries[id] }
+
+    private fun cacheAfterCommit(accounts: Collection<Account>, epochBefore: Long) {
+        if (accounts.isEmpty()) {
+            return
+        }
+        transactional.afterCommit {
+            synchronized(lock) {
+                if (epoch.get() == epochBefore) {
+                    accounts.forEach { entries[it.id] = it }
+                }
+            }
+        }
+    }
+
+    private fun invalidate(ids: Collection<Int>) {
+        evict(ids)
+        transactional.afterCommit { evict(ids) }
+    }
+
+    private fun evict(ids: Collection<Int>) {
+        synchronized(lock) {
+            epoch.incrementAndGet()
+            ids.forEach { entries.remove(it) }
+        }
+        invalidations.addAndGet(ids.size.toLong())
+    }
+}
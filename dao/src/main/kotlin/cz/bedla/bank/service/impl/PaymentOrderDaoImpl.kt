@@ -2,13 +2,27 @@ package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.jooq.Tables.ACCOUNT
 import cz.bedla.bank.jooq.Tables.PAYMENT_ORDER
+import cz.bedla.bank.jooq.tables.PaymentOrder as PaymentOrderTable
 import cz.bedla.bank.jooq.tables.records.PaymentOrderRecord
 import cz.bedla.bank.service.AccountDao
+import cz.bedla.bank.service.PageRequest
 import cz.bedla.bank.service.PaymentOrderDao
 import cz.bedla.bank.service.createDsl
+import cz.bedla.bank.service.toCondition
+import cz.bedla.bank.service.unqualified
+import org.jooq.Condition
+import org.jooq.Field
+import org.jooq.Record
 import org.jooq.exception.DataChangedException
+import org.jooq.impl.DSL.inline
+import org.jooq.impl.DSL.param
+import org.jooq.impl.DSL.select
+import org.jooq.impl.DSL.selectFrom
+import java.time.OffsetDateTime
 
 class PaymentOrderDaoImpl(private val accountDao: AccountDao) : PaymentOrderDao {
     override fun create(item: PaymentOrder): PaymentOrder {
@@ -19,7 +33,7 @@ class PaymentOrderDaoImpl(private val accountDao: AccountDao) : PaymentOrderDao
         paymentOrderRecord.fromAccId = item.fromAccount.id
         paymentOrderRecord.toAccId = item.toAccount.id
         paymentOrderRecord.amount = item.amount
-        paymentOrderRecord.state = item.state.name
+        paymentOrderRecord.state = item.state
         paymentOrderRecord.dateCreated = item.dateCreated
         paymentOrderRecord.version = 0
 
@@ -30,8 +44,19 @@ class PaymentOrderDaoImpl(private val accountDao: AccountDao) : PaymentOrderDao
 
     override fun findPaymentOrder(id: Int): PaymentOrder? {
         val dsl = createDsl()
-        val record = dsl.selectFrom(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.eq(id)).fetchOne()
-        return record?.toPaymentOrder(accountDao)
+        return dsl.selectFrom(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.eq(id))
+            .unionAll(selectFrom(PAYMENT_ORDER_ARCHIVE).where(PAYMENT_ORDER_ARCHIVE.ID.eq(id)))
+            .fetch()
+            .toPaymentOrders()
+            .firstOrNull()
+    }
+
+    override fun findPaymentOrderRef(id: Int): PaymentOrderRef? {
+        val dsl = createDsl()
+        return dsl.fetch(
+            selectRefs(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.eq(id))
+                .unionAll(selectRefs(PAYMENT_ORDER_ARCHIVE).where(PAYMENT_ORDER_ARCHIVE.ID.eq(id)))
+        ).map { it.toPaymentOrderRef() }.firstOrNull()
     }
 
     override fun delete(item: PaymentOrder) {
@@ -45,51 +70,230 @@ class PaymentOrderDaoImpl(private val accountDao: AccountDao) : PaymentOrderDao
         }
     }
 
-    override fun findItemsWithState(state: PaymentOrderState): List<PaymentOrder> {
+    override fun findItemsWithState(state: PaymentOrderState, afterId: Int, limit: Int): List<PaymentOrderRef> {
+        return selectRefs(PAYMENT_ORDER)
+            .where(PAYMENT_ORDER.STATE.eq(state))
+            .and(PAYMENT_ORDER.ID.gt(afterId))
+            .orderBy(PAYMENT_ORDER.ID)
+            .limit(limit)
+            .fetch { it.toPaymentOrderRef() }
+    }
+
+    override fun claimItems(
+        claimOwner: String,
+        leaseExpires: OffsetDateTime,
+        now: OffsetDateTime,
+        limit: Int
+    ): List<PaymentOrderRef> {
         val dsl = createDsl()
-        return dsl.selectFrom(PAYMENT_ORDER)
-            .where(PAYMENT_ORDER.STATE.eq(state.name))
-            .orderBy(PAYMENT_ORDER.DATE_CREATED)
-            .fetch()
-            .map { it.toPaymentOrder(accountDao) }
+        val claimable = claimable(now)
+        val claimed = dsl.update(PAYMENT_ORDER)
+            .set(PAYMENT_ORDER.STATE, PaymentOrderState.PROCESSING)
+            .set(PAYMENT_ORDER.CLAIM_OWNER, claimOwner)
+            .set(PAYMENT_ORDER.LEASE_EXPIRES, leaseExpires)
+            .set(PAYMENT_ORDER.VERSION, PAYMENT_ORDER.VERSION.plus(inline(1)))
+            .where(
+                PAYMENT_ORDER.ID.`in`(
+                    select(PAYMENT_ORDER.ID)
+                        .from(PAYMENT_ORDER)
+                        .where(claimable)
+                        .orderBy(PAYMENT_ORDER.ID)
+                        .limit(limit)
+                )
+            )
+            .and(claimable)
+            .execute()
+        if (claimed == 0) {
+            return listOf()
+        }
+        return selectRefs(PAYMENT_ORDER)
+            .where(PAYMENT_ORDER.STATE.eq(PaymentOrderState.PROCESSING))
+            .and(PAYMENT_ORDER.CLAIM_OWNER.eq(claimOwner))
+            .orderBy(PAYMENT_ORDER.ID)
+            .limit(limit)
+            .fetch { it.toPaymentOrderRef() }
+    }
+
+    override fun claimItem(
+        id: Int,
+        claimOwner: String,
+        leaseExpires: OffsetDateTime,
+        now: OffsetDateTime
+    ): PaymentOrderRef? {
+        val dsl = createDsl()
+        val claimed = dsl.update(PAYMENT_ORDER)
+            .set(PAYMENT_ORDER.STATE, PaymentOrderState.PROCESSING)
+            .set(PAYMENT_ORDER.CLAIM_OWNER, claimOwner)
+            .set(PAYMENT_ORDER.LEASE_EXPIRES, leaseExpires)
+            .set(PAYMENT_ORDER.VERSION, PAYMENT_ORDER.VERSION.plus(inline(1)))
+            .where(PAYMENT_ORDER.ID.eq(id))
+            .and(claimable(now))
+            .execute()
+        return if (claimed == 1) findPaymentOrderRef(id) else null
+    }
+
+    override fun releaseItem(id: Int, claimOwner: String): Boolean {
+        val dsl = createDsl()
+        return dsl.update(PAYMENT_ORDER)
+            .set(PAYMENT_ORDER.STATE, PaymentOrderState.RECEIVED)
+            .set(PAYMENT_ORDER.CLAIM_OWNER, null as String?)
+            .set(PAYMENT_ORDER.LEASE_EXPIRES, null as OffsetDateTime?)
+            .set(PAYMENT_ORDER.VERSION, PAYMENT_ORDER.VERSION.plus(inline(1)))
+            .where(PAYMENT_ORDER.ID.eq(id))
+            .and(PAYMENT_ORDER.STATE.eq(PaymentOrderState.PROCESSING))
+            .and(PAYMENT_ORDER.CLAIM_OWNER.eq(claimOwner))
+            .execute() == 1
+    }
+
+    // version is kept, so claim owner is still able to update state of payment order
+    override fun recordFailedAttempt(id: Int): Int {
+        val dsl = createDsl()
+        dsl.update(PAYMENT_ORDER)
+            .set(PAYMENT_ORDER.ATTEMPTS, PAYMENT_ORDER.ATTEMPTS.plus(inline(1)))
+            .where(PAYMENT_ORDER.ID.eq(id))
+            .execute()
+        return dsl.select(PAYMENT_ORDER.ATTEMPTS)
+            .from(PAYMENT_ORDER)
+            .where(PAYMENT_ORDER.ID.eq(id))
+            .fetchOne()
+            ?.value1() ?: 0
     }
 
+    private fun claimable(now: OffsetDateTime): Condition =
+        PAYMENT_ORDER.STATE.eq(PaymentOrderState.RECEIVED)
+            .or(
+                PAYMENT_ORDER.STATE.eq(PaymentOrderState.PROCESSING)
+                    .and(PAYMENT_ORDER.LEASE_EXPIRES.lt(now))
+            )
+
     override fun findItemsForAccount(account: Account): List<PaymentOrder> {
+        fun accountItems(table: PaymentOrderTable) =
+            selectFrom(table)
+                .where(
+                    table.ID.`in`(
+                        select(table.ID).from(table).where(table.FROM_ACC_ID.eq(account.id))
+                            .unionAll(select(table.ID).from(table).where(table.TO_ACC_ID.eq(account.id)))
+                    )
+                )
+
         val dsl = createDsl()
-        return dsl.selectFrom(PAYMENT_ORDER)
-            .where(PAYMENT_ORDER.FROM_ACC_ID.eq(account.id))
-            .or(PAYMENT_ORDER.TO_ACC_ID.eq(account.id))
-            .orderBy(PAYMENT_ORDER.DATE_CREATED)
-            .fetch()
-            .map { it.toPaymentOrder(accountDao) }
+        return dsl.fetch(
+            accountItems(PAYMENT_ORDER)
+                .unionAll(accountItems(PAYMENT_ORDER_ARCHIVE))
+                .orderBy(PAYMENT_ORDER.DATE_CREATED.unqualified())
+        ).toPaymentOrders()
     }
 
-    override fun updateState(paymentOrder: PaymentOrder) {
+    override fun findItemsForAccount(account: Account, page: PageRequest): List<PaymentOrder> {
+        // index hint and ordering the same way as TransactionDaoIml.findAccountTransactions
+        fun accountPage(table: PaymentOrderTable, accountField: Field<Int>, index: String) =
+            select(table.ID)
+                .from(table.useIndex(index))
+                .where(accountField.eq(account.id))
+                .and(page.toCondition(table.DATE_CREATED, table.ID))
+                .orderBy(accountField, table.DATE_CREATED, table.ID)
+                .limit(page.limit)
+
+        fun accountItems(table: PaymentOrderTable, fromDateIndex: String, toDateIndex: String) =
+            selectFrom(table)
+                .where(
+                    table.ID.`in`(
+                        accountPage(table, table.FROM_ACC_ID, fromDateIndex)
+                            .unionAll(accountPage(table, table.TO_ACC_ID, toDateIndex))
+                    )
+                )
+
+        // both hot and archive sides are limited, so at most two pages are merged
+        val dsl = createDsl()
+        return dsl.fetch(
+            accountItems(PAYMENT_ORDER, FROM_DATE_INDEX, TO_DATE_INDEX)
+                .unionAll(accountItems(PAYMENT_ORDER_ARCHIVE, ARCHIVE_FROM_DATE_INDEX, ARCHIVE_TO_DATE_INDEX))
+                .orderBy(PAYMENT_ORDER.DATE_CREATED.unqualified(), PAYMENT_ORDER.ID.unqualified())
+                .limit(page.limit)
+        ).toPaymentOrders()
+    }
+
+    override fun updateState(paymentOrder: PaymentOrderRef) {
         val dsl = createDsl()
         val record = dsl.selectFrom(PAYMENT_ORDER).where(PAYMENT_ORDER.ID.eq(paymentOrder.id)).fetchOne()
         record.set(PAYMENT_ORDER.VERSION, paymentOrder.version)
-        record.set(PAYMENT_ORDER.STATE, paymentOrder.state.name)
+        record.set(PAYMENT_ORDER.STATE, paymentOrder.state)
         record.store()
     }
 
-    // TODO solve N+1 problem
-    private fun PaymentOrderRecord.toPaymentOrder(accountDao: AccountDao): PaymentOrder {
+    override fun updateStates(paymentOrders: List<PaymentOrderRef>): List<Boolean> {
+        if (paymentOrders.isEmpty()) {
+            return listOf()
+        }
+        val dsl = createDsl()
+        val batch = dsl.batch(
+            dsl.update(PAYMENT_ORDER)
+                .set(PAYMENT_ORDER.STATE, param("state", PAYMENT_ORDER.STATE.dataType))
+                .set(PAYMENT_ORDER.VERSION, PAYMENT_ORDER.VERSION.plus(inline(1)))
+                .where(PAYMENT_ORDER.ID.eq(param("id", Int::class.javaObjectType)))
+                .and(PAYMENT_ORDER.VERSION.eq(param("version", Int::class.javaObjectType)))
+        )
+        for (paymentOrder in paymentOrders) {
+            batch.bind(paymentOrder.state, paymentOrder.id, paymentOrder.version)
+        }
+        return batch.execute().map { it == 1 }
+    }
+
+    // only type of from account is joined, it decides whether transactor checks funds
+    private fun selectRefs(table: PaymentOrderTable) = createDsl()
+        .select(table.FROM_ACC_ID, ACCOUNT.TYPE, table.TO_ACC_ID, table.AMOUNT, table.STATE, table.ID, table.VERSION)
+        .from(table)
+        .join(ACCOUNT).on(ACCOUNT.ID.eq(table.FROM_ACC_ID))
+
+    private fun List<PaymentOrderRecord>.toPaymentOrders(): List<PaymentOrder> {
+        if (isEmpty()) {
+            return listOf()
+        }
+        val accounts = accountDao.findAccountsById(flatMap { listOf(it.fromAccId, it.toAccId) })
+        return map { it.toPaymentOrder(accounts) }
+    }
+
+    private fun PaymentOrderRecord.toPaymentOrder(accounts: Map<Int, Account>): PaymentOrder {
         val id = getValue(PAYMENT_ORDER.ID)!!
         val fromAccountId: Int = getValue(PAYMENT_ORDER.FROM_ACC_ID)
         val toAccountId: Int = getValue(PAYMENT_ORDER.TO_ACC_ID)
-        val fromAccount = accountDao.findAccount(fromAccountId)
+        val fromAccount = accounts[fromAccountId]
             ?: throw IllegalStateException("Unable to find fromAccount.id=$fromAccountId for paymentOrder.id=$id")
-        val toAccount = accountDao.findAccount(toAccountId)
+        val toAccount = accounts[toAccountId]
             ?: throw IllegalStateException("Unable to find toAccount.id=$toAccountId for paymentOrder.id=$id")
 
-        return PaymentOrder(
-            fromAccount,
-            toAccount,
-            getValue(PAYMENT_ORDER.AMOUNT),
-            PaymentOrderState.valueOf(getValue(PAYMENT_ORDER.STATE)),
-            getValue(PAYMENT_ORDER.DATE_CREATED),
-            getValue(PAYMENT_ORDER.ID),
-            getValue(PAYMENT_ORDER.VERSION)
-        )
+        return toPaymentOrder(fromAccount, toAccount)
+    }
+
+    companion object {
+        private const val FROM_DATE_INDEX = "IDX_PAYMENT_ORDER_FROM_DATE"
+        private const val TO_DATE_INDEX = "IDX_PAYMENT_ORDER_TO_DATE"
+        private const val ARCHIVE_FROM_DATE_INDEX = "IDX_PAYMENT_ORDER_ARCHIVE_FROM_DATE"
+        private const val ARCHIVE_TO_DATE_INDEX = "IDX_PAYMENT_ORDER_ARCHIVE_TO_DATE"
     }
 }
+
+internal fun Record.toPaymentOrder(
+    fromAccount: Account,
+    toAccount: Account,
+    table: PaymentOrderTable = PAYMENT_ORDER
+) = PaymentOrder(
+    fromAccount,
+    toAccount,
+    getValue(table.AMOUNT),
+    getValue(table.STATE),
+    getValue(table.DATE_CREATED),
+    getValue(table.ID),
+    getValue(table.VERSION)
+)
+
+// union result has columns of its first (hot) select
+private fun Record.toPaymentOrderRef() = PaymentOrderRef(
+    getValue(PAYMENT_ORDER.FROM_ACC_ID),
+    getValue(ACCOUNT.TYPE),
+    getValue(PAYMENT_ORDER.TO_ACC_ID),
+    getValue(PAYMENT_ORDER.AMOUNT),
+    getValue(PAYMENT_ORDER.STATE),
+    getValue(PAYMENT_ORDER.ID),
+    getValue(PAYMENT_ORDER.VERSION)
+)
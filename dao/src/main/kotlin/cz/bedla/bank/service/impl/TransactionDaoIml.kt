@@ -1,96 +1,456 @@
 package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.PaymentOrderRef
 import cz.bedla.bank.domain.Transaction
+import cz.bedla.bank.domain.TransactionView
+import cz.bedla.bank.jooq.Tables.ACCOUNT
+import cz.bedla.bank.jooq.Tables.ACCOUNT_CHECKPOINT
+import cz.bedla.bank.jooq.Tables.CHECKPOINT_RUN
+import cz.bedla.bank.jooq.Tables.PAYMENT_ORDER
 import cz.bedla.bank.jooq.Tables.TRANSACTION
+import cz.bedla.bank.jooq.tables.Account as AccountTable
+import cz.bedla.bank.jooq.tables.PaymentOrder as PaymentOrderTable
+import cz.bedla.bank.jooq.tables.Transaction as TransactionTable
 import cz.bedla.bank.jooq.tables.records.TransactionRecord
-import cz.bedla.bank.service.AccountDao
-import cz.bedla.bank.service.PaymentOrderDao
+import cz.bedla.bank.service.PageRequest
 import cz.bedla.bank.service.TransactionDao
 import cz.bedla.bank.service.createDsl
-import org.jooq.impl.DSL.sum
-import java.math.BigDecimal
+import cz.bedla.bank.service.sumMoney
+import cz.bedla.bank.service.toCondition
+import cz.bedla.bank.service.unqualified
+import org.jooq.Condition
+import org.jooq.Cursor
+import org.jooq.Field
+import org.jooq.Record
+import org.jooq.Table
+import org.jooq.exception.DataAccessException
+import org.jooq.impl.DSL
+import org.jooq.impl.DSL.coalesce
+import org.jooq.impl.DSL.inline
+import org.jooq.impl.DSL.insertInto
+import org.jooq.impl.DSL.param
+import org.jooq.impl.DSL.select
+import org.jooq.impl.DSL.selectOne
+import org.jooq.impl.DSL.value
+import java.sql.BatchUpdateException
 import java.time.OffsetDateTime
 
-class TransactionDaoIml(
-    private val accountDao: AccountDao,
-    private val paymentOrderDao: PaymentOrderDao
-) : TransactionDao {
+class TransactionDaoIml : TransactionDao {
     override fun create(
         paymentOrderId: Int,
         fromAccountId: Int,
         toAccountId: Int,
-        amount: BigDecimal,
+        amount: Money,
         dateTransacted: OffsetDateTime
-    ): Transaction {
+    ): Boolean {
         val dsl = createDsl()
+        return try {
+            dsl.execute(
+                insertIfAbsent(
+                    value(paymentOrderId),
+                    value(fromAccountId),
+                    value(toAccountId),
+                    value(amount),
+                    value(dateTransacted),
+                    value(paymentOrderId)
+                )
+            ) == 1
+        } catch (e: DataAccessException) {
+            if (e.sqlState() == DUPLICATE_KEY) false else throw e
+        }
+    }
 
-        // for testing change of VERSION (otherwise transaction.PK fails on duplicate value)
-        val old = dsl.selectFrom(TRANSACTION).where(TRANSACTION.PO_ID.eq(paymentOrderId)).fetchOne()
-        return if (old == null) {
-            val transactionRecord = dsl.newRecord(TRANSACTION)
-            transactionRecord.poId = paymentOrderId
-            transactionRecord.fromAccId = fromAccountId
-            transactionRecord.toAccId = toAccountId
-            transactionRecord.amount = amount
-            transactionRecord.dateTransacted = dateTransacted
-
-            transactionRecord.store()
-
-            transactionRecord.toTransaction(accountDao, paymentOrderDao)
-        } else {
-            old.toTransaction(accountDao, paymentOrderDao);
+    override fun createAll(paymentOrders: List<PaymentOrderRef>, dateTransacted: OffsetDateTime): List<Boolean> {
+        if (paymentOrders.isEmpty()) {
+            return listOf()
+        }
+        val dsl = createDsl()
+        val batch = dsl.batch(
+            insertIfAbsent(
+                param("poId", Int::class.javaObjectType),
+                param("fromAccId", Int::class.javaObjectType),
+                param("toAccId", Int::class.javaObjectType),
+                param("amount", TRANSACTION.AMOUNT.dataType),
+                param("dateTransacted", OffsetDateTime::class.java),
+                param("existingPoId", Int::class.javaObjectType)
+            )
+        )
+        for (paymentOrder in paymentOrders) {
+            batch.bind(
+                paymentOrder.id,
+                paymentOrder.fromAccountId,
+                paymentOrder.toAccountId,
+                paymentOrder.amount,
+                dateTransacted,
+                paymentOrder.id
+            )
+        }
+        return try {
+            batch.execute().map { it == 1 }
+        } catch (e: DataAccessException) {
+            val batchException = e.getCause(BatchUpdateException::class.java)
+            if (batchException == null || !batchException.isDuplicateKeyOnly()) {
+                throw e
+            }
+            // statements of batch are executed also after failed one
+            batchException.updateCounts.map { it == 1 }
         }
     }
 
-    override fun calculateBalance(account: Account): BigDecimal {
+    private fun BatchUpdateException.isDuplicateKeyOnly() =
+        generateSequence(nextException ?: this) { it.nextException }.all { it.sqlState == DUPLICATE_KEY }
+
+    // single statement instead of SELECT + INSERT, row already present for po_id is reported by zero update count,
+    // row inserted by concurrent settler after NOT EXISTS check is reported the same way instead of duplicate key error
+    private fun insertIfAbsent(
+        poId: Field<Int>,
+        fromAccId: Field<Int>,
+        toAccId: Field<Int>,
+        amount: Field<Money>,
+        dateTransacted: Field<OffsetDateTime>,
+        existingPoId: Field<Int>
+    ) = insertInto(
+        TRANSACTION,
+        TRANSACTION.PO_ID,
+        TRANSACTION.FROM_ACC_ID,
+        TRANSACTION.TO_ACC_ID,
+        TRANSACTION.AMOUNT,
+        TRANSACTION.DATE_TRANSACTED
+    ).select(
+        select(poId, fromAccId, toAccId, amount, dateTransacted)
+            .whereNotExists(
+                selectOne()
+                    .from(TRANSACTION)
+                    .where(TRANSACTION.PO_ID.eq(existingPoId))
+            )
+    )
+
+    override fun calculateBalance(account: Account): Money = createDsl()
+        .select(balance(account))
+        .fetchOne()
+        .value1()
+
+    override fun recalculateBalance(account: Account): Money = createDsl()
+        .select(recalculatedBalance(account))
+        .fetchOne()
+        .value1()
+
+    // one statement, so settlement or checkpoint advance committed between the two sums cannot make them differ
+    override fun verifyBalance(account: Account): Pair<Money, Money> = createDsl()
+        .select(balance(account), recalculatedBalance(account))
+        .fetchOne()
+        .let { it.value1() to it.value2() }
+
+    private fun balance(account: Account): Field<Money> {
+        val checkpoint = select(ACCOUNT_CHECKPOINT.CREDIT.minus(ACCOUNT_CHECKPOINT.DEBIT))
+            .from(ACCOUNT_CHECKPOINT)
+            .where(ACCOUNT_CHECKPOINT.ACCOUNT_ID.eq(account.id))
+            .asField<Money>()
+        val credit = sumAmount(TRANSACTION, TRANSACTION.TO_ACC_ID.eq(account.id).and(TRANSACTION.CHECKPOINT_ID.eq(NOT_CHECKPOINTED)))
+        val debit = sumAmount(TRANSACTION, TRANSACTION.FROM_ACC_ID.eq(account.id).and(TRANSACTION.CHECKPOINT_ID.eq(NOT_CHECKPOINTED)))
+
+        return coalesce(checkpoint, Money.ZERO).plus(credit).minus(debit)
+    }
+
+    private fun recalculatedBalance(account: Account): Field<Money> {
+        // checkpointed transactions may have been moved to archive already
+        val credit = sumAmount(TRANSACTION, TRANSACTION.TO_ACC_ID.eq(account.id))
+            .plus(sumAmount(TRANSACTION_ARCHIVE, TRANSACTION_ARCHIVE.TO_ACC_ID.eq(account.id)))
+        val debit = sumAmount(TRANSACTION, TRANSACTION.FROM_ACC_ID.eq(account.id))
+            .plus(sumAmount(TRANSACTION_ARCHIVE, TRANSACTION_ARCHIVE.FROM_ACC_ID.eq(account.id)))
+
+        return credit.minus(debit)
+    }
+
+    override fun advanceCheckpoints(limit: Int): Int {
         val dsl = createDsl()
 
-        // TODO better single-run with JOOQ DSL
-        val debit = dsl.select(sum(TRANSACTION.AMOUNT))
+        // row lock on checkpoint_run serializes folding of concurrent checkpointers
+        dsl.update(CHECKPOINT_RUN)
+            .set(CHECKPOINT_RUN.LAST_CHECKPOINT_ID, CHECKPOINT_RUN.LAST_CHECKPOINT_ID.plus(inline(1)))
+            .where(CHECKPOINT_RUN.ID.eq(CHECKPOINT_RUN_ID))
+            .execute()
+        val checkpointId = dsl.select(CHECKPOINT_RUN.LAST_CHECKPOINT_ID)
+            .from(CHECKPOINT_RUN)
+            .where(CHECKPOINT_RUN.ID.eq(CHECKPOINT_RUN_ID))
+            .fetchOne(CHECKPOINT_RUN.LAST_CHECKPOINT_ID)
+
+        val folded = dsl.update(TRANSACTION)
+            .set(TRANSACTION.CHECKPOINT_ID, checkpointId)
+            .where(
+                TRANSACTION.PO_ID.`in`(
+                    select(TRANSACTION.PO_ID)
+                        .from(TRANSACTION)
+                        .where(TRANSACTION.CHECKPOINT_ID.eq(NOT_CHECKPOINTED))
+                        .orderBy(TRANSACTION.PO_ID)
+                        .limit(limit)
+                )
+            )
+            .and(TRANSACTION.CHECKPOINT_ID.eq(NOT_CHECKPOINTED))
+            .execute()
+        if (folded == 0) {
+            return 0
+        }
+
+        val amount = sumMoney(TRANSACTION.AMOUNT)
+        val credits = dsl.select(TRANSACTION.TO_ACC_ID, amount)
             .from(TRANSACTION)
-            .where(TRANSACTION.FROM_ACC_ID.eq(account.id))
-            .fetchOneInto(BigDecimal::class.java).orZero()
-        val credit = dsl.select(sum(TRANSACTION.AMOUNT))
+            .where(TRANSACTION.CHECKPOINT_ID.eq(checkpointId))
+            .groupBy(TRANSACTION.TO_ACC_ID)
+            .fetchMap(TRANSACTION.TO_ACC_ID, amount)
+        val debits = dsl.select(TRANSACTION.FROM_ACC_ID, amount)
             .from(TRANSACTION)
-            .where(TRANSACTION.TO_ACC_ID.eq(account.id))
-            .fetchOneInto(BigDecimal::class.java).orZero()
+            .where(TRANSACTION.CHECKPOINT_ID.eq(checkpointId))
+            .groupBy(TRANSACTION.FROM_ACC_ID)
+            .fetchMap(TRANSACTION.FROM_ACC_ID, amount)
 
-        return credit - debit
+        val accountIds = (credits.keys + debits.keys).sorted()
+        val batch = dsl.batch(
+            dsl.update(ACCOUNT_CHECKPOINT)
+                .set(ACCOUNT_CHECKPOINT.CREDIT, ACCOUNT_CHECKPOINT.CREDIT.plus(param("credit", ACCOUNT_CHECKPOINT.CREDIT.dataType)))
+                .set(ACCOUNT_CHECKPOINT.DEBIT, ACCOUNT_CHECKPOINT.DEBIT.plus(param("debit", ACCOUNT_CHECKPOINT.DEBIT.dataType)))
+                .set(ACCOUNT_CHECKPOINT.CHECKPOINT_ID, param("checkpointId", Int::class.javaObjectType))
+                .where(ACCOUNT_CHECKPOINT.ACCOUNT_ID.eq(param("accountId", Int::class.javaObjectType)))
+        )
+        for (accountId in accountIds) {
+            batch.bind(credits[accountId].orZero(), debits[accountId].orZero(), checkpointId, accountId)
+        }
+        val missing = accountIds.zip(batch.execute().toList())
+            .filter { it.second == 0 }
+            .map { it.first }
+        if (missing.isNotEmpty()) {
+            dsl.batchInsert(missing.map { accountId ->
+                dsl.newRecord(ACCOUNT_CHECKPOINT).also {
+                    it.accountId = accountId
+                    it.credit = credits[accountId].orZero()
+                    it.debit = debits[accountId].orZero()
+                    it.checkpointId = checkpointId
+                }
+            }).execute()
+        }
+        return folded
     }
 
-    override fun findAccountTransactions(account: Account): List<Transaction> {
+    private fun sumAmount(transaction: TransactionTable, condition: Condition): Field<Money> =
+        select(coalesce(sumMoney(transaction.AMOUNT), Money.ZERO))
+            .from(transaction)
+            .where(condition)
+            .asField()
+
+    override fun findTransaction(paymentOrderId: Int): Transaction? {
+        // full object graph is hydrated on demand only, listing goes through lean TransactionView
+        return selectTransactions(HOT, TRANSACTION.PO_ID.eq(paymentOrderId))
+            .unionAll(selectTransactions(ARCHIVE, TRANSACTION_ARCHIVE.PO_ID.eq(paymentOrderId)))
+            .fetch()
+            .map { it.toTransaction(HOT) }
+            .firstOrNull()
+    }
+
+    override fun findAccountTransactions(account: Account): List<TransactionView> =
+        findViews { accountTransactions(it.transaction, account) }
+
+    override fun exportAccountTransactions(account: Account, action: (TransactionView) -> Unit): Int {
+        // each side is read in order of its (account, date, id) index and all of them are merged here,
+        // so neither side has to be sorted or materialized by DB
+        fun accountSide(tables: TransactionTables, accountField: Field<Int>, index: String, condition: Condition) =
+            AccountSide(
+                tables,
+                selectViews(tables, accountField.eq(account.id).and(condition), tables.transaction.useIndex(index))
+                    .orderBy(accountField, tables.transaction.DATE_TRANSACTED, tables.transaction.PO_ID)
+                    .fetchSize(EXPORT_FETCH_SIZE)
+                    .fetchLazy()
+            )
+
+        fun accountSides(tables: TransactionTables) = listOf(
+            accountSide(tables, tables.transaction.FROM_ACC_ID, tables.fromDateIndex, DSL.trueCondition()),
+            accountSide(
+                tables,
+                tables.transaction.TO_ACC_ID,
+                tables.toDateIndex,
+                tables.transaction.FROM_ACC_ID.ne(account.id)
+            )
+        )
+
+        // without lazy execution H2 materializes whole result (spilling it to temp file) before first row is returned
         val dsl = createDsl()
+        dsl.execute("SET LAZY_QUERY_EXECUTION 1")
+        try {
+            return mergeAccountSides(accountSides(HOT) + accountSides(ARCHIVE), action)
+        } finally {
+            dsl.execute("SET LAZY_QUERY_EXECUTION 0")
+        }
+    }
+
+    private fun mergeAccountSides(sides: List<AccountSide>, action: (TransactionView) -> Unit): Int {
+        var count = 0
+        try {
+            sides.forEach { it.fetchNext() }
+            while (true) {
+                val side = sides.filter { it.head != null }.minWith(TRANSACTION_ORDER) ?: break
+                action(side.head!!)
+                count++
+                side.fetchNext()
+            }
+        } finally {
+            sides.forEach { it.cursor.close() }
+        }
+        return count
+    }
 
-        return dsl.selectFrom(TRANSACTION)
-            .where(TRANSACTION.FROM_ACC_ID.eq(account.id))
-            .or(TRANSACTION.TO_ACC_ID.eq(account.id))
-            .orderBy(TRANSACTION.DATE_TRANSACTED)
+    private inner class AccountSide(val tables: TransactionTables, val cursor: Cursor<out Record>) {
+        var head: TransactionView? = null
+
+        fun fetchNext() {
+            // no name map shared between rows, so heap does not grow with number of exported rows
+            head = cursor.fetchNext()?.toTransactionView(tables)
+        }
+    }
+
+    private fun accountTransactions(transaction: TransactionTable, account: Account): Condition =
+        transaction.PO_ID.`in`(
+            select(transaction.PO_ID).from(transaction).where(transaction.FROM_ACC_ID.eq(account.id))
+                .unionAll(select(transaction.PO_ID).from(transaction).where(transaction.TO_ACC_ID.eq(account.id)))
+        )
+
+    override fun findAccountTransactions(account: Account, page: PageRequest): List<TransactionView> {
+        // H2 prefers FK index on account column and does not stop at page limit without hint and full index order
+        fun accountPage(transaction: TransactionTable, accountField: Field<Int>, index: String) =
+            select(transaction.PO_ID)
+                .from(transaction.useIndex(index))
+                .where(accountField.eq(account.id))
+                .and(page.toCondition(transaction.DATE_TRANSACTED, transaction.PO_ID))
+                .orderBy(accountField, transaction.DATE_TRANSACTED, transaction.PO_ID)
+                .limit(page.limit)
+
+        return findViews(page.limit) {
+            it.transaction.PO_ID.`in`(
+                accountPage(it.transaction, it.transaction.FROM_ACC_ID, it.fromDateIndex)
+                    .unionAll(accountPage(it.transaction, it.transaction.TO_ACC_ID, it.toDateIndex))
+            )
+        }
+    }
+
+    private fun findViews(limit: Int? = null, condition: (TransactionTables) -> Condition): List<TransactionView> {
+        val names = HashMap<Int, String>()
+        // union result has columns of its first (hot) select
+        val query = selectViews(HOT, condition(HOT))
+            .unionAll(selectViews(ARCHIVE, condition(ARCHIVE)))
+            .orderBy(TRANSACTION.DATE_TRANSACTED.unqualified(), TRANSACTION.PO_ID.unqualified())
+        return (if (limit != null) query.limit(limit) else query)
             .fetch()
-            .map { it.toTransaction(accountDao, paymentOrderDao) }
+            .map { it.toTransactionView(HOT, names) }
+    }
+
+    private fun selectViews(
+        tables: TransactionTables,
+        condition: Condition,
+        transaction: Table<TransactionRecord> = tables.transaction
+    ) = createDsl()
+        .select(
+            tables.transaction.PO_ID,
+            tables.paymentOrder.DATE_CREATED,
+            tables.transaction.FROM_ACC_ID,
+            FROM_ACCOUNT.TYPE,
+            FROM_ACCOUNT.NAME,
+            tables.transaction.TO_ACC_ID,
+            TO_ACCOUNT.TYPE,
+            TO_ACCOUNT.NAME,
+            tables.transaction.AMOUNT,
+            tables.transaction.DATE_TRANSACTED
+        )
+        .from(transaction)
+        .join(tables.paymentOrder).on(tables.paymentOrder.ID.eq(tables.transaction.PO_ID))
+        .join(FROM_ACCOUNT).on(FROM_ACCOUNT.ID.eq(tables.transaction.FROM_ACC_ID))
+        .join(TO_ACCOUNT).on(TO_ACCOUNT.ID.eq(tables.transaction.TO_ACC_ID))
+        .where(condition)
+
+    // rows of one list share name instances of the same account
+    private fun Record.toTransactionView(
+        tables: TransactionTables,
+        names: MutableMap<Int, String>? = null
+    ): TransactionView {
+        fun name(accountId: Int, table: AccountTable): String =
+            names?.getOrPut(accountId) { getValue(table.NAME) } ?: getValue(table.NAME)
+
+        val fromAccountId = getValue(tables.transaction.FROM_ACC_ID)
+        val toAccountId = getValue(tables.transaction.TO_ACC_ID)
+        return TransactionView(
+            getValue(tables.transaction.PO_ID),
+            getValue(tables.paymentOrder.DATE_CREATED),
+            fromAccountId,
+            getValue(FROM_ACCOUNT.TYPE),
+            name(fromAccountId, FROM_ACCOUNT),
+            toAccountId,
+            getValue(TO_ACCOUNT.TYPE),
+            name(toAccountId, TO_ACCOUNT),
+            getValue(tables.transaction.AMOUNT),
+            getValue(tables.transaction.DATE_TRANSACTED)
+        )
     }
 
-    // TODO solve N+1 problem
-    private fun TransactionRecord.toTransaction(accountDao: AccountDao, paymentOrderDao: PaymentOrderDao): Transaction {
-        val fromAccountId: Int = getValue(TRANSACTION.FROM_ACC_ID)
-        val toAccountId: Int = getValue(TRANSACTION.TO_ACC_ID)
-        val wrId: Int = getValue(TRANSACTION.PO_ID)
+    private fun selectTransactions(
+        tables: TransactionTables,
+        condition: Condition,
+        transaction: Table<TransactionRecord> = tables.transaction
+    ) = createDsl().select()
+        .from(transaction)
+        .join(tables.paymentOrder).on(tables.paymentOrder.ID.eq(tables.transaction.PO_ID))
+        .join(FROM_ACCOUNT).on(FROM_ACCOUNT.ID.eq(tables.transaction.FROM_ACC_ID))
+        .join(TO_ACCOUNT).on(TO_ACCOUNT.ID.eq(tables.transaction.TO_ACC_ID))
+        .join(ORDER_FROM_ACCOUNT).on(ORDER_FROM_ACCOUNT.ID.eq(tables.paymentOrder.FROM_ACC_ID))
+        .join(ORDER_TO_ACCOUNT).on(ORDER_TO_ACCOUNT.ID.eq(tables.paymentOrder.TO_ACC_ID))
+        .where(condition)
 
-        val fromAccount = accountDao.findAccount(fromAccountId)
-            ?: throw IllegalStateException("Unable to find fromAccount.id=$fromAccountId for transaction.wrId=$wrId")
-        val toAccount = accountDao.findAccount(toAccountId)
-            ?: throw IllegalStateException("Unable to find toAccount.id=$toAccountId for transaction.wrId=$wrId")
-        val paymentOrder = paymentOrderDao.findPaymentOrder(wrId)
-            ?: throw IllegalStateException("Unable to find paymentOrder.id=$wrId for transaction.wrId=$wrId")
+    private fun Record.toTransaction(tables: TransactionTables): Transaction {
+        val accounts = HashMap<Int, Account>()
+        fun Record.account(table: AccountTable): Account =
+            accounts.getOrPut(getValue(table.ID)) { toAccount(table) }
 
         return Transaction(
-            paymentOrder,
-            fromAccount,
-            toAccount,
-            getValue(TRANSACTION.AMOUNT),
-            getValue(TRANSACTION.DATE_TRANSACTED)
+            toPaymentOrder(account(ORDER_FROM_ACCOUNT), account(ORDER_TO_ACCOUNT), tables.paymentOrder),
+            account(FROM_ACCOUNT),
+            account(TO_ACCOUNT),
+            getValue(tables.transaction.AMOUNT),
+            getValue(tables.transaction.DATE_TRANSACTED)
         )
     }
 
-    private fun BigDecimal?.orZero(): BigDecimal = this ?: BigDecimal.ZERO
+    // archived transaction is always archived together with its payment order
+    private class TransactionTables(
+        val transaction: TransactionTable,
+        val paymentOrder: PaymentOrderTable,
+        val fromDateIndex: String,
+        val toDateIndex: String
+    )
+
+    private fun Money?.orZero(): Money = this ?: Money.ZERO
+
+    companion object {
+        private const val NOT_CHECKPOINTED = 0
+        private const val CHECKPOINT_RUN_ID = 1
+        private const val EXPORT_FETCH_SIZE = 1000
+        // SQL standard state of unique constraint violation
+        private const val DUPLICATE_KEY = "23505"
+
+        private val HOT = TransactionTables(
+            TRANSACTION,
+            PAYMENT_ORDER,
+            "IDX_TRANSACTION_FROM_DATE",
+            "IDX_TRANSACTION_TO_DATE"
+        )
+        private val ARCHIVE = TransactionTables(
+            TRANSACTION_ARCHIVE,
+            PAYMENT_ORDER_ARCHIVE,
+            "IDX_TRANSACTION_ARCHIVE_FROM_DATE",
+            "IDX_TRANSACTION_ARCHIVE_TO_DATE"
+        )
+        private val TRANSACTION_ORDER = compareBy<AccountSide>({ it.head!!.dateTransacted }, { it.head!!.paymentOrderId })
+
+        private val FROM_ACCOUNT = ACCOUNT.`as`("from_account")
+        private val TO_ACCOUNT = ACCOUNT.`as`("to_account")
+        private val ORDER_FROM_ACCOUNT = ACCOUNT.`as`("order_from_account")
+        private val ORDER_TO_ACCOUNT = ACCOUNT.`as`("order_to_account")
+    }
 }
@@ -4,6 +4,7 @@ import cz.bedla.bank.DatabaseImpl
 import cz.bedla.bank.DbInitializer
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.tx.TransactionalImpl
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.AfterEach
@@ -30,11 +31,29 @@ class AccountDaoImplTest {
         fixture = AccountDaoImpl()
     }
 
+    @Test
+    fun createAll() {
+        TransactionalImpl(database.dataSource).run {
+            val existing = fixture.create(
+                Account(AccountType.TOP_UP, "bank", dbNow(), 0.toMoney())
+            )
+            val accounts = fixture.createAll((1..5).map {
+                Account(AccountType.PERSONAL, "Mr. $it", dbNow(), it.toMoney())
+            })
+            assertThat(accounts.map { it.name }).containsExactly("Mr. 1", "Mr. 2", "Mr. 3", "Mr. 4", "Mr. 5")
+            assertThat(accounts.map { it.id }).doesNotHaveDuplicates().isSorted().allMatch { it > existing.id }
+
+            val found = fixture.findAccountsById(accounts.map { it.id })
+            assertThat(accounts).allSatisfy { assertThat(found[it.id]).isEqualTo(it) }
+            assertThat(fixture.createAll(listOf())).isEmpty()
+        }
+    }
+
     @Test
     fun storeAndFetch() {
         TransactionalImpl(database.dataSource).run {
             val account = fixture.create(
-                Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), 123.4.toBigDecimal())
+                Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), "123.4".toBigDecimal().toMoney())
             )
             assertThat(account.id).isGreaterThan(0)
             assertThat(account.version).isEqualTo(1)
@@ -43,23 +62,97 @@ class AccountDaoImplTest {
             assertThat(found.id).isEqualTo(account.id)
             assertThat(found.type).isEqualTo(AccountType.PERSONAL)
             assertThat(found.name).isEqualTo("foo")
-            assertThat(found.balance).isEqualTo(123.4.toBigDecimal())
+            assertThat(found.balance).isEqualTo("123.4".toBigDecimal().toMoney())
             assertThat(found.version).isEqualTo(1)
         }
     }
 
+    @Test
+    fun findAccountsById() {
+        TransactionalImpl(database.dataSource).run {
+            val account1 = fixture.create(
+                Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), 1.toMoney())
+            )
+            val account2 = fixture.create(
+                Account(AccountType.PERSONAL, "bar", OffsetDateTime.now(), 2.toMoney())
+            )
+
+            val found = fixture.findAccountsById(listOf(account1.id, account2.id, account1.id, 99999))
+            assertThat(found).hasSize(2)
+            assertThat(found[account1.id]?.name).isEqualTo("foo")
+            assertThat(found[account2.id]?.name).isEqualTo("bar")
+
+            assertThat(fixture.findAccountsById(listOf())).isEmpty()
+        }
+    }
+
     @Test
     fun updateBalance() {
         TransactionalImpl(database.dataSource).run {
             val account = fixture.create(
-                Account(AccountType.PERSONAL, "lock", OffsetDateTime.now(), 123.4.toBigDecimal())
+                Account(AccountType.PERSONAL, "lock", OffsetDateTime.now(), "123.4".toBigDecimal().toMoney())
             )
 
-            fixture.updateBalance(account.copy(balance = 999.toBigDecimal()))
+            fixture.updateBalance(account.copy(balance = 999.toMoney()))
 
             val updated = fixture.findAccount(account.id) ?: fail("account not found")
             assertThat(updated.version).isEqualTo(2)
-            assertThat(updated.balance).isEqualTo(999.toBigDecimal())
+            assertThat(updated.balance).isEqualTo(999.toMoney())
+        }
+    }
+
+    @Test
+    fun updateBalances() {
+        TransactionalImpl(database.dataSource).run {
+            val account1 = fixture.create(
+                Account(AccountType.PERSONAL, "batch1", OffsetDateTime.now(), 1.toMoney())
+            )
+            val account2 = fixture.create(
+                Account(AccountType.PERSONAL, "batch2", OffsetDateTime.now(), 2.toMoney())
+            )
+
+            val result = fixture.updateBalances(
+                listOf(
+                    account1.copy(balance = 10.toMoney()),
+                    account2.copy(balance = 20.toMoney(), version = 999)
+                )
+            )
+            assertThat(result).containsExactly(true, false)
+
+            val updated1 = fixture.findAccount(account1.id) ?: fail("account not found")
+            assertThat(updated1.version).isEqualTo(2)
+            assertThat(updated1.balance).isEqualTo(10.toMoney())
+            val updated2 = fixture.findAccount(account2.id) ?: fail("account not found")
+            assertThat(updated2.version).isEqualTo(1)
+            assertThat(updated2.balance).isEqualTo(2.toMoney())
+        }
+    }
+
+    @Test
+    fun debitAndCredit() {
+        TransactionalImpl(database.dataSource).run {
+            val personal = fixture.create(
+                Account(AccountType.PERSONAL, "personal", OffsetDateTime.now(), 100.toMoney())
+            )
+            val topUp = fixture.create(
+                Account(AccountType.TOP_UP, "top-up", OffsetDateTime.now(), 0.toMoney())
+            )
+
+            assertThat(fixture.debit(personal.id, 60.toMoney(), true)).isTrue()
+            assertThat(fixture.debit(personal.id, 60.toMoney(), true)).isFalse()
+            assertThat(fixture.debit(personal.id, 40.toMoney(), true)).isTrue()
+            assertThat(fixture.debit(topUp.id, 50.toMoney(), false)).isTrue()
+            assertThat(fixture.credit(personal.id, 5.toMoney())).isTrue()
+            assertThat(fixture.credit(99999, 5.toMoney())).isFalse()
+
+            (fixture.findAccount(personal.id) ?: fail("account not found")).also {
+                assertThat(it.balance).isEqualTo(5.toMoney())
+                assertThat(it.version).isEqualTo(4)
+            }
+            (fixture.findAccount(topUp.id) ?: fail("account not found")).also {
+                assertThat(it.balance).isEqualTo((-50).toMoney())
+                assertThat(it.version).isEqualTo(2)
+            }
         }
     }
 
@@ -67,10 +160,10 @@ class AccountDaoImplTest {
     fun findAll() {
         TransactionalImpl(database.dataSource).run {
             fixture.create(
-                Account(AccountType.PERSONAL, "Afoo", OffsetDateTime.now(), 123.toBigDecimal())
+                Account(AccountType.PERSONAL, "Afoo", OffsetDateTime.now(), 123.toMoney())
             )
             fixture.create(
-                Account(AccountType.TOP_UP, "Bbar", OffsetDateTime.now(), 456.toBigDecimal())
+                Account(AccountType.TOP_UP, "Bbar", OffsetDateTime.now(), 456.toMoney())
             )
 
             val list = fixture.findAccounts()
@@ -78,11 +171,11 @@ class AccountDaoImplTest {
             assertThat(list[0].id).isNotEqualTo(0)
             assertThat(list[0].type).isEqualTo(AccountType.PERSONAL)
             assertThat(list[0].name).isEqualTo("Afoo")
-            assertThat(list[0].balance).isEqualTo(123.toBigDecimal())
+            assertThat(list[0].balance).isEqualTo(123.toMoney())
             assertThat(list[1].id).isNotEqualTo(0)
             assertThat(list[1].type).isEqualTo(AccountType.TOP_UP)
             assertThat(list[1].name).isEqualTo("Bbar")
-            assertThat(list[1].balance).isEqualTo(456.toBigDecimal())
+            assertThat(list[1].balance).isEqualTo(456.toMoney())
         }
     }
 
@@ -90,13 +183,13 @@ class AccountDaoImplTest {
     fun findByType() {
         TransactionalImpl(database.dataSource).run {
             fixture.create(
-                Account(AccountType.PERSONAL, "Afoo", OffsetDateTime.now(), 123.toBigDecimal())
+                Account(AccountType.PERSONAL, "Afoo", OffsetDateTime.now(), 123.toMoney())
             )
             fixture.create(
-                Account(AccountType.TOP_UP, "Bbar", OffsetDateTime.now(), 456.toBigDecimal())
+                Account(AccountType.TOP_UP, "Bbar", OffsetDateTime.now(), 456.toMoney())
             )
             fixture.create(
-                Account(AccountType.TOP_UP, "Cbar", OffsetDateTime.now(), 789.toBigDecimal())
+                Account(AccountType.TOP_UP, "Cbar", OffsetDateTime.now(), 789.toMoney())
             )
 
             val personal = fixture.findAccountsOfType(AccountType.PERSONAL)
@@ -0,0 +1,155 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.DatabaseImpl
+import cz.bedla.bank.DbInitializer
+import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.PaymentOrder
+import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.TransactionView
+import cz.bedla.bank.domain.toMoney
+import cz.bedla.bank.service.AccountDao
+import cz.bedla.bank.service.PageRequest
+import cz.bedla.bank.service.PaymentOrderDao
+import cz.bedla.bank.service.TransactionDao
+import cz.bedla.bank.tx.TransactionalImpl
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import org.junitpioneer.jupiter.TempDirectory
+import java.nio.file.Path
+import java.time.OffsetDateTime
+
+@ExtendWith(TempDirectory::class)
+class ArchiveDaoImplTest {
+    private lateinit var fixture: ArchiveDaoImpl
+    private lateinit var accountDao: AccountDao
+    private lateinit var paymentOrderDao: PaymentOrderDao
+    private lateinit var transactionDao: TransactionDao
+
+    private lateinit var database: DatabaseImpl
+    private lateinit var transactional: TransactionalImpl
+
+    private lateinit var mainAccount: Account
+    private lateinit var topUp: Account
+
+    private val cutoff = dbNow().minusDays(30)
+
+    @BeforeEach
+    fun setUp(@TempDirectory.TempDir tempDir: Path) {
+        database = DatabaseImpl(tempDir.toFile())
+        database.start()
+        DbInitializer("database.sql", database.dataSource).run()
+        transactional = TransactionalImpl(database.dataSource)
+
+        accountDao = AccountDaoImpl()
+        paymentOrderDao = PaymentOrderDaoImpl(accountDao)
+        transactionDao = TransactionDaoIml()
+        fixture = ArchiveDaoImpl()
+
+        transactional.run {
+            mainAccount = accountDao.create(
+                Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+            )
+            topUp = accountDao.create(
+                Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+            )
+        }
+    }
+
+    @Test
+    fun archiveSettled() = transactional.run {
+        val old = cutoff.minusDays(1)
+        val settled1 = transfer(PaymentOrderState.OK, old, 10)
+        val settled2 = transfer(PaymentOrderState.OK, old.plusMinutes(1), 20)
+        val noFunds = createPaymentOrder(PaymentOrderState.NO_FUNDS, old)
+        val received = createPaymentOrder(PaymentOrderState.RECEIVED, old)
+        val recent = transfer(PaymentOrderState.OK, dbNow(), 30)
+        transactionDao.advanceCheckpoints(10)
+        val notCheckpointed = transfer(PaymentOrderState.OK, old, 40)
+
+        assertThat(fixture.archiveSettled(cutoff, 2)).isEqualTo(2)
+        assertThat(fixture.archiveSettled(cutoff, 2)).isEqualTo(1)
+        assertThat(fixture.archiveSettled(cutoff, 2)).isEqualTo(0)
+
+        val stats = fixture.stats(cutoff)
+        assertThat(stats.hotPaymentOrders).isEqualTo(3)
+        assertThat(stats.hotTransactions).isEqualTo(2)
+        assertThat(stats.oldestUnarchived).isEqualTo(notCheckpointed.dateCreated)
+
+        for (paymentOrder in listOf(settled1, settled2, noFunds, received, recent, notCheckpointed)) {
+            assertThat(paymentOrderDao.findPaymentOrder(paymentOrder.id)).isEqualTo(paymentOrder)
+        }
+        assertThat(paymentOrderDao.findItemsWithState(PaymentOrderState.OK, 0, 10).map { it.id })
+            .containsExactly(recent.id, notCheckpointed.id)
+    }
+
+    @Test
+    fun notCheckpointedTransactionDelaysArchival() = transactional.run {
+        val paymentOrder = transfer(PaymentOrderState.OK, cutoff.minusDays(2), 10)
+
+        assertThat(fixture.archiveSettled(cutoff, 10)).isEqualTo(0)
+        assertThat(fixture.stats(cutoff).oldestUnarchived).isEqualTo(paymentOrder.dateCreated)
+
+        transactionDao.advanceCheckpoints(10)
+        assertThat(fixture.archiveSettled(cutoff, 10)).isEqualTo(1)
+        assertThat(fixture.stats(cutoff).oldestUnarchived).isNull()
+    }
+
+    @Test
+    fun readsUnionArchive() = transactional.run {
+        val paymentOrders = (1..4).map {
+            val (from, to) = if (it % 2 == 0) mainAccount to topUp else topUp to mainAccount
+            transfer(PaymentOrderState.OK, cutoff.minusDays(5 - it.toLong()), it * 10, from, to)
+        }
+        transactionDao.advanceCheckpoints(10)
+        assertThat(fixture.archiveSettled(cutoff.minusDays(2), 10)).isEqualTo(2)
+        val hot = transfer(PaymentOrderState.OK, dbNow(), 100)
+        val expectedIds = (paymentOrders + hot).map { it.id }
+
+        assertThat(transactionDao.findAccountTransactions(mainAccount).map { it.paymentOrderId })
+            .containsExactlyElementsOf(expectedIds)
+        assertThat(transactionDao.findAccountTransactions(mainAccount, PageRequest(2)).map { it.paymentOrderId })
+            .containsExactlyElementsOf(expectedIds.take(2))
+        val exported = mutableListOf<TransactionView>()
+        assertThat(transactionDao.exportAccountTransactions(mainAccount) { exported.add(it) }).isEqualTo(5)
+        assertThat(exported.map { it.paymentOrderId }).containsExactlyElementsOf(expectedIds)
+        assertThat(transactionDao.findTransaction(exported.first().paymentOrderId)!!.paymentOrder)
+            .isEqualTo(paymentOrders.first())
+
+        assertThat(paymentOrderDao.findItemsForAccount(mainAccount).map { it.id })
+            .containsExactlyElementsOf(expectedIds)
+        assertThat(paymentOrderDao.findItemsForAccount(mainAccount, PageRequest(3)).map { it.id })
+            .containsExactlyElementsOf(expectedIds.take(3))
+
+        assertThat(transactionDao.calculateBalance(mainAccount)).isEqualTo(80.toMoney())
+        assertThat(transactionDao.recalculateBalance(mainAccount)).isEqualTo(80.toMoney())
+    }
+
+    private fun transfer(
+        state: PaymentOrderState,
+        dateCreated: OffsetDateTime,
+        amount: Int,
+        from: Account = topUp,
+        to: Account = mainAccount
+    ): PaymentOrder {
+        val paymentOrder = createPaymentOrder(state, dateCreated, amount, from, to)
+        transactionDao.create(paymentOrder.id, from.id, to.id, amount.toMoney(), dateCreated)
+        return paymentOrder
+    }
+
+    private fun createPaymentOrder(
+        state: PaymentOrderState,
+        dateCreated: OffsetDateTime,
+        amount: Int = 0,
+        from: Account = topUp,
+        to: Account = mainAccount
+    ): PaymentOrder = paymentOrderDao.create(PaymentOrder(from, to, amount.toMoney(), state, dateCreated))
+
+    @AfterEach
+    fun tearDown() {
+        database.close()
+    }
+}
@@ -0,0 +1,157 @@
+package cz.bedla.bank.service.impl
+
+import cz.bedla.bank.DatabaseImpl
+import cz.bedla.bank.DbInitializer
+import cz.bedla.bank.domain.Account
+import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.toMoney
+import cz.bedla.bank.tx.TransactionalImpl
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.ExtendWith
+import org.junitpioneer.jupiter.TempDirectory
+import java.nio.file.Path
+import kotlin.concurrent.thread
+
+@ExtendWith(TempDirectory::class)
+class CachingAccountDaoTest {
+    private lateinit var fixture: CachingAccountDao
+
+    private lateinit var database: DatabaseImpl
+    private lateinit var dataSource: StatementCountingDataSource
+    private lateinit var transactional: TransactionalImpl
+
+    @BeforeEach
+    fun setUp(@TempDirectory.TempDir tempDir: Path) {
+        database = DatabaseImpl(tempDir.toFile())
+        database.start()
+        DbInitializer("database.sql", database.dataSource).run()
+
+        dataSource = StatementCountingDataSource(database.dataSource)
+        transactional = TransactionalImpl(dataSource)
+        fixture = CachingAccountDao(AccountDaoImpl(), transactional, 2)
+    }
+
+    @Test
+    fun readThrough() {
+        val account = createAccount("foo")
+        fixture.clear()
+
+        val (first, firstStatements) = dataSource.countStatements { find(account.id) }
+        val (second, secondStatements) = dataSource.countStatements { find(account.id) }
+        assertThat(first).isEqualTo(account)
+        assertThat(second).isEqualTo(account)
+        assertThat(firstStatements).isEqualTo(1)
+        assertThat(secondStatements).isEqualTo(0)
+
+        val metrics = fixture.metrics()
+        assertThat(metrics.hits).isEqualTo(1)
+        assertThat(metrics.misses).isEqualTo(1)
+        assertThat(metrics.hitRate).isEqualTo(0.5)
+        assertThat(metrics.size).isEqualTo(1)
+    }
+
+    @Test
+    fun createdAccountIsCachedAfterCommit() {
+        val account = createAccount("foo")
+
+        val (found, statements) = dataSource.countStatements { find(account.id) }
+        assertThat(found).isEqualTo(account)
+        assertThat(statements).isEqualTo(0)
+    }
+
+    @Test
+    fun bulkCreatedAccountsAreNotCached() {
+        val accounts = transactional.execute {
+            fixture.createAll(listOf(Account(AccountType.PERSONAL, "foo", dbNow(), 0.toMoney())))
+        }
+
+        assertThat(fixture.metrics().size).isEqualTo(0)
+        assertThat(find(accounts.single().id)).isEqualTo(accounts.single())
+    }
+
+    @Test
+    fun balanceChangeInvalidatesEntry() {
+        val account = createAccount("foo", 100)
+        find(account.id)
+
+        transactional.run { fixture.debit(account.id, 30.toMoney(), true) }
+
+        val found = find(account.id)!!
+        assertThat(found.balance).isEqualTo(70.toMoney())
+        assertThat(found.version).isEqualTo(2)
+        assertThat(fixture.metrics().invalidations).isEqualTo(2)
+    }
+
+    @Test
+    fun rolledBackChangeIsNotCached() {
+        val account = createAccount("foo", 100)
+        fixture.clear()
+
+        assertThatThrownBy {
+            transactional.run {
+                fixture.credit(account.id, 50.toMoney())
+                assertThat(fixture.findAccount(account.id)!!.balance).isEqualTo(150.toMoney())
+                throw IllegalStateException("rollback")
+            }
+        }.hasMessage("rollback")
+
+        assertThat(fixture.metrics().size).isEqualTo(0)
+        assertThat(find(account.id)!!.balance).isEqualTo(100.toMoney())
+    }
+
+    @Test
+    fun concurrentChangeDiscardsStaleRead() {
+        val account = createAccount("foo", 100)
+        fixture.clear()
+
+        transactional.run {
+            assertThat(fixture.findAccount(account.id)!!.balance).isEqualTo(100.toMoney())
+            thread {
+                transactional.run { fixture.credit(account.id, 50.toMoney()) }
+            }.join()
+        }
+
+        assertThat(fixture.metrics().size).isEqualTo(0)
+        assertThat(find(account.id)!!.balance).isEqualTo(150.toMoney())
+    }
+
+    @Test
+    fun leastRecentlyUsedEviction() {
+        val account1 = createAccount("foo")
+        val account2 = createAccount("bar")
+        find(account1.id)
+        val account3 = createAccount("baz")
+
+        val metrics = fixture.metrics()
+        assertThat(metrics.size).isEqualTo(2)
+        assertThat(metrics.maximumSize).isEqualTo(2)
+        assertThat(metrics.evictions).isEqualTo(1)
+
+        val (found, statements) = dataSource.countStatements {
+            transactional.execute { fixture.findAccountsById(listOf(account1.id, account3.id)) }
+        }
+        assertThat(found.keys).containsExactlyInAnyOrder(account1.id, account3.id)
+        assertThat(statements).isEqualTo(0)
+
+        val (reloaded, reloadStatements) = dataSource.countStatements {
+            transactional.execute { fixture.findAccountsById(listOf(account1.id, account2.id)) }
+        }
+        assertThat(reloaded[account2.id]).isEqualTo(account2)
+        assertThat(reloadStatements).isEqualTo(1)
+    }
+
+    private fun createAccount(name: String, balance: Int = 0): Account = transactional.execute {
+        fixture.create(Account(AccountType.PERSONAL, name, dbNow(), balance.toMoney()))
+    }
+
+    private fun find(id: Int): Account? = transactional.execute { fixture.findAccount(id) }
+
+    @AfterEach
+    fun tearDown() {
+        database.close()
+    }
+}
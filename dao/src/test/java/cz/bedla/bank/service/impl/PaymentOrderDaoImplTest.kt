@@ -2,7 +2,10 @@ package cz.bedla.bank.service.impl
 
 import cz.bedla.bank.DatabaseImpl
 import cz.bedla.bank.DbInitializer
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.AccountDao
+import cz.bedla.bank.service.Keyset
+import cz.bedla.bank.service.PageRequest
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
 import cz.bedla.bank.domain.PaymentOrder
@@ -47,7 +50,7 @@ class PaymentOrderDaoImplTest {
             assertThat(found.id).isEqualTo(paymentOrder.id)
             assertThat(found.fromAccount.name).isEqualTo("bank top-up");
             assertThat(found.toAccount.name).isEqualTo("Mr. Foo");
-            assertThat(found.amount).isEqualTo(100.toBigDecimal());
+            assertThat(found.amount).isEqualTo(100.toMoney());
             assertThat(found.state).isEqualTo(PaymentOrderState.RECEIVED);
             assertThat(found.dateCreated).isAfter(OffsetDateTime.now().minusDays(1));
             assertThat(found.version).isEqualTo(1)
@@ -57,11 +60,11 @@ class PaymentOrderDaoImplTest {
     @Test
     fun storeIncorrectRelation() {
         TransactionalImpl(database.dataSource).run {
-            val invalidFrom = Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal())
-            val invalidTo = Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toBigDecimal())
+            val invalidFrom = Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toMoney())
+            val invalidTo = Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toMoney())
 
             assertThatThrownBy {
-                fixture.create(PaymentOrder(invalidFrom, invalidTo, 100.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now()))
+                fixture.create(PaymentOrder(invalidFrom, invalidTo, 100.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now()))
             }.isInstanceOf(DataAccessException::class.java)
                     .hasMessageContaining("Referential integrity constraint violation")
         }
@@ -71,24 +74,30 @@ class PaymentOrderDaoImplTest {
     fun findItemsWithState() {
         TransactionalImpl(database.dataSource).run {
             val fromAccount = accountDao.create(
-                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toBigDecimal()))
+                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toMoney()))
             val toAccount = accountDao.create(
-                    Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal()))
+                    Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toMoney()))
 
-            fixture.create(PaymentOrder(fromAccount, toAccount, 1.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(2)))
-            fixture.create(PaymentOrder(fromAccount, toAccount, 2.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(1)))
-            fixture.create(PaymentOrder(fromAccount, toAccount, 100.toBigDecimal(), PaymentOrderState.NO_FUNDS, OffsetDateTime.now()))
+            fixture.create(PaymentOrder(fromAccount, toAccount, 1.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(2)))
+            fixture.create(PaymentOrder(fromAccount, toAccount, 2.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(1)))
+            fixture.create(PaymentOrder(fromAccount, toAccount, 100.toMoney(), PaymentOrderState.NO_FUNDS, OffsetDateTime.now()))
 
-            val received = fixture.findItemsWithState(PaymentOrderState.RECEIVED)
+            val received = fixture.findItemsWithState(PaymentOrderState.RECEIVED, 0, 10)
             assertThat(received).hasSize(2)
-            assertThat(received[0].amount).isEqualTo(1.toBigDecimal())
-            assertThat(received[1].amount).isEqualTo(2.toBigDecimal())
+            assertThat(received[0].amount).isEqualTo(1.toMoney())
+            assertThat(received[1].amount).isEqualTo(2.toMoney())
 
-            val noFunds = fixture.findItemsWithState(PaymentOrderState.NO_FUNDS)
+            val firstPage = fixture.findItemsWithState(PaymentOrderState.RECEIVED, 0, 1)
+            assertThat(firstPage).extracting<Int> { it.id }.containsExactly(received[0].id)
+            val secondPage = fixture.findItemsWithState(PaymentOrderState.RECEIVED, firstPage.last().id, 1)
+            assertThat(secondPage).extracting<Int> { it.id }.containsExactly(received[1].id)
+            assertThat(fixture.findItemsWithState(PaymentOrderState.RECEIVED, secondPage.last().id, 1)).isEmpty()
+
+            val noFunds = fixture.findItemsWithState(PaymentOrderState.NO_FUNDS, 0, 10)
             assertThat(noFunds).hasSize(1)
-            assertThat(noFunds[0].amount).isEqualTo(100.toBigDecimal())
+            assertThat(noFunds[0].amount).isEqualTo(100.toMoney())
 
-            val ok = fixture.findItemsWithState(PaymentOrderState.OK)
+            val ok = fixture.findItemsWithState(PaymentOrderState.OK, 0, 10)
             assertThat(ok).isEmpty()
         }
     }
@@ -97,19 +106,93 @@ class PaymentOrderDaoImplTest {
     fun findItemsForAccount() {
         TransactionalImpl(database.dataSource).run {
             val account1 = accountDao.create(
-                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toBigDecimal()))
+                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toMoney()))
             val account2 = accountDao.create(
-                    Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal()))
+                    Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toMoney()))
             val account3 = accountDao.create(
-                    Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toBigDecimal()))
+                    Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toMoney()))
 
-            fixture.create(PaymentOrder(account1, account2, 1.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(2)))
-            fixture.create(PaymentOrder(account1, account3, 2.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(1)))
+            fixture.create(PaymentOrder(account1, account2, 1.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(2)))
+            fixture.create(PaymentOrder(account1, account3, 2.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now().minusDays(1)))
 
             val list = fixture.findItemsForAccount(account1)
             assertThat(list).hasSize(2)
-            assertThat(list[0].amount).isEqualTo(1.toBigDecimal())
-            assertThat(list[1].amount).isEqualTo(2.toBigDecimal())
+            assertThat(list[0].amount).isEqualTo(1.toMoney())
+            assertThat(list[1].amount).isEqualTo(2.toMoney())
+        }
+    }
+
+    @Test
+    fun findItemsForAccountPaged() {
+        TransactionalImpl(database.dataSource).run {
+            val topUp = accountDao.create(
+                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toMoney()))
+            val account = accountDao.create(
+                    Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toMoney()))
+            val other = accountDao.create(
+                    Account(AccountType.PERSONAL, "Mr. Bar", OffsetDateTime.now(), 0.toMoney()))
+            val date = OffsetDateTime.now().minusDays(1)
+
+            val orders = (1..7).map {
+                val (from, to) = if (it % 2 == 0) account to other else topUp to account
+                // two orders created at the same time to check tie-break by id
+                fixture.create(PaymentOrder(from, to, it.toMoney(), PaymentOrderState.RECEIVED, date.plusMinutes((it / 2).toLong())))
+            }
+            fixture.create(PaymentOrder(topUp, other, 100.toMoney(), PaymentOrderState.RECEIVED, date))
+
+            val pages = mutableListOf<List<PaymentOrder>>()
+            var page = PageRequest(3)
+            do {
+                val list = fixture.findItemsForAccount(account, page)
+                pages.add(list)
+                page = page.copy(after = list.lastOrNull()?.let { Keyset(it.dateCreated, it.id) })
+            } while (list.size == page.limit)
+
+            assertThat(pages.map { it.size }).containsExactly(3, 3, 1)
+            assertThat(pages.flatten().map { it.id }).containsExactlyElementsOf(orders.map { it.id })
+
+            val filtered = fixture.findItemsForAccount(account, PageRequest(10, from = date.plusMinutes(1), to = date.plusMinutes(3)))
+            assertThat(filtered.map { it.amount }).containsExactly(2.toMoney(), 3.toMoney(), 4.toMoney(), 5.toMoney())
+        }
+    }
+
+    @Test
+    fun constantStatementsPerPage() {
+        val dataSource = StatementCountingDataSource(database.dataSource)
+        TransactionalImpl(dataSource).run {
+            val topUp = accountDao.create(
+                    Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toMoney()))
+            val accounts = (1..20).map {
+                accountDao.create(Account(AccountType.PERSONAL, "Mr. $it", OffsetDateTime.now(), 0.toMoney()))
+            }
+            for (i in 1..100) {
+                fixture.create(PaymentOrder(topUp, accounts[i % accounts.size], i.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now()))
+            }
+
+            val (smallPage, smallPageStatements) = dataSource.countStatements {
+                fixture.findItemsWithState(PaymentOrderState.RECEIVED, 0, 5)
+            }
+            val (page, pageStatements) = dataSource.countStatements {
+                fixture.findItemsWithState(PaymentOrderState.RECEIVED, 0, 100)
+            }
+            assertThat(smallPage).hasSize(5)
+            assertThat(page).hasSize(100)
+            assertThat(smallPageStatements).isEqualTo(1)
+            assertThat(pageStatements).isEqualTo(1)
+            assertThat(page.map { it.fromAccountId }.distinct()).containsExactly(topUp.id)
+            assertThat(page.map { it.fromAccountType }.distinct()).containsExactly(AccountType.TOP_UP)
+
+            val (forAccount, forAccountStatements) = dataSource.countStatements {
+                fixture.findItemsForAccount(topUp)
+            }
+            assertThat(forAccount).hasSize(100)
+            assertThat(forAccountStatements).isEqualTo(2)
+
+            val (empty, emptyStatements) = dataSource.countStatements {
+                fixture.findItemsWithState(PaymentOrderState.OK, 0, 100)
+            }
+            assertThat(empty).isEmpty()
+            assertThat(emptyStatements).isEqualTo(1)
         }
     }
 
@@ -118,7 +201,7 @@ class PaymentOrderDaoImplTest {
         TransactionalImpl(database.dataSource).run {
             val paymentOrder = createPaymentOrder()
 
-            fixture.updateState(paymentOrder.copy(state = PaymentOrderState.NO_FUNDS))
+            fixture.updateState(paymentOrder.toRef().copy(state = PaymentOrderState.NO_FUNDS))
 
             (fixture.findPaymentOrder(paymentOrder.id) ?: fail("not found")).also {
                 assertThat(it.state).isEqualTo(PaymentOrderState.NO_FUNDS)
@@ -132,12 +215,124 @@ class PaymentOrderDaoImplTest {
             val paymentOrder = createPaymentOrder()
 
             assertThatThrownBy {
-                fixture.updateState(paymentOrder.copy(state = PaymentOrderState.NO_FUNDS, version = 999999))
+                fixture.updateState(paymentOrder.toRef().copy(state = PaymentOrderState.NO_FUNDS, version = 999999))
             }.isInstanceOf(DataChangedException::class.java)
                     .hasMessage("Database record has been changed or doesn't exist any longer")
         }
     }
 
+    @Test
+    fun updateStates() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder1 = createPaymentOrder()
+            val paymentOrder2 = createPaymentOrder()
+
+            val result = fixture.updateStates(
+                listOf(
+                    paymentOrder1.toRef().copy(state = PaymentOrderState.OK),
+                    paymentOrder2.toRef().copy(state = PaymentOrderState.NO_FUNDS, version = 999999)
+                )
+            )
+            assertThat(result).containsExactly(true, false)
+
+            (fixture.findPaymentOrder(paymentOrder1.id) ?: fail("not found")).also {
+                assertThat(it.state).isEqualTo(PaymentOrderState.OK)
+                assertThat(it.version).isEqualTo(2)
+            }
+            (fixture.findPaymentOrder(paymentOrder2.id) ?: fail("not found")).also {
+                assertThat(it.state).isEqualTo(PaymentOrderState.RECEIVED)
+                assertThat(it.version).isEqualTo(1)
+            }
+        }
+    }
+
+    @Test
+    fun claimItems() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder1 = createPaymentOrder()
+            val paymentOrder2 = createPaymentOrder()
+            val paymentOrder3 = createPaymentOrder()
+            fixture.updateState(paymentOrder3.toRef().copy(state = PaymentOrderState.OK))
+
+            val now = OffsetDateTime.now()
+            val claimed = fixture.claimItems("owner#1", now.plusMinutes(1), now, 1)
+            assertThat(claimed).hasSize(1)
+            claimed.first().also {
+                assertThat(it.id).isEqualTo(paymentOrder1.id)
+                assertThat(it.state).isEqualTo(PaymentOrderState.PROCESSING)
+                assertThat(it.version).isEqualTo(2)
+            }
+
+            assertThat(fixture.claimItems("owner#2", now.plusMinutes(1), now, 10))
+                .extracting<Int> { it.id }
+                .containsExactly(paymentOrder2.id)
+            assertThat(fixture.claimItems("owner#3", now.plusMinutes(1), now, 10)).isEmpty()
+        }
+    }
+
+    @Test
+    fun claimItemsWithExpiredLease() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder = createPaymentOrder()
+
+            val now = OffsetDateTime.now()
+            assertThat(fixture.claimItems("owner#1", now.plusMinutes(1), now, 10)).hasSize(1)
+            assertThat(fixture.claimItems("owner#2", now.plusMinutes(2), now.plusSeconds(30), 10)).isEmpty()
+
+            val reclaimed = fixture.claimItems("owner#3", now.plusMinutes(3), now.plusMinutes(2), 10)
+            assertThat(reclaimed).hasSize(1)
+            assertThat(reclaimed.first().id).isEqualTo(paymentOrder.id)
+            assertThat(reclaimed.first().version).isEqualTo(3)
+        }
+    }
+
+    @Test
+    fun claimItem() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder = createPaymentOrder()
+
+            val now = OffsetDateTime.now()
+            val claimed = fixture.claimItem(paymentOrder.id, "owner#1", now.plusMinutes(1), now) ?: fail("not claimed")
+            assertThat(claimed).isEqualTo(paymentOrder.toRef().copy(state = PaymentOrderState.PROCESSING, version = 2))
+
+            assertThat(fixture.claimItem(paymentOrder.id, "owner#2", now.plusMinutes(1), now)).isNull()
+            assertThat(fixture.claimItem(99999, "owner#2", now.plusMinutes(1), now)).isNull()
+        }
+    }
+
+    @Test
+    fun releaseItem() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder = createPaymentOrder()
+
+            val now = OffsetDateTime.now()
+            fixture.claimItem(paymentOrder.id, "owner#1", now.plusMinutes(1), now) ?: fail("not claimed")
+
+            assertThat(fixture.releaseItem(paymentOrder.id, "owner#2")).isFalse()
+            assertThat(fixture.releaseItem(paymentOrder.id, "owner#1")).isTrue()
+            assertThat(fixture.releaseItem(paymentOrder.id, "owner#1")).isFalse()
+
+            val released = fixture.findPaymentOrder(paymentOrder.id)!!
+            assertThat(released.state).isEqualTo(PaymentOrderState.RECEIVED)
+            assertThat(released.version).isEqualTo(3)
+            assertThat(fixture.claimItem(paymentOrder.id, "owner#2", now.plusMinutes(1), now)).isNotNull
+        }
+    }
+
+    @Test
+    fun recordFailedAttempt() {
+        TransactionalImpl(database.dataSource).run {
+            val paymentOrder = createPaymentOrder()
+
+            assertThat(fixture.recordFailedAttempt(paymentOrder.id)).isEqualTo(1)
+            assertThat(fixture.recordFailedAttempt(paymentOrder.id)).isEqualTo(2)
+            assertThat(fixture.recordFailedAttempt(99999)).isEqualTo(0)
+
+            fixture.updateState(paymentOrder.toRef().copy(state = PaymentOrderState.FAILED))
+            assertThat(fixture.findPaymentOrder(paymentOrder.id)?.state).isEqualTo(PaymentOrderState.FAILED)
+        }
+    }
+
     @Test
     fun delete() {
         TransactionalImpl(database.dataSource).run {
@@ -176,11 +371,11 @@ class PaymentOrderDaoImplTest {
 
     private fun createPaymentOrder(): PaymentOrder {
         val fromAccount = accountDao.create(
-                Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toBigDecimal()))
+                Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toMoney()))
         val toAccount = accountDao.create(
-                Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal()))
+                Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toMoney()))
 
-        return fixture.create(PaymentOrder(fromAccount, toAccount, 100.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now()))
+        return fixture.create(PaymentOrder(fromAccount, toAccount, 100.toMoney(), PaymentOrderState.RECEIVED, OffsetDateTime.now()))
     }
 
     @AfterEach
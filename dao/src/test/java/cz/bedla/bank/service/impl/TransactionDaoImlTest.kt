@@ -6,19 +6,24 @@ import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
 import cz.bedla.bank.domain.PaymentOrder
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.Transaction
+import cz.bedla.bank.domain.TransactionView
+import cz.bedla.bank.domain.toMoney
 import cz.bedla.bank.service.AccountDao
+import cz.bedla.bank.service.Keyset
+import cz.bedla.bank.service.PageRequest
 import cz.bedla.bank.service.PaymentOrderDao
+import cz.bedla.bank.tx.Transactional
 import cz.bedla.bank.tx.TransactionalImpl
 import org.assertj.core.api.Assertions.assertThat
-import org.assertj.core.api.Assertions.assertThatThrownBy
-import org.jooq.exception.DataAccessException
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.extension.ExtendWith
 import org.junitpioneer.jupiter.TempDirectory
 import java.nio.file.Path
-import java.time.OffsetDateTime
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
 
 @ExtendWith(TempDirectory::class)
 class TransactionDaoImlTest {
@@ -28,6 +33,7 @@ class TransactionDaoImlTest {
 
     private lateinit var database: DatabaseImpl
     private lateinit var transactional: TransactionalImpl
+    private lateinit var dataSource: StatementCountingDataSource
 
     @BeforeEach
     fun setUp(@TempDirectory.TempDir tempDir: Path) {
@@ -35,76 +41,182 @@ class TransactionDaoImlTest {
         database.start()
         DbInitializer("database.sql", database.dataSource).run()
         transactional = TransactionalImpl(database.dataSource)
+        dataSource = StatementCountingDataSource(database.dataSource)
 
         accountDao = AccountDaoImpl()
         paymentOrderDao = PaymentOrderDaoImpl(accountDao)
-        fixture = TransactionDaoIml(accountDao, paymentOrderDao)
+        fixture = TransactionDaoIml()
     }
 
     @Test
     fun store() = transactional.run {
         val fromAccount = accountDao.create(
-            Account(AccountType.TOP_UP, "bank top-up", OffsetDateTime.now(), 999999.toBigDecimal())
+            Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
         )
         val toAccount = accountDao.create(
-            Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal())
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
         )
 
         val paymentOrder = paymentOrderDao.create(
-            PaymentOrder(fromAccount, toAccount, 5.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now())
+            PaymentOrder(fromAccount, toAccount, 5.toMoney(), PaymentOrderState.RECEIVED, dbNow())
         )
 
-        fixture.create(paymentOrder.id, fromAccount.id, toAccount.id, 100.toBigDecimal(), OffsetDateTime.now())
+        fixture.create(paymentOrder.id, fromAccount.id, toAccount.id, 100.toMoney(), dbNow())
 
         val list = fixture.findAccountTransactions(fromAccount)
         assertThat(list).hasSize(1)
-        assertThat(list[0].paymentOrder.id).isEqualTo(paymentOrder.id)
-        assertThat(list[0].fromAccount.name).isEqualTo("bank top-up");
-        assertThat(list[0].toAccount.name).isEqualTo("Mr. Foo");
-        assertThat(list[0].amount).isEqualTo(100.toBigDecimal());
-        assertThat(list[0].dateTransacted).isAfter(OffsetDateTime.now().minusDays(1));
+        assertThat(list[0].paymentOrderId).isEqualTo(paymentOrder.id)
+        assertThat(list[0].paymentOrderDateCreated).isEqualTo(paymentOrder.dateCreated)
+        assertThat(list[0].fromAccountName).isEqualTo("bank top-up");
+        assertThat(list[0].fromAccountType).isEqualTo(AccountType.TOP_UP);
+        assertThat(list[0].toAccountName).isEqualTo("Mr. Foo");
+        assertThat(list[0].amount).isEqualTo(100.toMoney());
+        assertThat(list[0].dateTransacted).isAfter(dbNow().minusDays(1));
     }
 
     @Test
-    fun calculateBalance() = TransactionalImpl(database.dataSource).run {
+    fun createAll() = transactional.run {
+        val fromAccount = accountDao.create(
+            Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
+        )
+        val toAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
+
+        val paymentOrder1 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 5.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        val paymentOrder2 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 7.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+
+        fixture.createAll(listOf(paymentOrder1.toRef(), paymentOrder2.toRef()), dbNow())
+
+        val list = fixture.findAccountTransactions(toAccount)
+        assertThat(list).hasSize(2)
+        assertThat(list.map { it.paymentOrderId }).containsExactlyInAnyOrder(paymentOrder1.id, paymentOrder2.id)
+        assertThat(fixture.calculateBalance(toAccount)).isEqualTo(12.toMoney())
+    }
+
+    @Test
+    fun calculateBalance() = TransactionalImpl(dataSource).run {
         val mainAccount = accountDao.create(
-            Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal())
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
         )
 
         val account1 = accountDao.create(
-            Account(AccountType.TOP_UP, "Bank top-up", OffsetDateTime.now(), 1000.toBigDecimal())
+            Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
         )
         val account2 = accountDao.create(
-            Account(AccountType.WITHDRAWAL, "Bank withdrawal", OffsetDateTime.now(), 1000.toBigDecimal())
+            Account(AccountType.WITHDRAWAL, "Bank withdrawal", dbNow(), 1000.toMoney())
         )
 
         val paymentOrder1 = createFakePaymentOrder(account1)
         val paymentOrder2 = createFakePaymentOrder(account1)
         val paymentOrder3 = createFakePaymentOrder(account1)
 
-        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(0.toBigDecimal())
+        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(0.toMoney())
 
-        fixture.create(paymentOrder1.id, account1.id, mainAccount.id, 100.toBigDecimal(), OffsetDateTime.now())
-        fixture.create(paymentOrder2.id, account1.id, mainAccount.id, 200.toBigDecimal(), OffsetDateTime.now())
-        fixture.create(paymentOrder3.id, mainAccount.id, account2.id, 50.toBigDecimal(), OffsetDateTime.now())
+        fixture.create(paymentOrder1.id, account1.id, mainAccount.id, 100.toMoney(), dbNow())
+        fixture.create(paymentOrder2.id, account1.id, mainAccount.id, 200.toMoney(), dbNow())
+        fixture.create(paymentOrder3.id, mainAccount.id, account2.id, 50.toMoney(), dbNow())
 
-        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(250.toBigDecimal())
+        val (balance, statements) = dataSource.countStatements { fixture.calculateBalance(mainAccount) }
+        assertThat(balance).isEqualTo(250.toMoney())
+        assertThat(statements).isEqualTo(1)
+    }
+
+    @Test
+    fun advanceCheckpoints() = TransactionalImpl(dataSource).run {
+        val mainAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
+        val account1 = accountDao.create(
+            Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+        )
+        val account2 = accountDao.create(
+            Account(AccountType.WITHDRAWAL, "Bank withdrawal", dbNow(), 1000.toMoney())
+        )
+
+        val paymentOrder1 = createFakePaymentOrder(account1)
+        val paymentOrder2 = createFakePaymentOrder(account1)
+        val paymentOrder3 = createFakePaymentOrder(account1)
+        val paymentOrder4 = createFakePaymentOrder(account1)
+
+        assertThat(fixture.advanceCheckpoints(10)).isEqualTo(0)
+
+        fixture.create(paymentOrder1.id, account1.id, mainAccount.id, 100.toMoney(), dbNow())
+        fixture.create(paymentOrder2.id, account1.id, mainAccount.id, 200.toMoney(), dbNow())
+        fixture.create(paymentOrder3.id, mainAccount.id, account2.id, 50.toMoney(), dbNow())
+
+        assertThat(fixture.advanceCheckpoints(2)).isEqualTo(2)
+        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(250.toMoney())
+        assertThat(fixture.calculateBalance(account1)).isEqualTo((-300).toMoney())
+
+        fixture.create(paymentOrder4.id, mainAccount.id, account2.id, 25.toMoney(), dbNow())
+        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(225.toMoney())
+
+        assertThat(fixture.advanceCheckpoints(10)).isEqualTo(2)
+        assertThat(fixture.advanceCheckpoints(10)).isEqualTo(0)
+
+        for (account in listOf(mainAccount, account1, account2)) {
+            assertThat(fixture.calculateBalance(account)).isEqualTo(fixture.recalculateBalance(account))
+        }
+        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(225.toMoney())
+        assertThat(fixture.calculateBalance(account2)).isEqualTo(75.toMoney())
+
+        val (balance, statements) = dataSource.countStatements { fixture.calculateBalance(mainAccount) }
+        assertThat(balance).isEqualTo(225.toMoney())
+        assertThat(statements).isEqualTo(1)
+    }
+
+    @Test
+    fun verifyBalanceRacingWithSettlement() {
+        val (account, paymentOrder) = transactional.execute {
+            val topUpAccount = accountDao.create(
+                Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
+            )
+            val account = accountDao.create(
+                Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+            )
+            val paymentOrder1 = createFakePaymentOrder(topUpAccount)
+            fixture.create(paymentOrder1.id, topUpAccount.id, account.id, 100.toMoney(), dbNow())
+            fixture.advanceCheckpoints(10)
+            account to createFakePaymentOrder(topUpAccount)
+        }
+
+        val statements = AtomicInteger()
+        dataSource.beforeStatement = {
+            if (statements.incrementAndGet() == 2) {
+                thread {
+                    transactional.run {
+                        fixture.create(paymentOrder.id, paymentOrder.fromAccount.id, account.id, 7.toMoney(), dbNow())
+                    }
+                }.join()
+            }
+        }
+        val (balance, recalculatedBalance) = TransactionalImpl(dataSource).executeReadOnly {
+            fixture.verifyBalance(account)
+        }
+        dataSource.beforeStatement = {}
+
+        assertThat(balance).isEqualTo(recalculatedBalance)
     }
 
     @Test
     fun findAccountTransactions() = TransactionalImpl(database.dataSource).run {
         val mainAccount = accountDao.create(
-            Account(AccountType.PERSONAL, "Mr. Foo", OffsetDateTime.now(), 0.toBigDecimal())
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
         )
         val anotherAccount = accountDao.create(
-            Account(AccountType.PERSONAL, "Mr. Another", OffsetDateTime.now(), 0.toBigDecimal())
+            Account(AccountType.PERSONAL, "Mr. Another", dbNow(), 0.toMoney())
         )
 
         val account1 = accountDao.create(
-            Account(AccountType.TOP_UP, "Bank top-up", OffsetDateTime.now(), 1000.toBigDecimal())
+            Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
         )
         val account2 = accountDao.create(
-            Account(AccountType.WITHDRAWAL, "Bank withdrawal", OffsetDateTime.now(), 1000.toBigDecimal())
+            Account(AccountType.WITHDRAWAL, "Bank withdrawal", dbNow(), 1000.toMoney())
         )
 
         val paymentOrder1 = createFakePaymentOrder(account1)
@@ -112,57 +224,256 @@ class TransactionDaoImlTest {
         val paymentOrder3 = createFakePaymentOrder(account1)
         val paymentOrder4 = createFakePaymentOrder(account1)
 
-        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(0.toBigDecimal())
+        assertThat(fixture.calculateBalance(mainAccount)).isEqualTo(0.toMoney())
 
         fixture.create(
-            paymentOrder1.id, account1.id, mainAccount.id, 100.toBigDecimal(), OffsetDateTime.now().minusDays(3)
+            paymentOrder1.id, account1.id, mainAccount.id, 100.toMoney(), dbNow().minusDays(3)
         )
         fixture.create(
-            paymentOrder2.id, account1.id, mainAccount.id, 200.toBigDecimal(), OffsetDateTime.now().minusDays(2)
+            paymentOrder2.id, account1.id, mainAccount.id, 200.toMoney(), dbNow().minusDays(2)
         )
         fixture.create(
-            paymentOrder3.id, mainAccount.id, account2.id, 300.toBigDecimal(), OffsetDateTime.now().minusDays(1)
+            paymentOrder3.id, mainAccount.id, account2.id, 300.toMoney(), dbNow().minusDays(1)
         )
         fixture.create(
-            paymentOrder4.id, account1.id, anotherAccount.id, 123.toBigDecimal(), OffsetDateTime.now()
+            paymentOrder4.id, account1.id, anotherAccount.id, 123.toMoney(), dbNow()
         )
 
         val list = fixture.findAccountTransactions(mainAccount)
         assertThat(list).hasSize(3)
-        assertThat(list[0].fromAccount).isEqualTo(account1)
-        assertThat(list[0].toAccount).isEqualTo(mainAccount)
-        assertThat(list[0].amount).isEqualTo(100.toBigDecimal())
-        assertThat(list[1].fromAccount).isEqualTo(account1)
-        assertThat(list[1].toAccount).isEqualTo(mainAccount)
-        assertThat(list[1].amount).isEqualTo(200.toBigDecimal())
-        assertThat(list[2].fromAccount).isEqualTo(mainAccount)
-        assertThat(list[2].toAccount).isEqualTo(account2)
-        assertThat(list[2].amount).isEqualTo(300.toBigDecimal())
+        assertThat(list[0].fromAccountId).isEqualTo(account1.id)
+        assertThat(list[0].toAccountId).isEqualTo(mainAccount.id)
+        assertThat(list[0].amount).isEqualTo(100.toMoney())
+        assertThat(list[1].fromAccountId).isEqualTo(account1.id)
+        assertThat(list[1].toAccountId).isEqualTo(mainAccount.id)
+        assertThat(list[1].amount).isEqualTo(200.toMoney())
+        assertThat(list[2].fromAccountId).isEqualTo(mainAccount.id)
+        assertThat(list[2].toAccountId).isEqualTo(account2.id)
+        assertThat(list[2].amount).isEqualTo(300.toMoney())
+    }
+
+    @Test
+    fun findAccountTransactionsPaged() = TransactionalImpl(dataSource).run {
+        val mainAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
+        val otherAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Bar", dbNow(), 0.toMoney())
+        )
+        val topUp = accountDao.create(
+            Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+        )
+        val date = dbNow().minusDays(1)
+
+        val paymentOrderIds = (1..7).map {
+            val paymentOrder = createFakePaymentOrder(topUp)
+            val (from, to) = if (it % 2 == 0) mainAccount to otherAccount else topUp to mainAccount
+            fixture.create(paymentOrder.id, from.id, to.id, it.toMoney(), date.plusMinutes((it / 2).toLong()))
+            paymentOrder.id
+        }
+        fixture.create(createFakePaymentOrder(topUp).id, topUp.id, otherAccount.id, 100.toMoney(), date)
+
+        val pages = mutableListOf<List<TransactionView>>()
+        var page = PageRequest(3)
+        do {
+            val (list, statements) = dataSource.countStatements { fixture.findAccountTransactions(mainAccount, page) }
+            assertThat(statements).isEqualTo(1)
+            pages.add(list)
+            page = page.copy(after = list.lastOrNull()?.let { Keyset(it.dateTransacted, it.paymentOrderId) })
+        } while (list.size == page.limit)
+
+        assertThat(pages.map { it.size }).containsExactly(3, 3, 1)
+        assertThat(pages.flatten().map { it.paymentOrderId }).containsExactlyElementsOf(paymentOrderIds)
+
+        val filtered = fixture.findAccountTransactions(
+            mainAccount, PageRequest(10, from = date.plusMinutes(1), to = date.plusMinutes(3))
+        )
+        assertThat(filtered.map { it.amount }).containsExactly(
+            2.toMoney(), 3.toMoney(), 4.toMoney(), 5.toMoney()
+        )
+    }
+
+    @Test
+    fun exportAccountTransactions() = TransactionalImpl(dataSource).run {
+        val mainAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
+        val topUp = accountDao.create(
+            Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+        )
+        val date = dbNow().minusDays(1)
+
+        val paymentOrderIds = (1..6).map {
+            val paymentOrder = createFakePaymentOrder(topUp)
+            val (from, to) = when (it) {
+                3 -> mainAccount to topUp
+                5 -> mainAccount to mainAccount
+                else -> topUp to mainAccount
+            }
+            fixture.create(paymentOrder.id, from.id, to.id, it.toMoney(), date.plusMinutes(10 - (it / 2).toLong()))
+            paymentOrder.id
+        }
+        fixture.create(createFakePaymentOrder(topUp).id, topUp.id, topUp.id, 100.toMoney(), date)
+
+        val exported = mutableListOf<TransactionView>()
+        val (count, statements) = dataSource.countStatements {
+            fixture.exportAccountTransactions(mainAccount) { exported.add(it) }
+        }
+
+        assertThat(count).isEqualTo(6)
+        // lazy execution on/off and one query per side of hot and archive tables
+        assertThat(statements).isEqualTo(6)
+        assertThat(exported.map { it.paymentOrderId }).containsExactlyElementsOf(
+            listOf(6, 4, 5, 2, 3, 1).map { paymentOrderIds[it - 1] }
+        )
+    }
+
+    @Test
+    fun findAccountTransactionsWithSingleStatement() {
+        TransactionalImpl(dataSource).run {
+            val mainAccount = accountDao.create(
+                Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+            )
+            val topUpAccount = accountDao.create(
+                Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+            )
+            for (i in 1..50) {
+                val paymentOrder = paymentOrderDao.create(
+                    PaymentOrder(topUpAccount, mainAccount, i.toMoney(), PaymentOrderState.OK, dbNow())
+                )
+                fixture.create(paymentOrder.id, topUpAccount.id, mainAccount.id, i.toMoney(), dbNow())
+            }
+
+            val (list, statements) = dataSource.countStatements {
+                fixture.findAccountTransactions(mainAccount)
+            }
+            assertThat(list).hasSize(50)
+            assertThat(statements).isEqualTo(1)
+
+            assertThat(list[0].toAccountId).isEqualTo(mainAccount.id)
+            assertThat(list[0].toAccountName).isSameAs(list[49].toAccountName)
+            assertThat(list[0].fromAccountName).isSameAs(list[1].fromAccountName)
+            assertThat(list[0].amount).isEqualTo(1.toMoney())
+        }
+    }
+
+    @Test
+    fun findTransaction() {
+        TransactionalImpl(dataSource).run {
+            val mainAccount = accountDao.create(
+                Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+            )
+            val topUpAccount = accountDao.create(
+                Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
+            )
+            val paymentOrder = paymentOrderDao.create(
+                PaymentOrder(topUpAccount, mainAccount, 10.toMoney(), PaymentOrderState.OK, dbNow())
+            )
+            val dateTransacted = dbNow()
+            fixture.create(paymentOrder.id, topUpAccount.id, mainAccount.id, 10.toMoney(), dateTransacted)
+
+            val (transaction, statements) = dataSource.countStatements {
+                fixture.findTransaction(paymentOrder.id)
+            }
+            assertThat(statements).isEqualTo(1)
+            assertThat(transaction).isEqualTo(
+                Transaction(paymentOrder, topUpAccount, mainAccount, 10.toMoney(), dateTransacted)
+            )
+            assertThat(transaction!!.toAccount).isSameAs(transaction.paymentOrder.toAccount)
+            assertThat(fixture.findTransaction(99999)).isNull()
+        }
     }
 
     @Test
     fun duplicatePaymentOrder() {
         TransactionalImpl(database.dataSource).run {
             val account1 = accountDao.create(
-                Account(AccountType.TOP_UP, "Bank top-up", OffsetDateTime.now(), 1000.toBigDecimal())
+                Account(AccountType.TOP_UP, "Bank top-up", dbNow(), 1000.toMoney())
             )
             val account2 = accountDao.create(
-                Account(AccountType.WITHDRAWAL, "Bank withdrawal", OffsetDateTime.now(), 1000.toBigDecimal())
+                Account(AccountType.WITHDRAWAL, "Bank withdrawal", dbNow(), 1000.toMoney())
             )
 
             val paymentOrder = createFakePaymentOrder(account1)
 
-            fixture.create(paymentOrder.id, account1.id, account2.id, 100.toBigDecimal(), OffsetDateTime.now())
+            assertThat(fixture.create(paymentOrder.id, account1.id, account2.id, 100.toMoney(), dbNow())).isTrue()
+            assertThat(fixture.create(paymentOrder.id, account1.id, account2.id, 200.toMoney(), dbNow())).isFalse()
+
+            val list = fixture.findAccountTransactions(account2)
+            assertThat(list).hasSize(1)
+            assertThat(list[0].amount).isEqualTo(100.toMoney())
+        }
+    }
+
+    @Test
+    fun createAllSkipsExisting() = TransactionalImpl(dataSource).run {
+        val fromAccount = accountDao.create(
+            Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
+        )
+        val toAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
 
-            assertThatThrownBy {
-                fixture.create(paymentOrder.id, account1.id, account2.id, 200.toBigDecimal(), OffsetDateTime.now())
-            }.isInstanceOf(DataAccessException::class.java)
-                .hasMessageContaining("Unique index or primary key violation")
+        val paymentOrder1 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 5.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        val paymentOrder2 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 7.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        fixture.create(paymentOrder1.id, fromAccount.id, toAccount.id, 5.toMoney(), dbNow())
+
+        val (created, statements) = dataSource.countStatements {
+            fixture.createAll(listOf(paymentOrder1.toRef(), paymentOrder2.toRef()), dbNow())
         }
+        assertThat(created).containsExactly(false, true)
+        assertThat(statements).isEqualTo(1)
+
+        assertThat(fixture.findAccountTransactions(toAccount).map { it.paymentOrderId })
+            .containsExactlyInAnyOrder(paymentOrder1.id, paymentOrder2.id)
+        assertThat(fixture.calculateBalance(toAccount)).isEqualTo(12.toMoney())
+    }
+
+    @Test
+    fun createRacingWithConcurrentSettler() = transactional.run {
+        ConcurrentSettlerTrigger.install(Transactional.currentConnection())
+        val account = accountDao.create(
+            Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
+        )
+        val paymentOrder = createFakePaymentOrder(account)
+        ConcurrentSettlerTrigger.racingPaymentOrderIds.add(paymentOrder.id)
+
+        assertThat(fixture.create(paymentOrder.id, account.id, account.id, 5.toMoney(), dbNow())).isFalse()
+    }
+
+    @Test
+    fun createAllRacingWithConcurrentSettler() = transactional.run {
+        ConcurrentSettlerTrigger.install(Transactional.currentConnection())
+        val fromAccount = accountDao.create(
+            Account(AccountType.TOP_UP, "bank top-up", dbNow(), 999999.toMoney())
+        )
+        val toAccount = accountDao.create(
+            Account(AccountType.PERSONAL, "Mr. Foo", dbNow(), 0.toMoney())
+        )
+
+        val paymentOrder1 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 5.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        val paymentOrder2 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 7.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        val paymentOrder3 = paymentOrderDao.create(
+            PaymentOrder(fromAccount, toAccount, 9.toMoney(), PaymentOrderState.RECEIVED, dbNow())
+        )
+        ConcurrentSettlerTrigger.racingPaymentOrderIds.add(paymentOrder2.id)
+
+        val created = fixture.createAll(listOf(paymentOrder1.toRef(), paymentOrder2.toRef(), paymentOrder3.toRef()), dbNow())
+        assertThat(created).containsExactly(true, false, true)
+        assertThat(fixture.findAccountTransactions(toAccount).map { it.paymentOrderId })
+            .contains(paymentOrder1.id, paymentOrder3.id)
     }
 
     private fun createFakePaymentOrder(account: Account): PaymentOrder = paymentOrderDao.create(
-        PaymentOrder(account, account, 0.toBigDecimal(), PaymentOrderState.RECEIVED, OffsetDateTime.now())
+        PaymentOrder(account, account, 0.toMoney(), PaymentOrderState.RECEIVED, dbNow())
     )
 
     @AfterEach
@@ -0,0 +1,39 @@
+package cz.bedla.bank.service.impl
+
+import org.h2.api.Trigger
+import java.sql.Connection
+import java.util.concurrent.ConcurrentHashMap
+
+// inserts transaction row of listed payment orders right before the row itself is inserted,
+// same as concurrent settler committing between NOT EXISTS check and insert
+class ConcurrentSettlerTrigger : Trigger {
+    override fun init(conn: Connection, schemaName: String?, triggerName: String?, tableName: String?, before: Boolean, type: Int) {
+    }
+
+    override fun fire(conn: Connection, oldRow: Array<out Any>?, newRow: Array<out Any>) {
+        if (racingPaymentOrderIds.remove(newRow[0])) {
+            conn.prepareStatement(
+                "INSERT INTO transaction (po_id, from_acc_id, to_acc_id, amount, date_transacted) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)"
+            ).use { statement ->
+                (0..3).forEach { statement.setObject(it + 1, newRow[it]) }
+                statement.executeUpdate()
+            }
+        }
+    }
+
+    override fun close() {
+    }
+
+    override fun remove() {
+    }
+
+    companion object {
+        val racingPaymentOrderIds: MutableSet<Any> = ConcurrentHashMap.newKeySet()
+
+        fun install(connection: Connection) {
+            connection.createStatement().use {
+                it.execute("CREATE TRIGGER concurrent_settler BEFORE INSERT ON transaction FOR EACH ROW CALL \"${ConcurrentSettlerTrigger::class.java.name}\"")
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cz.bedla.bank.service.impl
+
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.util.concurrent.atomic.AtomicInteger
+import javax.sql.DataSource
+
+class StatementCountingDataSource(private val target: DataSource) : DataSource by target {
+    private val statements = AtomicInteger()
+
+    val statementCount: Int
+        get() = statements.get()
+
+    // runs right before statement is prepared, e.g. to commit concurrent change between two statements
+    @Volatile
+    var beforeStatement: () -> Unit = {}
+
+    fun <T> countStatements(block: () -> T): Pair<T, Int> {
+        val before = statements.get()
+        val result = block()
+        return result to statements.get() - before
+    }
+
+    override fun getConnection(): Connection = counting(target.connection)
+
+    override fun getConnection(username: String?, password: String?): Connection =
+        counting(target.getConnection(username, password))
+
+    private fun counting(connection: Connection): Connection =
+        Proxy.newProxyInstance(javaClass.classLoader, arrayOf(Connection::class.java)) { _, method, args ->
+            if (method.name.startsWith("prepare") || method.name == "createStatement") {
+                beforeStatement()
+                statements.incrementAndGet()
+            }
+            try {
+                method.invoke(connection, *(args ?: arrayOf()))
+            } catch (e: InvocationTargetException) {
+                throw e.targetException
+            }
+        } as Connection
+}
@@ -0,0 +1,7 @@
+package cz.bedla.bank.service.impl
+
+import java.time.OffsetDateTime
+import java.time.temporal.ChronoUnit
+
+// H2 stores timestamps with microsecond precision, OffsetDateTime.now() has nanoseconds on JDK 9+
+internal fun dbNow(): OffsetDateTime = OffsetDateTime.now().truncatedTo(ChronoUnit.MICROS)
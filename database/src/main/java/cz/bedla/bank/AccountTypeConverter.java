@@ -0,0 +1,26 @@
+package cz.bedla.bank;
+
+import cz.bedla.bank.domain.AccountType;
+import org.jooq.Converter;
+
+public final class AccountTypeConverter implements Converter<Byte, AccountType> {
+    @Override
+    public AccountType from(Byte code) {
+        return code == null ? null : AccountType.ofCode(code);
+    }
+
+    @Override
+    public Byte to(AccountType type) {
+        return type == null ? null : type.getCode();
+    }
+
+    @Override
+    public Class<Byte> fromType() {
+        return Byte.class;
+    }
+
+    @Override
+    public Class<AccountType> toType() {
+        return AccountType.class;
+    }
+}
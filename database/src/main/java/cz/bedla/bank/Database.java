@@ -1,10 +1,15 @@
 package cz.bedla.bank;
 
 import javax.sql.DataSource;
+import java.util.List;
 
 public interface Database {
     DataSource getDataSource();
 
+    DataSource getReadOnlyDataSource();
+
+    List<PoolMetrics> getPoolMetrics();
+
     void start();
 
     void stop();
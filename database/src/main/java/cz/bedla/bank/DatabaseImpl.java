@@ -1,5 +1,6 @@
 package cz.bedla.bank;
 
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -8,32 +9,72 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.apache.commons.lang3.Validate.isTrue;
 import static org.apache.commons.lang3.Validate.validState;
 
 public final class DatabaseImpl implements AutoCloseable, Database {
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseImpl.class);
 
+    public static final int DEFAULT_POOL_SIZE = 10;
+    public static final int DEFAULT_READ_ONLY_POOL_SIZE = 4;
+
     private final File file;
-    private final AtomicReference<HikariDataSource> reference = new AtomicReference<>();
+    private final int poolSize;
+    private final int readOnlyPoolSize;
+    private final AtomicReference<Pools> reference = new AtomicReference<>();
 
     public DatabaseImpl(File file) {
+        this(file, DEFAULT_POOL_SIZE, DEFAULT_READ_ONLY_POOL_SIZE);
+    }
+
+    public DatabaseImpl(File file, int poolSize, int readOnlyPoolSize) {
+        isTrue(poolSize > 0, "Pool size has to be positive");
+        isTrue(readOnlyPoolSize > 0, "Read-only pool size has to be positive");
         this.file = file;
+        this.poolSize = poolSize;
+        this.readOnlyPoolSize = readOnlyPoolSize;
     }
 
     @Override
     public DataSource getDataSource() {
-        final HikariDataSource dataSource = reference.get();
-        validState(dataSource != null, "Database not running");
-        return dataSource;
+        return pools().readWrite;
+    }
+
+    @Override
+    public DataSource getReadOnlyDataSource() {
+        return pools().readOnly;
+    }
+
+    @Override
+    public List<PoolMetrics> getPoolMetrics() {
+        final Pools pools = pools();
+        return Arrays.asList(pools.readWriteTracker.metrics(), pools.readOnlyTracker.metrics());
+    }
+
+    private Pools pools() {
+        final Pools pools = reference.get();
+        validState(pools != null, "Database not running");
+        return pools;
     }
 
     @Override
     public void start() {
-        if (reference.compareAndSet(null, createDataSource())) {
-            LOG.info("Database started");
+        final PoolWaitTracker readWriteTracker = new PoolWaitTracker();
+        final PoolWaitTracker readOnlyTracker = new PoolWaitTracker();
+        final Pools pools = new Pools(
+                createDataSource("read-write", poolSize, false, readWriteTracker),
+                createDataSource("read-only", readOnlyPoolSize, true, readOnlyTracker),
+                readWriteTracker,
+                readOnlyTracker
+        );
+        if (reference.compareAndSet(null, pools)) {
+            LOG.info("Database started with pool sizes read-write={}, read-only={}", poolSize, readOnlyPoolSize);
         } else {
+            pools.close();
             throw new IllegalStateException("Database already started");
         }
     }
@@ -43,14 +84,19 @@ public final class DatabaseImpl implements AutoCloseable, Database {
         close();
     }
 
-    private HikariDataSource createDataSource() {
-        HikariDataSource dataSource = new HikariDataSource();
-        dataSource.setJdbcUrl("jdbc:h2:file:" + dbPath() + ";DB_CLOSE_ON_EXIT=FALSE");
-        dataSource.setUsername("sa");
-        dataSource.setPassword("");
-        dataSource.setAutoCommit(false);
-        dataSource.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
-        return dataSource;
+    private HikariDataSource createDataSource(String name, int size, boolean readOnly, PoolWaitTracker tracker) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl("jdbc:h2:file:" + dbPath() + ";DB_CLOSE_ON_EXIT=FALSE");
+        config.setUsername("sa");
+        config.setPassword("");
+        config.setAutoCommit(false);
+        config.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+        config.setMaximumPoolSize(size);
+        config.setReadOnly(readOnly);
+        config.setMetricsTrackerFactory(tracker);
+        // pool is started right away, so metrics are available since start of database
+        return new HikariDataSource(config);
     }
 
     private String dbPath() {
@@ -63,8 +109,32 @@ public final class DatabaseImpl implements AutoCloseable, Database {
 
     @Override
     public void close() {
-        final HikariDataSource dataSource = reference.getAndSet(null);
-        validState(dataSource != null, "Database already stopped");
-        dataSource.close();
+        final Pools pools = reference.getAndSet(null);
+        validState(pools != null, "Database already stopped");
+        pools.close();
+    }
+
+    private static final class Pools {
+        private final HikariDataSource readWrite;
+        private final HikariDataSource readOnly;
+        private final PoolWaitTracker readWriteTracker;
+        private final PoolWaitTracker readOnlyTracker;
+
+        private Pools(
+                HikariDataSource readWrite,
+                HikariDataSource readOnly,
+                PoolWaitTracker readWriteTracker,
+                PoolWaitTracker readOnlyTracker
+        ) {
+            this.readWrite = readWrite;
+            this.readOnly = readOnly;
+            this.readWriteTracker = readWriteTracker;
+            this.readOnlyTracker = readOnlyTracker;
+        }
+
+        private void close() {
+            readOnly.close();
+            readWrite.close();
+        }
     }
 }
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -19,6 +20,8 @@ import java.util.List;
 import static org.apache.commons.lang3.Validate.notNull;
 
 public final class DbInitializer {
+    private static final int INITIAL_VERSION = 1;
+
     private final String sqlScript;
     private final DataSource dataSource;
 
@@ -43,24 +46,73 @@ public final class DbInitializer {
 
     public void run() {
         try (Connection connection = dataSource.getConnection()) {
-            runWithConnection(connection);
+            runWithConnection(connection, sqlStatements(sqlScript));
+            connection.commit();
         } catch (SQLException e) {
             ExceptionUtils.rethrow(e);
         }
     }
 
-    private void runWithConnection(Connection connection) throws SQLException {
-        final List<String> sqls = sqlStatements();
+    public int schemaVersion() {
+        try (Connection connection = dataSource.getConnection()) {
+            return schemaVersion(connection);
+        } catch (SQLException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    public int upgrade() {
+        try (Connection connection = dataSource.getConnection()) {
+            int version = schemaVersion(connection);
+            URL resource;
+            while ((resource = upgradeScript(version + 1)) != null) {
+                runWithConnection(connection, sqlStatements(resource));
+                version++;
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE schema_version SET version = ?")) {
+                    statement.setInt(1, version);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+            }
+            return version;
+        } catch (SQLException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private int schemaVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                return resultSet.next() ? resultSet.getInt(1) : INITIAL_VERSION;
+            } catch (SQLException e) {
+                connection.rollback();
+                return INITIAL_VERSION;
+            }
+        }
+    }
+
+    private URL upgradeScript(int version) {
+        final String upgradeScript = StringUtils.removeEnd(sqlScript, ".sql") + "-" + version + ".sql";
+        return Thread.currentThread().getContextClassLoader().getResource(upgradeScript);
+    }
+
+    private void runWithConnection(Connection connection, List<String> sqls) throws SQLException {
         try (final Statement statement = connection.createStatement()) {
             for (String sql : sqls) {
-                statement.execute(sql);
+                if (StringUtils.isNotBlank(sql)) {
+                    statement.execute(sql);
+                }
             }
         }
     }
 
-    private List<String> sqlStatements() {
-        final URL resource = notNull(Thread.currentThread().getContextClassLoader().getResource(sqlScript),
-                "Unable to find class-path resource: " + sqlScript);
+    private List<String> sqlStatements(String script) {
+        final URL resource = notNull(Thread.currentThread().getContextClassLoader().getResource(script),
+                "Unable to find class-path resource: " + script);
+        return sqlStatements(resource);
+    }
+
+    private List<String> sqlStatements(URL resource) {
         try (InputStream inputStream = resource.openStream()) {
             final String content = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
             return splitStatements(content);
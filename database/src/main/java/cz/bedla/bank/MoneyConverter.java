@@ -0,0 +1,26 @@
+package cz.bedla.bank;
+
+import cz.bedla.bank.domain.Money;
+import org.jooq.Converter;
+
+public final class MoneyConverter implements Converter<Long, Money> {
+    @Override
+    public Money from(Long minorUnits) {
+        return minorUnits == null ? null : new Money(minorUnits);
+    }
+
+    @Override
+    public Long to(Money money) {
+        return money == null ? null : money.getMinorUnits();
+    }
+
+    @Override
+    public Class<Long> fromType() {
+        return Long.class;
+    }
+
+    @Override
+    public Class<Money> toType() {
+        return Money.class;
+    }
+}
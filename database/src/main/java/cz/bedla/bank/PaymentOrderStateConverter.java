@@ -0,0 +1,26 @@
+package cz.bedla.bank;
+
+import cz.bedla.bank.domain.PaymentOrderState;
+import org.jooq.Converter;
+
+public final class PaymentOrderStateConverter implements Converter<Byte, PaymentOrderState> {
+    @Override
+    public PaymentOrderState from(Byte code) {
+        return code == null ? null : PaymentOrderState.ofCode(code);
+    }
+
+    @Override
+    public Byte to(PaymentOrderState state) {
+        return state == null ? null : state.getCode();
+    }
+
+    @Override
+    public Class<Byte> fromType() {
+        return Byte.class;
+    }
+
+    @Override
+    public Class<PaymentOrderState> toType() {
+        return PaymentOrderState.class;
+    }
+}
@@ -0,0 +1,86 @@
+package cz.bedla.bank;
+
+public final class PoolMetrics {
+    private final String name;
+    private final int maximumSize;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int pendingThreads;
+    private final long acquired;
+    private final long timeouts;
+    private final double averageWaitMillis;
+    private final double maxWaitMillis;
+
+    public PoolMetrics(
+            String name,
+            int maximumSize,
+            int activeConnections,
+            int idleConnections,
+            int pendingThreads,
+            long acquired,
+            long timeouts,
+            double averageWaitMillis,
+            double maxWaitMillis
+    ) {
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.pendingThreads = pendingThreads;
+        this.acquired = acquired;
+        this.timeouts = timeouts;
+        this.averageWaitMillis = averageWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getPendingThreads() {
+        return pendingThreads;
+    }
+
+    public long getAcquired() {
+        return acquired;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{" +
+                "name='" + name + '\'' +
+                ", maximumSize=" + maximumSize +
+                ", activeConnections=" + activeConnections +
+                ", idleConnections=" + idleConnections +
+                ", pendingThreads=" + pendingThreads +
+                ", acquired=" + acquired +
+                ", timeouts=" + timeouts +
+                ", averageWaitMillis=" + averageWaitMillis +
+                ", maxWaitMillis=" + maxWaitMillis +
+                '}';
+    }
+}
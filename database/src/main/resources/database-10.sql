@@ -0,0 +1 @@
+DROP TABLE IF EXISTS minor_units_conversion
\ No newline at end of file
@@ -0,0 +1,9 @@
+ALTER TABLE payment_order ADD COLUMN claim_owner VARCHAR(64);
+
+ALTER TABLE payment_order ADD COLUMN lease_expires TIMESTAMP (9) WITH TIME ZONE;
+
+CREATE TABLE schema_version (
+  version INTEGER NOT NULL
+);
+
+INSERT INTO schema_version (version) VALUES (2)
@@ -0,0 +1,9 @@
+CREATE INDEX IF NOT EXISTS idx_transaction_from_amount ON transaction (from_acc_id, amount);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_to_amount ON transaction (to_acc_id, amount);
+
+-- (state, id) instead of (state, date_created): poller and claim query filter by state and page/order by id,
+-- so index gives rows in keyset order without sort, id grows with creation time anyway
+CREATE INDEX IF NOT EXISTS idx_payment_order_state ON payment_order (state, id);
+
+CREATE INDEX IF NOT EXISTS idx_account_type ON account (type)
\ No newline at end of file
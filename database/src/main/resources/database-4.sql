@@ -0,0 +1,26 @@
+ALTER TABLE transaction ADD COLUMN checkpoint_id INTEGER DEFAULT 0 NOT NULL;
+
+DROP INDEX IF EXISTS idx_transaction_from_amount;
+
+DROP INDEX IF EXISTS idx_transaction_to_amount;
+
+CREATE INDEX IF NOT EXISTS idx_transaction_from_checkpoint ON transaction (from_acc_id, checkpoint_id, amount);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_to_checkpoint ON transaction (to_acc_id, checkpoint_id, amount);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_checkpoint ON transaction (checkpoint_id);
+
+CREATE TABLE account_checkpoint (
+  account_id INTEGER PRIMARY KEY,
+  credit DECIMAL NOT NULL,
+  debit DECIMAL NOT NULL,
+  checkpoint_id INTEGER NOT NULL,
+  FOREIGN KEY (account_id) references account(id)
+);
+
+CREATE TABLE checkpoint_run (
+  id INTEGER PRIMARY KEY,
+  last_checkpoint_id INTEGER NOT NULL
+);
+
+INSERT INTO checkpoint_run (id, last_checkpoint_id) VALUES (1, 0)
\ No newline at end of file
@@ -0,0 +1,7 @@
+CREATE INDEX IF NOT EXISTS idx_transaction_from_date ON transaction (from_acc_id, date_transacted, po_id);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_to_date ON transaction (to_acc_id, date_transacted, po_id);
+
+CREATE INDEX IF NOT EXISTS idx_payment_order_from_date ON payment_order (from_acc_id, date_created, id);
+
+CREATE INDEX IF NOT EXISTS idx_payment_order_to_date ON payment_order (to_acc_id, date_created, id)
\ No newline at end of file
@@ -0,0 +1,33 @@
+CREATE TABLE IF NOT EXISTS payment_order_archive (
+  id INTEGER PRIMARY KEY,
+  from_acc_id INTEGER NOT NULL,
+  to_acc_id INTEGER NOT NULL,
+  amount DECIMAL NOT NULL,
+  state VARCHAR(32) NOT NULL,
+  date_created TIMESTAMP (9) WITH TIME ZONE,
+  version INTEGER NOT NULL,
+  claim_owner VARCHAR(64),
+  lease_expires TIMESTAMP (9) WITH TIME ZONE,
+  FOREIGN KEY (from_acc_id) references account(id),
+  FOREIGN KEY (to_acc_id) references account(id),
+);
+
+CREATE TABLE IF NOT EXISTS transaction_archive (
+  po_id INTEGER NOT NULL,
+  from_acc_id INTEGER NOT NULL,
+  to_acc_id INTEGER NOT NULL,
+  amount DECIMAL NOT NULL,
+  date_transacted TIMESTAMP (9) WITH TIME ZONE,
+  checkpoint_id INTEGER DEFAULT 0 NOT NULL,
+  FOREIGN KEY (from_acc_id) references account(id),
+  FOREIGN KEY (to_acc_id) references account(id),
+  PRIMARY KEY (po_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_payment_order_archive_from_date ON payment_order_archive (from_acc_id, date_created, id);
+
+CREATE INDEX IF NOT EXISTS idx_payment_order_archive_to_date ON payment_order_archive (to_acc_id, date_created, id);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_archive_from_date ON transaction_archive (from_acc_id, date_transacted, po_id);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_archive_to_date ON transaction_archive (to_acc_id, date_transacted, po_id)
\ No newline at end of file
@@ -0,0 +1,71 @@
+-- H2 commits implicitly before every ALTER, so each column is multiplied only when it is not yet recorded
+-- in minor_units_conversion, update and its record are committed together, a rerun after partial failure
+-- converts only remaining columns (table is dropped by next upgrade script)
+CREATE TABLE IF NOT EXISTS minor_units_conversion (
+  column_name VARCHAR(64) PRIMARY KEY
+);
+
+-- fail before any column is converted when amount has more than 2 decimals or does not fit into BIGINT,
+-- conversion of message to INT raises error with offending amount
+SELECT CAST(CONCAT('Unable to convert ', amounts.col, ' = ', amounts.val, ' to minor units') AS INT)
+FROM (
+  SELECT 'account.balance' col, balance val FROM account
+  UNION ALL SELECT 'payment_order.amount', amount FROM payment_order
+  UNION ALL SELECT 'transaction.amount', amount FROM transaction
+  UNION ALL SELECT 'payment_order_archive.amount', amount FROM payment_order_archive
+  UNION ALL SELECT 'transaction_archive.amount', amount FROM transaction_archive
+  UNION ALL SELECT 'account_checkpoint.credit', credit FROM account_checkpoint
+  UNION ALL SELECT 'account_checkpoint.debit', debit FROM account_checkpoint
+) amounts
+WHERE amounts.col NOT IN (SELECT column_name FROM minor_units_conversion)
+  AND (amounts.val * 100 <> FLOOR(amounts.val * 100)
+   OR amounts.val * 100 NOT BETWEEN -9223372036854775808 AND 9223372036854775807);
+
+UPDATE account SET balance = balance * 100
+WHERE 'account.balance' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('account.balance');
+
+ALTER TABLE account ALTER COLUMN balance BIGINT NOT NULL;
+
+UPDATE payment_order SET amount = amount * 100
+WHERE 'payment_order.amount' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('payment_order.amount');
+
+ALTER TABLE payment_order ALTER COLUMN amount BIGINT NOT NULL;
+
+UPDATE transaction SET amount = amount * 100
+WHERE 'transaction.amount' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('transaction.amount');
+
+ALTER TABLE transaction ALTER COLUMN amount BIGINT NOT NULL;
+
+UPDATE payment_order_archive SET amount = amount * 100
+WHERE 'payment_order_archive.amount' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('payment_order_archive.amount');
+
+ALTER TABLE payment_order_archive ALTER COLUMN amount BIGINT NOT NULL;
+
+UPDATE transaction_archive SET amount = amount * 100
+WHERE 'transaction_archive.amount' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('transaction_archive.amount');
+
+ALTER TABLE transaction_archive ALTER COLUMN amount BIGINT NOT NULL;
+
+UPDATE account_checkpoint SET credit = credit * 100
+WHERE 'account_checkpoint.credit' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('account_checkpoint.credit');
+
+ALTER TABLE account_checkpoint ALTER COLUMN credit BIGINT NOT NULL;
+
+UPDATE account_checkpoint SET debit = debit * 100
+WHERE 'account_checkpoint.debit' NOT IN (SELECT column_name FROM minor_units_conversion);
+
+MERGE INTO minor_units_conversion KEY (column_name) VALUES ('account_checkpoint.debit');
+
+ALTER TABLE account_checkpoint ALTER COLUMN debit BIGINT NOT NULL
\ No newline at end of file
@@ -0,0 +1,11 @@
+UPDATE account SET type = CASE type WHEN 'PERSONAL' THEN '1' WHEN 'TOP_UP' THEN '2' WHEN 'WITHDRAWAL' THEN '3' END;
+
+ALTER TABLE account ALTER COLUMN type TINYINT NOT NULL;
+
+UPDATE payment_order SET state = CASE state WHEN 'RECEIVED' THEN '1' WHEN 'PROCESSING' THEN '2' WHEN 'OK' THEN '3' WHEN 'NO_FUNDS' THEN '4' WHEN 'FAILED' THEN '5' END;
+
+ALTER TABLE payment_order ALTER COLUMN state TINYINT NOT NULL;
+
+UPDATE payment_order_archive SET state = CASE state WHEN 'RECEIVED' THEN '1' WHEN 'PROCESSING' THEN '2' WHEN 'OK' THEN '3' WHEN 'NO_FUNDS' THEN '4' WHEN 'FAILED' THEN '5' END;
+
+ALTER TABLE payment_order_archive ALTER COLUMN state TINYINT NOT NULL
\ No newline at end of file
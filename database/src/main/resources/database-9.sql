@@ -0,0 +1,3 @@
+ALTER TABLE payment_order ADD COLUMN attempts INTEGER DEFAULT 0 NOT NULL;
+
+ALTER TABLE payment_order_archive ADD COLUMN attempts INTEGER DEFAULT 0 NOT NULL
\ No newline at end of file
@@ -1,9 +1,9 @@
 CREATE TABLE account (
   id INTEGER AUTO_INCREMENT PRIMARY KEY,
-  type VARCHAR(32) NOT NULL,
+  type TINYINT NOT NULL,
   name VARCHAR(128) NOT NULL,
   date_opened TIMESTAMP (9) WITH TIME ZONE,
-  balance DECIMAL NOT NULL,
+  balance BIGINT NOT NULL,
   version INTEGER NOT NULL
 );
 
@@ -11,10 +11,13 @@ CREATE TABLE payment_order (
   id INTEGER AUTO_INCREMENT PRIMARY KEY,
   from_acc_id INTEGER NOT NULL,
   to_acc_id INTEGER NOT NULL,
-  amount DECIMAL NOT NULL,
-  state VARCHAR(32) NOT NULL,
+  amount BIGINT NOT NULL,
+  state TINYINT NOT NULL,
   date_created TIMESTAMP (9) WITH TIME ZONE,
   version INTEGER NOT NULL,
+  claim_owner VARCHAR(64),
+  lease_expires TIMESTAMP (9) WITH TIME ZONE,
+  attempts INTEGER DEFAULT 0 NOT NULL,
   FOREIGN KEY (from_acc_id) references account(id),
   FOREIGN KEY (to_acc_id) references account(id),
 );
@@ -23,9 +26,86 @@ CREATE TABLE transaction (
   po_id INTEGER NOT NULL,
   from_acc_id INTEGER NOT NULL,
   to_acc_id INTEGER NOT NULL,
-  amount DECIMAL NOT NULL,
+  amount BIGINT NOT NULL,
   date_transacted TIMESTAMP (9) WITH TIME ZONE,
+  checkpoint_id INTEGER DEFAULT 0 NOT NULL,
   FOREIGN KEY (from_acc_id) references account(id),
   FOREIGN KEY (to_acc_id) references account(id),
   PRIMARY KEY (po_id)
 );
+
+CREATE TABLE payment_order_archive (
+  id INTEGER PRIMARY KEY,
+  from_acc_id INTEGER NOT NULL,
+  to_acc_id INTEGER NOT NULL,
+  amount BIGINT NOT NULL,
+  state TINYINT NOT NULL,
+  date_created TIMESTAMP (9) WITH TIME ZONE,
+  version INTEGER NOT NULL,
+  claim_owner VARCHAR(64),
+  lease_expires TIMESTAMP (9) WITH TIME ZONE,
+  attempts INTEGER DEFAULT 0 NOT NULL,
+  FOREIGN KEY (from_acc_id) references account(id),
+  FOREIGN KEY (to_acc_id) references account(id),
+);
+
+CREATE TABLE transaction_archive (
+  po_id INTEGER NOT NULL,
+  from_acc_id INTEGER NOT NULL,
+  to_acc_id INTEGER NOT NULL,
+  amount BIGINT NOT NULL,
+  date_transacted TIMESTAMP (9) WITH TIME ZONE,
+  checkpoint_id INTEGER DEFAULT 0 NOT NULL,
+  FOREIGN KEY (from_acc_id) references account(id),
+  FOREIGN KEY (to_acc_id) references account(id),
+  PRIMARY KEY (po_id)
+);
+
+CREATE INDEX idx_transaction_from_checkpoint ON transaction (from_acc_id, checkpoint_id, amount);
+
+CREATE INDEX idx_transaction_to_checkpoint ON transaction (to_acc_id, checkpoint_id, amount);
+
+CREATE INDEX idx_transaction_checkpoint ON transaction (checkpoint_id);
+
+-- (state, id) instead of (state, date_created): poller and claim query filter by state and page/order by id,
+-- so index gives rows in keyset order without sort, id grows with creation time anyway
+CREATE INDEX idx_payment_order_state ON payment_order (state, id);
+
+CREATE INDEX idx_transaction_from_date ON transaction (from_acc_id, date_transacted, po_id);
+
+CREATE INDEX idx_transaction_to_date ON transaction (to_acc_id, date_transacted, po_id);
+
+CREATE INDEX idx_payment_order_from_date ON payment_order (from_acc_id, date_created, id);
+
+CREATE INDEX idx_payment_order_to_date ON payment_order (to_acc_id, date_created, id);
+
+CREATE INDEX idx_account_type ON account (type);
+
+CREATE INDEX idx_payment_order_archive_from_date ON payment_order_archive (from_acc_id, date_created, id);
+
+CREATE INDEX idx_payment_order_archive_to_date ON payment_order_archive (to_acc_id, date_created, id);
+
+CREATE INDEX idx_transaction_archive_from_date ON transaction_archive (from_acc_id, date_transacted, po_id);
+
+CREATE INDEX idx_transaction_archive_to_date ON transaction_archive (to_acc_id, date_transacted, po_id);
+
+CREATE TABLE account_checkpoint (
+  account_id INTEGER PRIMARY KEY,
+  credit BIGINT NOT NULL,
+  debit BIGINT NOT NULL,
+  checkpoint_id INTEGER NOT NULL,
+  FOREIGN KEY (account_id) references account(id)
+);
+
+CREATE TABLE checkpoint_run (
+  id INTEGER PRIMARY KEY,
+  last_checkpoint_id INTEGER NOT NULL
+);
+
+INSERT INTO checkpoint_run (id, last_checkpoint_id) VALUES (1, 0);
+
+CREATE TABLE schema_version (
+  version INTEGER NOT NULL
+);
+
+INSERT INTO schema_version (version) VALUES (10)
\ No newline at end of file
@@ -13,6 +13,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -35,6 +36,24 @@ class DatabaseTest {
         testConnection(fixture.getDataSource());
     }
 
+    @Test
+    void separateReadOnlyPool() {
+        fixture.start();
+        new DbInitializer("database.sql", fixture.getDataSource()).run();
+
+        assertThat(fixture.getReadOnlyDataSource()).isNotSameAs(fixture.getDataSource());
+        testConnection(fixture.getReadOnlyDataSource());
+        testConnection(fixture.getReadOnlyDataSource());
+
+        final List<PoolMetrics> metrics = fixture.getPoolMetrics();
+        assertThat(metrics).extracting(PoolMetrics::getName).containsExactly("read-write", "read-only");
+        assertThat(metrics).extracting(PoolMetrics::getMaximumSize)
+                .containsExactly(DatabaseImpl.DEFAULT_POOL_SIZE, DatabaseImpl.DEFAULT_READ_ONLY_POOL_SIZE);
+        assertThat(metrics.get(1).getAcquired()).isEqualTo(2);
+        assertThat(metrics.get(1).getMaxWaitMillis()).isGreaterThanOrEqualTo(metrics.get(1).getAverageWaitMillis());
+        assertThat(metrics).extracting(PoolMetrics::getTimeouts).containsOnly(0L);
+    }
+
     private void testConnection(DataSource dataSource) {
         try (Connection connection = dataSource.getConnection()) {
             try (final PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM payment_order")) {
@@ -6,9 +6,21 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junitpioneer.jupiter.TempDirectory;
 
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @ExtendWith(TempDirectory.class)
 class DbInitializerTest {
@@ -30,6 +42,200 @@ class DbInitializerTest {
         assertThat(fixture.checkDbInitialized()).isTrue();
     }
 
+    @Test
+    void freshSchemaIsUpToDate() {
+        fixture.run();
+        final int version = fixture.schemaVersion();
+        assertThat(version).isGreaterThan(1);
+        assertThat(fixture.upgrade()).isEqualTo(version);
+    }
+
+    @Test
+    void upgradeBaselineSchema() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        assertThat(fixture.checkDbInitialized()).isTrue();
+        assertThat(fixture.schemaVersion()).isEqualTo(1);
+
+        final int version = fixture.upgrade();
+
+        assertThat(version).isEqualTo(10);
+        assertThat(fixture.schemaVersion()).isEqualTo(version);
+        assertThat(fixture.upgrade()).isEqualTo(version);
+        assertThat(indexNames()).contains(
+                "IDX_TRANSACTION_FROM_CHECKPOINT",
+                "IDX_TRANSACTION_TO_CHECKPOINT",
+                "IDX_TRANSACTION_CHECKPOINT",
+                "IDX_TRANSACTION_FROM_DATE",
+                "IDX_TRANSACTION_TO_DATE",
+                "IDX_PAYMENT_ORDER_FROM_DATE",
+                "IDX_PAYMENT_ORDER_TO_DATE",
+                "IDX_PAYMENT_ORDER_STATE",
+                "IDX_ACCOUNT_TYPE",
+                "IDX_PAYMENT_ORDER_ARCHIVE_FROM_DATE",
+                "IDX_PAYMENT_ORDER_ARCHIVE_TO_DATE",
+                "IDX_TRANSACTION_ARCHIVE_FROM_DATE",
+                "IDX_TRANSACTION_ARCHIVE_TO_DATE")
+                .doesNotContain("IDX_TRANSACTION_FROM_AMOUNT", "IDX_TRANSACTION_TO_AMOUNT");
+    }
+
+    @Test
+    void upgradeConvertsAmountsToMinorUnits() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        try (Connection connection = database.getDataSource().getConnection()) {
+            connection.createStatement().executeUpdate("INSERT INTO account (type, name, date_opened, balance, version) "
+                    + "VALUES ('PERSONAL', 'Mr. Foo', CURRENT_TIMESTAMP, 12.34, 1)");
+            connection.commit();
+        }
+
+        fixture.upgrade();
+
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery("SELECT balance FROM account")) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getObject(1)).isEqualTo(1234L);
+        }
+    }
+
+    @Test
+    void upgradeRerunAfterPartialMinorUnitsConversion() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        insertAccountWithBalance("12.34");
+        final DataSource failingDataSource = failingDataSource("UPDATE transaction_archive");
+
+        assertThatThrownBy(() -> new DbInitializer("database.sql", failingDataSource).upgrade())
+                .isInstanceOf(SQLException.class)
+                .hasMessage("Simulated failure");
+        assertThat(fixture.schemaVersion()).isEqualTo(6);
+
+        assertThat(fixture.upgrade()).isEqualTo(10);
+
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery("SELECT balance FROM account")) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getObject(1)).isEqualTo(1234L);
+        }
+        assertThat(tableNames()).doesNotContain("MINOR_UNITS_CONVERSION");
+    }
+
+    @Test
+    void upgradeRejectsAmountWithMoreDecimals() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        insertAccountWithBalance("12.345");
+
+        assertThatThrownBy(() -> fixture.upgrade())
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining("Unable to convert account.balance = 12.345 to minor units");
+
+        assertThat(fixture.schemaVersion()).isEqualTo(6);
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery("SELECT balance FROM account")) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getBigDecimal(1)).isEqualByComparingTo("12.345");
+        }
+    }
+
+    @Test
+    void upgradeRejectsAmountOutOfRange() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        insertAccountWithBalance("92233720368547758.08");
+
+        assertThatThrownBy(() -> fixture.upgrade())
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining("Unable to convert account.balance = 92233720368547758.08 to minor units");
+
+        assertThat(fixture.schemaVersion()).isEqualTo(6);
+    }
+
+    @Test
+    void upgradeConvertsEnumNamesToCodes() throws SQLException {
+        new DbInitializer("baseline-database.sql", database.getDataSource()).run();
+        try (Connection connection = database.getDataSource().getConnection()) {
+            connection.createStatement().executeUpdate("INSERT INTO account (type, name, date_opened, balance, version) "
+                    + "VALUES ('TOP_UP', 'Bank top-up', CURRENT_TIMESTAMP, 0, 1)");
+            connection.createStatement().executeUpdate("INSERT INTO payment_order "
+                    + "(from_acc_id, to_acc_id, amount, state, date_created, version) "
+                    + "SELECT id, id, 1, 'NO_FUNDS', CURRENT_TIMESTAMP, 1 FROM account");
+            connection.commit();
+        }
+
+        fixture.upgrade();
+
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement().executeQuery(
+                     "SELECT a.type, p.state FROM account a JOIN payment_order p ON p.from_acc_id = a.id")) {
+            assertThat(resultSet.next()).isTrue();
+            assertThat(resultSet.getObject(1)).isEqualTo((byte) 2);
+            assertThat(resultSet.getObject(2)).isEqualTo((byte) 4);
+        }
+    }
+
+    private void insertAccountWithBalance(String balance) throws SQLException {
+        try (Connection connection = database.getDataSource().getConnection()) {
+            connection.createStatement().executeUpdate("INSERT INTO account (type, name, date_opened, balance, version) "
+                    + "VALUES ('PERSONAL', 'Mr. Foo', CURRENT_TIMESTAMP, " + balance + ", 1)");
+            connection.commit();
+        }
+    }
+
+    private DataSource failingDataSource(String failingSqlPrefix) {
+        final DataSource dataSource = database.getDataSource();
+        return proxy(DataSource.class, (proxy, method, args) -> {
+            final Object result = invoke(dataSource, method, args);
+            if (!"getConnection".equals(method.getName())) {
+                return result;
+            }
+            return proxy(Connection.class, (connectionProxy, connectionMethod, connectionArgs) -> {
+                final Object connectionResult = invoke(result, connectionMethod, connectionArgs);
+                if (!"createStatement".equals(connectionMethod.getName())) {
+                    return connectionResult;
+                }
+                return proxy(Statement.class, (statementProxy, statementMethod, statementArgs) -> {
+                    if ("execute".equals(statementMethod.getName())
+                            && ((String) statementArgs[0]).trim().startsWith(failingSqlPrefix)) {
+                        throw new SQLException("Simulated failure");
+                    }
+                    return invoke(connectionResult, statementMethod, statementArgs);
+                });
+            });
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private List<String> tableNames() throws SQLException {
+        final List<String> names = new ArrayList<>();
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement()
+                     .executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES")) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        }
+        return names;
+    }
+
+    private List<String> indexNames() throws SQLException {
+        final List<String> names = new ArrayList<>();
+        try (Connection connection = database.getDataSource().getConnection();
+             ResultSet resultSet = connection.createStatement()
+                     .executeQuery("SELECT DISTINCT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES")) {
+            while (resultSet.next()) {
+                names.add(resultSet.getString(1));
+            }
+        }
+        return names;
+    }
+
     @AfterEach
     void tearDown() {
         database.stop();
@@ -1,17 +1,24 @@
 package cz.bedla.bank.domain
 
-import java.math.BigDecimal
 import java.time.OffsetDateTime
 
 data class Account(
         val type: AccountType,
         val name: String,
         val dateOpened: OffsetDateTime,
-        val balance: BigDecimal,
+        val balance: Money,
         val id: Int = 0,
         val version: Int = 0)
 
-enum class AccountType {
-    PERSONAL, TOP_UP, WITHDRAWAL
+// code is the value of account.type column, internal accounts are looked up by it
+enum class AccountType(val code: Byte) {
+    PERSONAL(1), TOP_UP(2), WITHDRAWAL(3);
+
+    companion object {
+        private val BY_CODE = values().associateBy { it.code }
+
+        @JvmStatic
+        fun ofCode(code: Byte): AccountType = BY_CODE[code] ?: throw IllegalArgumentException("Unknown account type code $code")
+    }
 }
 
@@ -0,0 +1,35 @@
+package cz.bedla.bank.domain
+
+import java.math.BigDecimal
+
+data class Money(val minorUnits: Long) : Comparable<Money> {
+    operator fun plus(other: Money) = Money(Math.addExact(minorUnits, other.minorUnits))
+
+    operator fun minus(other: Money) = Money(Math.subtractExact(minorUnits, other.minorUnits))
+
+    operator fun unaryMinus() = Money(Math.negateExact(minorUnits))
+
+    override fun compareTo(other: Money): Int = minorUnits.compareTo(other.minorUnits)
+
+    fun isPositive(): Boolean = minorUnits > 0
+
+    fun toBigDecimal(): BigDecimal = BigDecimal.valueOf(minorUnits, SCALE)
+
+    override fun toString(): String = toBigDecimal().toPlainString()
+
+    companion object {
+        const val SCALE = 2
+        const val MINOR_UNITS_PER_UNIT = 100L
+
+        @JvmField
+        val ZERO = Money(0)
+
+        // fails (ArithmeticException) for more than SCALE decimal places and for values out of long range
+        @JvmStatic
+        fun of(value: BigDecimal): Money = Money(value.movePointRight(SCALE).longValueExact())
+    }
+}
+
+fun Int.toMoney(): Money = Money(Math.multiplyExact(toLong(), Money.MINOR_UNITS_PER_UNIT))
+
+fun BigDecimal.toMoney(): Money = Money.of(this)
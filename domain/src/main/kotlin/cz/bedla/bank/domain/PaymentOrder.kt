@@ -1,18 +1,38 @@
 package cz.bedla.bank.domain
 
-import java.math.BigDecimal
 import java.time.OffsetDateTime
 
 data class PaymentOrder(
     val fromAccount: Account,
     val toAccount: Account,
-    val amount: BigDecimal,
+    val amount: Money,
     val state: PaymentOrderState,
     val dateCreated: OffsetDateTime,
     val id: Int = 0,
     val version: Int = 0
+) {
+    fun toRef(): PaymentOrderRef = PaymentOrderRef(fromAccount.id, fromAccount.type, toAccount.id, amount, state, id, version)
+}
+
+// lean form used while processing, accounts are referenced by id only (type of from account decides funds check)
+data class PaymentOrderRef(
+    val fromAccountId: Int,
+    val fromAccountType: AccountType,
+    val toAccountId: Int,
+    val amount: Money,
+    val state: PaymentOrderState,
+    val id: Int,
+    val version: Int
 )
 
-enum class PaymentOrderState {
-    RECEIVED, OK, NO_FUNDS
+// code is the value of payment_order.state column (also of archived orders), new state needs new code
+enum class PaymentOrderState(val code: Byte) {
+    RECEIVED(1), PROCESSING(2), OK(3), NO_FUNDS(4), FAILED(5);
+
+    companion object {
+        private val BY_CODE = values().associateBy { it.code }
+
+        @JvmStatic
+        fun ofCode(code: Byte): PaymentOrderState = BY_CODE[code] ?: throw IllegalArgumentException("Unknown payment order state code $code")
+    }
 }
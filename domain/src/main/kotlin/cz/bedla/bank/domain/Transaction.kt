@@ -1,12 +1,25 @@
 package cz.bedla.bank.domain
 
-import java.math.BigDecimal
 import java.time.OffsetDateTime
 
 data class Transaction(
     val paymentOrder: PaymentOrder,
     val fromAccount: Account,
     val toAccount: Account,
-    val amount: BigDecimal,
+    val amount: Money,
+    val dateTransacted: OffsetDateTime
+)
+
+// lean form used for listing, accounts are carried by id, type and name only
+data class TransactionView(
+    val paymentOrderId: Int,
+    val paymentOrderDateCreated: OffsetDateTime,
+    val fromAccountId: Int,
+    val fromAccountType: AccountType,
+    val fromAccountName: String,
+    val toAccountId: Int,
+    val toAccountType: AccountType,
+    val toAccountName: String,
+    val amount: Money,
     val dateTransacted: OffsetDateTime
 )
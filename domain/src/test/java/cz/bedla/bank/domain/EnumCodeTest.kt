@@ -0,0 +1,51 @@
+package cz.bedla.bank.domain
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.assertj.core.api.Assertions.entry
+import org.junit.jupiter.api.Test
+
+class EnumCodeTest {
+    @Test
+    fun accountTypeCodes() {
+        // codes are persisted, changing them requires DB upgrade script
+        assertThat(AccountType.values().associate { it to it.code }).containsExactly(
+            entry(AccountType.PERSONAL, 1.toByte()),
+            entry(AccountType.TOP_UP, 2.toByte()),
+            entry(AccountType.WITHDRAWAL, 3.toByte())
+        )
+    }
+
+    @Test
+    fun paymentOrderStateCodes() {
+        assertThat(PaymentOrderState.values().associate { it to it.code }).containsExactly(
+            entry(PaymentOrderState.RECEIVED, 1.toByte()),
+            entry(PaymentOrderState.PROCESSING, 2.toByte()),
+            entry(PaymentOrderState.OK, 3.toByte()),
+            entry(PaymentOrderState.NO_FUNDS, 4.toByte()),
+            entry(PaymentOrderState.FAILED, 5.toByte())
+        )
+    }
+
+    @Test
+    fun accountType() {
+        for (type in AccountType.values()) {
+            assertThat(AccountType.ofCode(type.code)).isEqualTo(type)
+        }
+        assertThat(AccountType.values().map { it.code }).doesNotHaveDuplicates()
+        assertThatThrownBy { AccountType.ofCode(0) }
+            .isInstanceOf(IllegalArgumentException::class.java)
+            .hasMessage("Unknown account type code 0")
+    }
+
+    @Test
+    fun paymentOrderState() {
+        for (state in PaymentOrderState.values()) {
+            assertThat(PaymentOrderState.ofCode(state.code)).isEqualTo(state)
+        }
+        assertThat(PaymentOrderState.values().map { it.code }).doesNotHaveDuplicates()
+        assertThatThrownBy { PaymentOrderState.ofCode(42) }
+            .isInstanceOf(IllegalArgumentException::class.java)
+            .hasMessage("Unknown payment order state code 42")
+    }
+}
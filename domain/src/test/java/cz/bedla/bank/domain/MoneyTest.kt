@@ -0,0 +1,43 @@
+package cz.bedla.bank.domain
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+
+class MoneyTest {
+    @Test
+    fun arithmetic() {
+        val money = "12.34".toBigDecimal().toMoney()
+
+        assertThat(money.minorUnits).isEqualTo(1234)
+        assertThat(money + 1.toMoney()).isEqualTo(Money(1334))
+        assertThat(money - 20.toMoney()).isEqualTo(Money(-766))
+        assertThat(-money).isEqualTo(Money(-1234))
+        assertThat(money > 12.toMoney() && money < 13.toMoney()).isTrue()
+        assertThat(money.isPositive()).isTrue()
+        assertThat(Money.ZERO.isPositive()).isFalse()
+    }
+
+    @Test
+    fun decimalConversion() {
+        assertThat("0.1".toBigDecimal().toMoney()).isEqualTo(Money(10))
+        assertThat("7.000".toBigDecimal().toMoney()).isEqualTo(7.toMoney())
+        assertThat(Money(-5).toBigDecimal()).isEqualTo("-0.05".toBigDecimal())
+        assertThat(Money(123400).toString()).isEqualTo("1234.00")
+
+        assertThatThrownBy { "0.001".toBigDecimal().toMoney() }.isInstanceOf(ArithmeticException::class.java)
+        assertThatThrownBy { BigDecimal.valueOf(Long.MAX_VALUE).toMoney() }
+            .isInstanceOf(ArithmeticException::class.java)
+    }
+
+    @Test
+    fun overflow() {
+        val max = Money(Long.MAX_VALUE)
+
+        assertThatThrownBy { max + Money(1) }.isInstanceOf(ArithmeticException::class.java)
+        assertThatThrownBy { Money(Long.MIN_VALUE) - Money(1) }.isInstanceOf(ArithmeticException::class.java)
+        assertThatThrownBy { -Money(Long.MIN_VALUE) }.isInstanceOf(ArithmeticException::class.java)
+        assertThatThrownBy { Int.MAX_VALUE.toMoney() + max }.isInstanceOf(ArithmeticException::class.java)
+    }
+}
@@ -1,5 +1,6 @@
 package cz.bedla.bank.main
 
+import cz.bedla.bank.DatabaseImpl
 import cz.bedla.bank.RestServer
 import cz.bedla.bank.context.impl.ApplicationContextImpl
 import cz.bedla.bank.rest.ApplicationServletContextListener
@@ -23,9 +24,125 @@ class BankApplication : Runnable {
     @CommandLine.Option(names = ["-p", "--port"])
     private var port: Int = 8080
 
+    @CommandLine.Option(
+        names = ["--poll-only"],
+        description = ["Disable push dispatch of received payment orders and rely on DB polling only"]
+    )
+    private var pollOnly: Boolean = false
+
+    @CommandLine.Option(
+        names = ["--lanes"],
+        description = ["Number of account-partitioned single-threaded transactor lanes (0 = shared worker pool)"]
+    )
+    private var lanes: Int = 0
+
+    @CommandLine.Option(
+        names = ["--batch-size"],
+        description = ["Maximal number of payment orders settled together in one DB transaction"]
+    )
+    private var batchSize: Int = 1
+
+    @CommandLine.Option(
+        names = ["--lease-seconds"],
+        description = ["How long a claimed payment order stays reserved before another coordinator may re-claim it"]
+    )
+    private var leaseSeconds: Int = 60
+
+    @CommandLine.Option(
+        names = ["--high-water-mark"],
+        description = ["Maximal number of payment orders submitted to workers at once (0 = twice the workers times batch size)"]
+    )
+    private var highWaterMark: Int = 0
+
+    @CommandLine.Option(
+        names = ["--internal-shards"],
+        description = ["Number of internal top-up and withdrawal accounts that spread contention of top-ups and withdrawals"]
+    )
+    private var internalShards: Int = 1
+
+    @CommandLine.Option(
+        names = ["--inline-settlement"],
+        description = ["Settle transfers inline when system is not backlogged, unless request says otherwise"]
+    )
+    private var inlineSettlement: Boolean = false
+
+    @CommandLine.Option(
+        names = ["--inline-budget-millis"],
+        description = ["Latency budget of inline settlement, slower transfers fall back to async processing"]
+    )
+    private var inlineBudgetMillis: Long = 200
+
+    @CommandLine.Option(
+        names = ["--account-cache-size"],
+        description = ["Maximal number of accounts kept in in-process account cache"]
+    )
+    private var accountCacheSize: Int = 10_000
+
+    @CommandLine.Option(
+        names = ["--checkpoint-period-seconds"],
+        description = ["Period of folding new transactions into per-account balance checkpoints"]
+    )
+    private var checkpointPeriodSeconds: Int = 60
+
+    @CommandLine.Option(
+        names = ["--checkpoint-batch-size"],
+        description = ["Maximal number of transactions folded into balance checkpoints by one DB transaction"]
+    )
+    private var checkpointBatchSize: Int = 1000
+
+    @CommandLine.Option(
+        names = ["--archive-retention-days"],
+        description = ["Age of settled payment orders (and their transactions) moved from hot to archive tables"]
+    )
+    private var archiveRetentionDays: Int = 90
+
+    @CommandLine.Option(
+        names = ["--archive-period-seconds"],
+        description = ["Period of moving settled payment orders to archive tables"]
+    )
+    private var archivePeriodSeconds: Int = 300
+
+    @CommandLine.Option(
+        names = ["--archive-batch-size"],
+        description = ["Maximal number of payment orders moved to archive tables by one DB transaction"]
+    )
+    private var archiveBatchSize: Int = 1000
+
+    @CommandLine.Option(
+        names = ["--db-pool-size"],
+        description = ["Maximal number of DB connections used by read-write transactions"]
+    )
+    private var dbPoolSize: Int = DatabaseImpl.DEFAULT_POOL_SIZE
+
+    @CommandLine.Option(
+        names = ["--db-read-pool-size"],
+        description = ["Maximal number of DB connections used by read-only lookups, separate from read-write pool"]
+    )
+    private var dbReadPoolSize: Int = DatabaseImpl.DEFAULT_READ_ONLY_POOL_SIZE
+
     override fun run() {
         logger.info("Bank starting")
-        val servletContextListener = ApplicationServletContextListener(ApplicationContextImpl(dbFile))
+        val servletContextListener = ApplicationServletContextListener(
+            ApplicationContextImpl(
+                dbFile,
+                coordinatorPushDispatch = !pollOnly,
+                coordinatorLanes = lanes,
+                coordinatorBatchSize = batchSize,
+                coordinatorLeaseSeconds = leaseSeconds,
+                coordinatorHighWaterMark = highWaterMark,
+                internalAccountShards = internalShards,
+                inlineSettlementByDefault = inlineSettlement,
+                inlineSettlementBudgetMillis = inlineBudgetMillis,
+                accountCacheSize = accountCacheSize,
+                checkpointPeriodSeconds = checkpointPeriodSeconds,
+                checkpointBatchSize = checkpointBatchSize,
+                archiveRetentionDays = archiveRetentionDays,
+                archivePeriodSeconds = archivePeriodSeconds,
+                archiveBatchSize = archiveBatchSize,
+                dbPoolSize = dbPoolSize,
+                dbReadOnlyPoolSize = dbReadPoolSize
+            )
+        )
         val server = RestServer(
             host, port, servletContextListener, RestApplication::class.java
         ).also { it.start() }
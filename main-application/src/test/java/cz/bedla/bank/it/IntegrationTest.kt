@@ -44,10 +44,8 @@ class IntegrationTest {
 
     @Test
     fun bankAccountsInitialized() {
-        assertThat(applicationContext.accountServiceBean().findTopUpAccount().balance)
-            .isGreaterThan(0.toBigDecimal())
-        assertThat(applicationContext.accountServiceBean().findWithdrawalAccount().balance)
-            .isGreaterThan(0.toBigDecimal())
+        assertThat(applicationContext.accountServiceBean().findTopUpAccount().balance.isPositive()).isTrue()
+        assertThat(applicationContext.accountServiceBean().findWithdrawalAccount().balance.isPositive()).isTrue()
     }
 
     @Nested
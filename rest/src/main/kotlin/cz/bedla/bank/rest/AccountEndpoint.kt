@@ -1,15 +1,24 @@
 package cz.bedla.bank.rest
 
 import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonInclude
 import com.fasterxml.jackson.annotation.JsonProperty
-import cz.bedla.bank.domain.Account
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.SerializationFeature
 import cz.bedla.bank.domain.AccountType
-import cz.bedla.bank.domain.Transaction
-import java.math.BigDecimal
+import cz.bedla.bank.domain.Money
+import cz.bedla.bank.domain.TransactionView
+import cz.bedla.bank.service.Keyset
+import cz.bedla.bank.service.PageRequest
+import java.io.InputStream
 import java.time.OffsetDateTime
+import java.time.format.DateTimeParseException
 import javax.servlet.ServletContext
 import javax.ws.rs.*
 import javax.ws.rs.core.Context
+import javax.ws.rs.core.Response
+import javax.ws.rs.core.StreamingOutput
 
 
 @Path("/account")
@@ -23,6 +32,41 @@ class AccountEndpoint(@Context override val servletContext: ServletContext) : En
         return AccountInfo(account.type.name, account.name, account.dateOpened, account.balance, account.id)
     }
 
+    @POST
+    @Path("/batch")
+    @Consumes("application/json")
+    fun createBatch(body: InputStream): CreatedAccounts {
+        // whole body is parsed before any account is created, malformed request creates nothing,
+        // single object or several concatenated values are rejected as well
+        val names = try {
+            createAccountsReader.factory.createParser(body).use { parser ->
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw invalidBatch()
+                }
+                val accounts = createAccountsReader.readValue<Array<CreateAccount>>(parser)
+                if (parser.nextToken() != null) {
+                    throw invalidBatch()
+                }
+                accounts.map { it.name }
+            }
+        } catch (e: JsonProcessingException) {
+            throw invalidBatch()
+        }
+        val ids = applicationContext()
+            .accountServiceBean()
+            .createPersonalAccounts(names)
+        return CreatedAccounts(ids)
+    }
+
+    @GET
+    @Path("/internal-balance")
+    fun internalBalance(): InternalBalanceResponse {
+        val accountService = applicationContext().accountServiceBean()
+        val topUp = accountService.internalBalance(AccountType.TOP_UP)
+        val withdrawal = accountService.internalBalance(AccountType.WITHDRAWAL)
+        return InternalBalanceResponse(topUp.balance, topUp.shards, withdrawal.balance, withdrawal.shards)
+    }
+
     @GET
     @Path("/{id}")
     fun accountInfo(@PathParam("id") id: Int): AccountInfo {
@@ -32,63 +76,160 @@ class AccountEndpoint(@Context override val servletContext: ServletContext) : En
 
     @GET
     @Path("/{id}/calculated-balance")
-    fun calculateBalance(@PathParam("id") id: Int): AccountBalanceResponse {
+    fun calculateBalance(
+        @PathParam("id") id: Int,
+        @QueryParam("verify") @DefaultValue("false") verify: Boolean
+    ): AccountBalanceResponse {
         val account = findAccount(id)
-        val balance = applicationContext()
-            .transactionServiceBean()
-            .calculateBalance(account)
-        return AccountBalanceResponse(account.name, balance)
+        val transactionService = applicationContext().transactionServiceBean()
+        return if (verify) {
+            val verification = transactionService.verifyBalance(account)
+            AccountBalanceResponse(
+                account.name,
+                verification.balance,
+                verification.recalculatedBalance,
+                verification.verified
+            )
+        } else {
+            AccountBalanceResponse(account.name, transactionService.calculateBalance(account))
+        }
     }
 
 
     @GET
     @Path("/{id}/transactions")
-    fun transactions(@PathParam("id") id: Int): List<TransactionResponse> {
+    fun transactions(
+        @PathParam("id") id: Int,
+        @QueryParam("limit") @DefaultValue("$DEFAULT_PAGE_LIMIT") limit: Int,
+        @QueryParam("cursor") cursor: String?,
+        @QueryParam("from") from: String?,
+        @QueryParam("to") to: String?
+    ): Response {
+        if (limit < 1 || limit > MAX_PAGE_LIMIT) {
+            throw BadRequestException("Parameter limit has to be between 1 and $MAX_PAGE_LIMIT")
+        }
+        val page = PageRequest(limit, cursor?.toKeyset(), from?.toDateParam("from"), to?.toDateParam("to"))
+
         val account = findAccount(id)
         val list = applicationContext()
             .transactionServiceBean()
-            .findAccountTransactions(account)
-        return list.map { it.toTransactionResponse() }
+            .findAccountTransactions(account, page)
+
+        val response = Response.ok(list.map { it.toTransactionResponse() })
+        if (list.size == limit) {
+            val last = list.last()
+            response.header(NEXT_CURSOR_HEADER, Keyset(last.dateTransacted, last.paymentOrderId).toCursor())
+        }
+        return response.build()
+    }
+
+    @GET
+    @Path("/{id}/transactions/export")
+    @Produces(NDJSON)
+    fun exportTransactions(@PathParam("id") id: Int): Response {
+        val account = findAccount(id)
+        val transactionService = applicationContext().transactionServiceBean()
+        val output = StreamingOutput { stream ->
+            val generator = exportWriter.factory.createGenerator(stream)
+            transactionService.exportAccountTransactions(account) { transaction ->
+                exportWriter.writeValue(generator, transaction.toTransactionExportRow())
+                generator.writeRaw('\n')
+            }
+            generator.flush()
+        }
+        return Response.ok(output).build()
     }
 
+    private fun invalidBatch() = BadRequestException("Request has to be JSON array of accounts")
+
     private fun findAccount(id: Int) = applicationContext().accountServiceBean().findAccount(id)
 
+    private fun String.toDateParam(name: String): OffsetDateTime = try {
+        // unencoded "+" of offset is decoded as space in query string
+        OffsetDateTime.parse(replace(' ', '+'))
+    } catch (e: DateTimeParseException) {
+        throw BadRequestException("Parameter $name has to be ISO date-time with offset")
+    }
+
     data class CreateAccount @JsonCreator constructor(
         @JsonProperty("name") val name: String
     )
 
+    data class CreatedAccounts(val ids: List<Int>)
+
     data class AccountInfo(
         val type: String,
         val name: String,
         val dateOpened: OffsetDateTime,
-        val balance: BigDecimal,
+        val balance: Money,
         val id: Int
     )
 
-    data class AccountBalanceResponse(val accountName: String, val balance: BigDecimal)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    data class AccountBalanceResponse(
+        val accountName: String,
+        val balance: Money,
+        val recalculatedBalance: Money? = null,
+        val verified: Boolean? = null
+    )
+
+    data class InternalBalanceResponse(
+        val topUpBalance: Money,
+        val topUpShards: Int,
+        val withdrawalBalance: Money,
+        val withdrawalShards: Int
+    )
 
     data class TransactionResponse(
         val paymentOrderDateReceived: OffsetDateTime,
         val fromAccountName: String,
         val toAccountName: String,
-        val amount: BigDecimal,
+        val amount: Money,
         val dateTransacted: OffsetDateTime
     )
 
-    private fun Transaction.toTransactionResponse(): TransactionResponse {
-        fun Account.safeName(): String = when (type) {
-            AccountType.PERSONAL -> name
-            AccountType.WITHDRAWAL -> "<internal withdrawal>"
-            AccountType.TOP_UP -> "<internal top-up>"
-        }
+    data class TransactionExportRow(
+        val paymentOrderId: Int,
+        val paymentOrderDateReceived: OffsetDateTime,
+        val fromAccountName: String,
+        val toAccountName: String,
+        val amount: Money,
+        val dateTransacted: OffsetDateTime
+    )
 
-        return TransactionResponse(
-            paymentOrder.dateCreated,
-            fromAccount.safeName(),
-            toAccount.safeName(),
-            amount,
-            dateTransacted
-        )
+    private fun TransactionView.toTransactionResponse() = TransactionResponse(
+        paymentOrderDateCreated,
+        safeName(fromAccountType, fromAccountName),
+        safeName(toAccountType, toAccountName),
+        amount,
+        dateTransacted
+    )
+
+    private fun TransactionView.toTransactionExportRow() = TransactionExportRow(
+        paymentOrderId,
+        paymentOrderDateCreated,
+        safeName(fromAccountType, fromAccountName),
+        safeName(toAccountType, toAccountName),
+        amount,
+        dateTransacted
+    )
+
+    private fun safeName(type: AccountType, name: String): String = when (type) {
+        AccountType.PERSONAL -> name
+        AccountType.WITHDRAWAL -> "<internal withdrawal>"
+        AccountType.TOP_UP -> "<internal top-up>"
     }
-}
 
+    companion object {
+        const val NEXT_CURSOR_HEADER = "X-Next-Cursor"
+        const val NDJSON = "application/x-ndjson"
+        private val createAccountsReader = createObjectMapper().readerFor(Array<CreateAccount>::class.java)
+        // rows are flushed by generator buffer and by servlet output stream, not after every row,
+        // every row is terminated by new line instead of default root value separator (space)
+        private val exportWriter = createObjectMapper().writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .withRootValueSeparator("")
+        private const val DEFAULT_PAGE_LIMIT = 100
+        private const val MAX_PAGE_LIMIT = 1000
+    }
+}
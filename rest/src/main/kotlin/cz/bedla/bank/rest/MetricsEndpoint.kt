@@ -0,0 +1,35 @@
+package cz.bedla.bank.rest
+
+import cz.bedla.bank.PoolMetrics
+import cz.bedla.bank.service.AccountCacheMetrics
+import cz.bedla.bank.service.ArchiverMetrics
+import cz.bedla.bank.service.CoordinatorMetrics
+import cz.bedla.bank.service.TransactorMetrics
+import javax.servlet.ServletContext
+import javax.ws.rs.GET
+import javax.ws.rs.Path
+import javax.ws.rs.Produces
+import javax.ws.rs.core.Context
+
+
+@Path("/metrics")
+@Produces("application/json")
+class MetricsEndpoint(@Context override val servletContext: ServletContext) : Endpoint {
+    @GET
+    fun metrics(): MetricsResponse {
+        val coordinator = applicationContext().coordinatorBean().metrics()
+        val transactor = applicationContext().transactorBean().metrics()
+        val accountCache = applicationContext().accountCacheBean().metrics()
+        val connectionPools = applicationContext().databaseBean().poolMetrics
+        val archiver = applicationContext().archiverBean().metrics()
+        return MetricsResponse(coordinator, transactor, accountCache, connectionPools, archiver)
+    }
+
+    data class MetricsResponse(
+        val coordinator: CoordinatorMetrics,
+        val transactor: TransactorMetrics,
+        val accountCache: AccountCacheMetrics,
+        val connectionPools: List<PoolMetrics>,
+        val archiver: ArchiverMetrics
+    )
+}
@@ -1,8 +1,8 @@
 package cz.bedla.bank.rest
 
+import cz.bedla.bank.domain.Money
 import com.fasterxml.jackson.annotation.JsonCreator
 import com.fasterxml.jackson.annotation.JsonProperty
-import java.math.BigDecimal
 import javax.servlet.ServletContext
 import javax.ws.rs.*
 import javax.ws.rs.core.Context
@@ -13,11 +13,11 @@ import javax.ws.rs.core.Context
 class PaymentOrderEndpoint(@Context override val servletContext: ServletContext) : Endpoint {
     @POST
     @Path("/transfer")
-    fun receivePaymentRequest(request: ReceivePaymentRequest): ReceivePaymentResponse {
-        val paymentOrder = applicationContext()
-            .paymentOrderServiceBean()
-            .receivePaymentRequest(request.fromAccountId, request.toAccountId, request.amount)
-        return ReceivePaymentResponse(paymentOrder.id)
+    fun receivePaymentRequest(request: ReceivePaymentRequest): TransferResponse {
+        val result = applicationContext()
+            .inlineSettlementBean()
+            .transfer(request.fromAccountId, request.toAccountId, request.amount, request.settleInline)
+        return TransferResponse(result.paymentOrder.id, result.state.name, result.path.name)
     }
 
     @POST
@@ -49,22 +49,25 @@ class PaymentOrderEndpoint(@Context override val servletContext: ServletContext)
 
     data class TopUpRequest @JsonCreator constructor(
         @JsonProperty("accountId") val accountId: Int,
-        @JsonProperty("amount") val amount: BigDecimal
+        @JsonProperty("amount") val amount: Money
     )
 
     data class WithdrawalRequest @JsonCreator constructor(
         @JsonProperty("accountId") val accountId: Int,
-        @JsonProperty("amount") val amount: BigDecimal
+        @JsonProperty("amount") val amount: Money
     )
 
     data class ReceivePaymentRequest @JsonCreator constructor(
         @JsonProperty("fromAccountId") val fromAccountId: Int,
         @JsonProperty("toAccountId") val toAccountId: Int,
-        @JsonProperty("amount") val amount: BigDecimal
+        @JsonProperty("amount") val amount: Money,
+        @JsonProperty("settleInline") val settleInline: Boolean? = null
     )
 
     data class ReceivePaymentResponse(val paymentOrderId: Int)
 
+    data class TransferResponse(val paymentOrderId: Int, val state: String, val path: String)
+
     data class PaymentOrderStateResponse(val state: String)
 }
 
@@ -11,14 +11,17 @@ class RestApplication : ResourceConfig() {
     init {
         register(PaymentOrderEndpoint::class.java)
         register(AccountEndpoint::class.java)
+        register(MetricsEndpoint::class.java)
         register(JacksonFeature::class.java)
+        register(InvalidFormatExceptionMapper::class.java)
 
         val jacksonProvider = JacksonJaxbJsonProvider()
-        jacksonProvider.setMapper(
-            ObjectMapper()
-                .registerModule(JavaTimeModule())
-                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
-        )
+        jacksonProvider.setMapper(createObjectMapper())
         register(jacksonProvider)
     }
 }
+
+internal fun createObjectMapper(): ObjectMapper = ObjectMapper()
+    .registerModule(JavaTimeModule())
+    .registerModule(moneyModule())
+    .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
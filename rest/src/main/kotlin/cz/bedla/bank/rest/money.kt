@@ -0,0 +1,82 @@
+package cz.bedla.bank.rest
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.DeserializationContext
+import com.fasterxml.jackson.databind.SerializerProvider
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer
+import com.fasterxml.jackson.databind.module.SimpleModule
+import com.fasterxml.jackson.databind.ser.std.StdScalarSerializer
+import cz.bedla.bank.domain.Money
+
+internal fun moneyModule(): SimpleModule = SimpleModule("money")
+    .addSerializer(Money::class.java, MoneySerializer())
+    .addDeserializer(Money::class.java, MoneyDeserializer())
+
+// plain decimal number without trailing zeros (100, 3.1, 3.14)
+internal class MoneySerializer : StdScalarSerializer<Money>(Money::class.java) {
+    override fun serialize(value: Money, gen: JsonGenerator, provider: SerializerProvider) {
+        gen.writeNumber(value.toBigDecimal().stripTrailingZeros().toPlainString())
+    }
+}
+
+internal class MoneyDeserializer : StdScalarDeserializer<Money>(Money::class.java) {
+    override fun deserialize(p: JsonParser, ctxt: DeserializationContext): Money =
+        when (p.currentToken) {
+            JsonToken.VALUE_NUMBER_INT, JsonToken.VALUE_NUMBER_FLOAT ->
+                parseMinorUnits(p.textCharacters, p.textOffset, p.textLength).let {
+                    if (it == NOT_PLAIN) parseDecimal(p, ctxt) else Money(it)
+                }
+            else -> ctxt.handleUnexpectedToken(Money::class.java, p) as Money
+        }
+
+    // decimal value is parsed from JSON text, so no binary floating point rounding is involved
+    private fun parseDecimal(p: JsonParser, ctxt: DeserializationContext): Money {
+        val value = p.decimalValue
+        try {
+            return Money.of(value)
+        } catch (e: ArithmeticException) {
+            throw ctxt.weirdNumberException(
+                value, Money::class.java, "Out of range or more than ${Money.SCALE} decimal places"
+            )
+        }
+    }
+
+    // fast path for plain numbers like 3.14, anything else (exponent, long fraction, big number) goes through BigDecimal
+    private fun parseMinorUnits(text: CharArray, offset: Int, length: Int): Long {
+        val end = offset + length
+        var i = offset
+        val negative = text[i] == '-'
+        if (negative) {
+            i++
+        }
+        var units = 0L
+        val unitsStart = i
+        while (i < end && text[i] in '0'..'9') {
+            units = units * 10 + (text[i++] - '0')
+        }
+        if (i == unitsStart || i - unitsStart > MAX_FAST_UNITS_DIGITS) {
+            return NOT_PLAIN
+        }
+        var minorUnits = units * Money.MINOR_UNITS_PER_UNIT
+        if (i < end && text[i] == '.') {
+            i++
+            var factor = Money.MINOR_UNITS_PER_UNIT / 10
+            while (i < end && text[i] in '0'..'9' && factor > 0) {
+                minorUnits += (text[i++] - '0') * factor
+                factor /= 10
+            }
+        }
+        return when {
+            i != end -> NOT_PLAIN
+            negative -> -minorUnits
+            else -> minorUnits
+        }
+    }
+
+    companion object {
+        private const val MAX_FAST_UNITS_DIGITS = 16
+        private const val NOT_PLAIN = Long.MIN_VALUE
+    }
+}
@@ -1,9 +1,18 @@
 package cz.bedla.bank.rest
 
+import com.fasterxml.jackson.databind.exc.InvalidFormatException
 import cz.bedla.bank.context.ApplicationContext
+import cz.bedla.bank.service.Keyset
+import java.nio.charset.StandardCharsets
+import java.time.OffsetDateTime
+import java.time.format.DateTimeParseException
+import java.util.Base64
 import javax.servlet.ServletContext
 import javax.servlet.ServletContextEvent
 import javax.servlet.ServletContextListener
+import javax.ws.rs.BadRequestException
+import javax.ws.rs.core.Response
+import javax.ws.rs.ext.ExceptionMapper
 
 internal interface Endpoint {
     val servletContext: ServletContext
@@ -12,6 +21,25 @@ internal interface Endpoint {
 internal fun Endpoint.applicationContext(): ApplicationContext =
     servletContext.getAttribute(ApplicationServletContextListener.APPLICATION) as ApplicationContext
 
+internal fun Keyset.toCursor(): String =
+    Base64.getUrlEncoder().withoutPadding().encodeToString("$date|$id".toByteArray(StandardCharsets.UTF_8))
+
+internal fun String.toKeyset(): Keyset = try {
+    val (date, id) = String(Base64.getUrlDecoder().decode(this), StandardCharsets.UTF_8).split('|', limit = 2)
+    Keyset(OffsetDateTime.parse(date), id.toInt())
+} catch (e: IllegalArgumentException) {
+    throw BadRequestException("Invalid cursor")
+} catch (e: IndexOutOfBoundsException) {
+    throw BadRequestException("Invalid cursor")
+} catch (e: DateTimeParseException) {
+    throw BadRequestException("Invalid cursor")
+}
+
+internal class InvalidFormatExceptionMapper : ExceptionMapper<InvalidFormatException> {
+    override fun toResponse(exception: InvalidFormatException): Response =
+        BadRequestException("Invalid value ${exception.value} of ${exception.targetType.simpleName}").response
+}
+
 class ApplicationServletContextListener(
     private val applicationContext: ApplicationContext
 ) : ServletContextListener {
@@ -4,9 +4,15 @@ import com.nhaarman.mockitokotlin2.*
 import cz.bedla.bank.RestServer
 import cz.bedla.bank.context.ApplicationContext
 import cz.bedla.bank.domain.*
+import cz.bedla.bank.service.BalanceVerification
+import cz.bedla.bank.service.InternalBalance
+import cz.bedla.bank.service.Keyset
+import cz.bedla.bank.service.PageRequest
 import io.restassured.RestAssured.given
 import io.restassured.http.ContentType
+import org.assertj.core.api.Assertions.assertThat
 import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.nullValue
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
@@ -32,7 +38,7 @@ class AccountEndpointTest {
         mock(applicationContext.accountServiceBean()) {
             on { createPersonalAccount(any()) } doAnswer {
                 val name = it.getArgument(0) as String
-                Account(AccountType.PERSONAL, name, OffsetDateTime.now()!!, 0.toBigDecimal(), 123)
+                Account(AccountType.PERSONAL, name, OffsetDateTime.now()!!, 0.toMoney(), 123)
             }
         }
 
@@ -52,11 +58,69 @@ class AccountEndpointTest {
         verifyNoMoreInteractions(applicationContext.accountServiceBean())
     }
 
+    @Test
+    fun createBatch() {
+        mock(applicationContext.accountServiceBean()) {
+            on { createPersonalAccounts(any()) } doAnswer { invocation ->
+                invocation.getArgument<List<String>>(0).mapIndexed { i, name ->
+                    assertThat(name).isEqualTo("Mr. $i")
+                    100 + i
+                }
+            }
+        }
+
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .body((0 until 3).map { mapOf("name" to "Mr. $it") })
+            .post("/api/account/batch")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body("ids", equalTo(listOf(100, 101, 102)))
+
+        verify(applicationContext.accountServiceBean()).createPersonalAccounts(any())
+        verifyNoMoreInteractions(applicationContext.accountServiceBean())
+    }
+
+    @Test
+    fun createBatchInvalidBody() {
+        postInvalidBatch("[{\"name\": \"Mr. Foo\"}, {\"nam")
+    }
+
+    @Test
+    fun createBatchSingleObject() {
+        postInvalidBatch("{\"name\": \"Mr. Foo\"}")
+    }
+
+    @Test
+    fun createBatchConcatenatedValues() {
+        postInvalidBatch("{\"name\": \"Mr. Foo\"} {\"name\": \"Mr. Bar\"}")
+        postInvalidBatch("[{\"name\": \"Mr. Foo\"}] [{\"name\": \"Mr. Bar\"}]")
+    }
+
+    private fun postInvalidBatch(body: String) {
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .body(body)
+            .post("/api/account/batch")
+            .then()
+            .log().all()
+            .statusCode(400)
+
+        verifyZeroInteractions(applicationContext.accountServiceBean())
+    }
+
     @Test
     fun accountInfo() {
         mock(applicationContext.accountServiceBean()) {
             on { findAccount(eq(123)) } doReturn Account(
-                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toBigDecimal(), 123
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
             )
         }
 
@@ -75,15 +139,46 @@ class AccountEndpointTest {
         verifyNoMoreInteractions(applicationContext.accountServiceBean())
     }
 
+    @Test
+    fun calculateBalanceVerified() {
+        mock(applicationContext.accountServiceBean()) {
+            on { findAccount(eq(123)) } doReturn Account(
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
+            )
+        }
+        mock(applicationContext.transactionServiceBean()) {
+            on { verifyBalance(any()) } doReturn BalanceVerification(999.toMoney(), 998.toMoney())
+        }
+
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .get("/api/account/123/calculated-balance?verify=true")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body(
+                "accountName", equalTo("Xxx"),
+                "balance", equalTo(999),
+                "recalculatedBalance", equalTo(998),
+                "verified", equalTo(false)
+            )
+
+        verify(applicationContext.transactionServiceBean()).verifyBalance(any())
+        verifyNoMoreInteractions(applicationContext.transactionServiceBean())
+    }
+
     @Test
     fun calculateBalance() {
         mock(applicationContext.accountServiceBean()) {
             on { findAccount(eq(123)) } doReturn Account(
-                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toBigDecimal(), 123
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
             )
         }
         mock(applicationContext.transactionServiceBean()) {
-            on { calculateBalance(any()) } doReturn 999.toBigDecimal()
+            on { calculateBalance(any()) } doReturn 999.toMoney()
         }
 
         given()
@@ -97,22 +192,53 @@ class AccountEndpointTest {
             .statusCode(200)
             .body(
                 "accountName", equalTo("Xxx"),
-                "balance", equalTo(999)
+                "balance", equalTo(999),
+                "verified", nullValue()
             )
 
         verify(applicationContext.accountServiceBean()).findAccount(eq(123))
         verifyNoMoreInteractions(applicationContext.accountServiceBean())
     }
 
+    @Test
+    fun internalBalance() {
+        mock(applicationContext.accountServiceBean()) {
+            on { internalBalance(AccountType.TOP_UP) } doReturn
+                    InternalBalance(AccountType.TOP_UP, 4, 1000.toMoney())
+            on { internalBalance(AccountType.WITHDRAWAL) } doReturn
+                    InternalBalance(AccountType.WITHDRAWAL, 4, 2000.toMoney())
+        }
+
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .get("/api/account/internal-balance")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body(
+                "topUpBalance", equalTo(1000),
+                "topUpShards", equalTo(4),
+                "withdrawalBalance", equalTo(2000),
+                "withdrawalShards", equalTo(4)
+            )
+
+        verify(applicationContext.accountServiceBean()).internalBalance(AccountType.TOP_UP)
+        verify(applicationContext.accountServiceBean()).internalBalance(AccountType.WITHDRAWAL)
+        verifyNoMoreInteractions(applicationContext.accountServiceBean())
+    }
+
     @Test
     fun transactions() {
         mock(applicationContext.accountServiceBean()) {
             on { findAccount(eq(123)) } doReturn Account(
-                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toBigDecimal(), 123
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
             )
         }
         mock(applicationContext.transactionServiceBean()) {
-            on { findAccountTransactions(any()) } doReturn createTransactions()
+            on { findAccountTransactions(any(), any()) } doReturn createTransactions()
         }
 
         given()
@@ -141,26 +267,119 @@ class AccountEndpointTest {
                 "[2].amount", equalTo(6),
                 "[2].dateTransacted", equalTo("2018-01-04T13:42:01+01:00")
             )
+            .header(AccountEndpoint.NEXT_CURSOR_HEADER, nullValue())
 
         verify(applicationContext.accountServiceBean()).findAccount(eq(123))
         verifyNoMoreInteractions(applicationContext.accountServiceBean())
+        verify(applicationContext.transactionServiceBean()).findAccountTransactions(any(), eq(PageRequest(100)))
     }
 
-    private fun createTransactions(): List<Transaction> {
+    @Test
+    fun transactionsNextPage() {
+        mock(applicationContext.accountServiceBean()) {
+            on { findAccount(eq(123)) } doReturn Account(
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
+            )
+        }
+        mock(applicationContext.transactionServiceBean()) {
+            on { findAccountTransactions(any(), any()) } doReturn createTransactions().take(2)
+        }
+        val after = Keyset(OffsetDateTime.of(2018, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(1)), 42)
+
+        val nextCursor = given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .queryParam("limit", 2)
+            .queryParam("cursor", after.toCursor())
+            .queryParam("from", "2018-01-01T00:00:00+01:00")
+            .get("/api/account/123/transactions")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body("size()", equalTo(2))
+            .extract()
+            .header(AccountEndpoint.NEXT_CURSOR_HEADER)
+
+        assertThat(nextCursor.toKeyset()).isEqualTo(
+            Keyset(OffsetDateTime.of(2018, 1, 3, 12, 42, 1, 0, ZoneOffset.ofHours(1)), 0)
+        )
+        verify(applicationContext.transactionServiceBean()).findAccountTransactions(
+            any(), eq(PageRequest(2, after, after.date))
+        )
+    }
+
+    @Test
+    fun exportTransactions() {
+        mock(applicationContext.accountServiceBean()) {
+            on { findAccount(eq(123)) } doReturn Account(
+                AccountType.PERSONAL, "Xxx", OffsetDateTime.now()!!, 0.toMoney(), 123
+            )
+        }
+        mock(applicationContext.transactionServiceBean()) {
+            on { exportAccountTransactions(any(), any()) } doAnswer {
+                val action = it.getArgument<(TransactionView) -> Unit>(1)
+                val transactions = createTransactions()
+                transactions.forEach(action)
+                transactions.size
+            }
+        }
+
+        val body = given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .get("/api/account/123/transactions/export")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .contentType(AccountEndpoint.NDJSON)
+            .extract()
+            .asByteArray()
+            .toString(Charsets.UTF_8)
+
+        assertThat(body).isEqualTo(
+            "{\"paymentOrderId\":0,\"paymentOrderDateReceived\":\"2018-01-02T10:42:01+01:00\",\"fromAccountName\":\"<internal top-up>\"," +
+                    "\"toAccountName\":\"Mr. Foo\",\"amount\":100,\"dateTransacted\":\"2018-01-02T11:42:01+01:00\"}\n" +
+                    "{\"paymentOrderId\":0,\"paymentOrderDateReceived\":\"2018-01-03T10:42:01+01:00\",\"fromAccountName\":\"Mr. Foo\"," +
+                    "\"toAccountName\":\"Mr. Bar\",\"amount\":42,\"dateTransacted\":\"2018-01-03T12:42:01+01:00\"}\n" +
+                    "{\"paymentOrderId\":0,\"paymentOrderDateReceived\":\"2018-01-04T10:42:01+01:00\",\"fromAccountName\":\"Mr. Foo\"," +
+                    "\"toAccountName\":\"<internal withdrawal>\",\"amount\":6,\"dateTransacted\":\"2018-01-04T13:42:01+01:00\"}\n"
+        )
+    }
+
+    @Test
+    fun transactionsInvalidCursor() {
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .queryParam("cursor", "not-a-cursor")
+            .get("/api/account/123/transactions")
+            .then()
+            .log().all()
+            .statusCode(400)
+
+        verifyZeroInteractions(applicationContext.transactionServiceBean())
+    }
+
+    private fun createTransactions(): List<TransactionView> {
         val now = OffsetDateTime.of(2018, 1, 1, 10, 42, 1, 0, ZoneOffset.ofHours(1))
-        val mainAccount = Account(AccountType.PERSONAL, "Mr. Foo", now, 123.toBigDecimal())
-        val account1 = Account(AccountType.PERSONAL, "Mr. Bar", now, 456.toBigDecimal())
-        val topUpAccount = Account(AccountType.TOP_UP, "Bank top-up account", now, 789.toBigDecimal())
-        val withdrawalAccount = Account(AccountType.WITHDRAWAL, "Bank withdrwaral account", now, 101112.toBigDecimal())
+        val mainAccount = Account(AccountType.PERSONAL, "Mr. Foo", now, 123.toMoney())
+        val account1 = Account(AccountType.PERSONAL, "Mr. Bar", now, 456.toMoney())
+        val topUpAccount = Account(AccountType.TOP_UP, "Bank top-up account", now, 789.toMoney())
+        val withdrawalAccount = Account(AccountType.WITHDRAWAL, "Bank withdrwaral account", now, 101112.toMoney())
 
         val paymentOrder1 = PaymentOrder(
-            topUpAccount, mainAccount, 100.toBigDecimal(), PaymentOrderState.OK, now.plusDays(1)
+            topUpAccount, mainAccount, 100.toMoney(), PaymentOrderState.OK, now.plusDays(1)
         )
         val paymentOrder2 = PaymentOrder(
-            mainAccount, account1, 42.toBigDecimal(), PaymentOrderState.OK, now.plusDays(2)
+            mainAccount, account1, 42.toMoney(), PaymentOrderState.OK, now.plusDays(2)
         )
         val paymentOrder3 = PaymentOrder(
-            mainAccount, withdrawalAccount, 6.toBigDecimal(), PaymentOrderState.OK, now.plusDays(3)
+            mainAccount, withdrawalAccount, 6.toMoney(), PaymentOrderState.OK, now.plusDays(3)
         )
         return listOf(
             Transaction(
@@ -184,9 +403,22 @@ class AccountEndpointTest {
                 paymentOrder3.amount,
                 paymentOrder3.dateCreated.plusHours(3)
             )
-        )
+        ).map { it.toView() }
     }
 
+    private fun Transaction.toView() = TransactionView(
+        paymentOrder.id,
+        paymentOrder.dateCreated,
+        fromAccount.id,
+        fromAccount.type,
+        fromAccount.name,
+        toAccount.id,
+        toAccount.type,
+        toAccount.name,
+        amount,
+        dateTransacted
+    )
+
     @AfterEach
     fun tearDown() {
         server.stop()
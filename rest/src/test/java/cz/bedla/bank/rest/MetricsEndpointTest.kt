@@ -0,0 +1,116 @@
+package cz.bedla.bank.rest
+
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.verifyNoMoreInteractions
+import cz.bedla.bank.PoolMetrics
+import cz.bedla.bank.RestServer
+import cz.bedla.bank.context.ApplicationContext
+import cz.bedla.bank.service.AccountCacheMetrics
+import cz.bedla.bank.service.AccountConflictMetrics
+import cz.bedla.bank.service.ArchiverMetrics
+import cz.bedla.bank.service.CoordinatorMetrics
+import cz.bedla.bank.service.TransactorMetrics
+import io.restassured.RestAssured.given
+import io.restassured.http.ContentType
+import org.hamcrest.Matchers.contains
+import org.hamcrest.Matchers.equalTo
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+class MetricsEndpointTest {
+    private lateinit var server: RestServer
+    private lateinit var applicationContext: ApplicationContext
+
+    @BeforeEach
+    fun setUp() {
+        applicationContext = MockApplicationContext()
+
+        val servletContextListener = ApplicationServletContextListener(applicationContext)
+        server = RestServer(
+            "localhost", 0, servletContextListener, RestApplication::class.java
+        ).also { it.start() }
+    }
+
+    @Test
+    fun metrics() {
+        mock(applicationContext.coordinatorBean()) {
+            on { metrics() } doReturn CoordinatorMetrics(3, listOf(0, 5, 1), 6, 10, 32, 2, 400)
+        }
+        mock(applicationContext.transactorBean()) {
+            on { metrics() } doReturn TransactorMetrics(7, 5, 1, listOf(AccountConflictMetrics(42, 7, 5)))
+        }
+        mock(applicationContext.accountCacheBean()) {
+            on { metrics() } doReturn AccountCacheMetrics(12, 100, 30, 10, 0.75, 4, 9)
+        }
+        mock(applicationContext.databaseBean()) {
+            on { poolMetrics } doReturn listOf(
+                PoolMetrics("read-write", 10, 8, 2, 3, 500, 1, 1.5, 40.0),
+                PoolMetrics("read-only", 4, 1, 3, 0, 200, 0, 0.25, 2.0)
+            )
+        }
+        mock(applicationContext.archiverBean()) {
+            on { metrics() } doReturn ArchiverMetrics(90, 1200, 1100, 3600, 700)
+        }
+
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .get("/api/metrics")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body(
+                "coordinator.laneCount", equalTo(3),
+                "coordinator.laneQueueDepths", contains(0, 5, 1),
+                "coordinator.queueDepth", equalTo(6),
+                "coordinator.inFlight", equalTo(10),
+                "coordinator.highWaterMark", equalTo(32),
+                "coordinator.rejectedSubmissions", equalTo(2),
+                "coordinator.pollIntervalMillis", equalTo(400),
+                "transactor.conflicts", equalTo(7),
+                "transactor.retries", equalTo(5),
+                "transactor.deadLettered", equalTo(1),
+                "transactor.hotAccounts.accountId", contains(42),
+                "transactor.hotAccounts.conflicts", contains(7),
+                "accountCache.size", equalTo(12),
+                "accountCache.maximumSize", equalTo(100),
+                "accountCache.hits", equalTo(30),
+                "accountCache.misses", equalTo(10),
+                "accountCache.hitRate", equalTo(0.75f),
+                "accountCache.evictions", equalTo(4),
+                "accountCache.invalidations", equalTo(9),
+                "connectionPools.name", contains("read-write", "read-only"),
+                "connectionPools.maximumSize", contains(10, 4),
+                "connectionPools.pendingThreads", contains(3, 0),
+                "connectionPools.acquired", contains(500, 200),
+                "connectionPools.timeouts", contains(1, 0),
+                "connectionPools.averageWaitMillis", contains(1.5f, 0.25f),
+                "connectionPools.maxWaitMillis", contains(40.0f, 2.0f),
+                "archiver.retentionDays", equalTo(90),
+                "archiver.hotPaymentOrders", equalTo(1200),
+                "archiver.hotTransactions", equalTo(1100),
+                "archiver.lagSeconds", equalTo(3600),
+                "archiver.archivedSinceStart", equalTo(700)
+            )
+
+        verify(applicationContext.coordinatorBean()).metrics()
+        verifyNoMoreInteractions(applicationContext.coordinatorBean())
+        verify(applicationContext.transactorBean()).metrics()
+        verifyNoMoreInteractions(applicationContext.transactorBean())
+        verify(applicationContext.accountCacheBean()).metrics()
+        verifyNoMoreInteractions(applicationContext.accountCacheBean())
+        verify(applicationContext.databaseBean()).poolMetrics
+        verifyNoMoreInteractions(applicationContext.databaseBean())
+        verify(applicationContext.archiverBean()).metrics()
+        verifyNoMoreInteractions(applicationContext.archiverBean())
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.stop()
+    }
+}
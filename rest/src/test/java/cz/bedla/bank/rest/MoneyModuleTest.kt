@@ -0,0 +1,41 @@
+package cz.bedla.bank.rest
+
+import com.fasterxml.jackson.databind.exc.InvalidFormatException
+import cz.bedla.bank.domain.Money
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+
+class MoneyModuleTest {
+    private val objectMapper = createObjectMapper()
+
+    @Test
+    fun serialize() {
+        for (minorUnits in listOf(0L, 5L, -5L, 10L, 100L, -100L, 310L, 314L, -314L, 100001L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+            assertThat(objectMapper.writeValueAsString(Money(minorUnits)))
+                .isEqualTo(BigDecimal.valueOf(minorUnits, 2).stripTrailingZeros().toPlainString())
+        }
+    }
+
+    @Test
+    fun deserialize() {
+        assertThat(read("3.14")).isEqualTo(Money(314))
+        assertThat(read("3.1")).isEqualTo(Money(310))
+        assertThat(read("-0.05")).isEqualTo(Money(-5))
+        assertThat(read("100")).isEqualTo(Money(10000))
+        assertThat(read("3.140")).isEqualTo(Money(314))
+        assertThat(read("1e2")).isEqualTo(Money(10000))
+        assertThat(read("92233720368547758.07")).isEqualTo(Money(Long.MAX_VALUE))
+        assertThat(read("-92233720368547758.08")).isEqualTo(Money(Long.MIN_VALUE))
+    }
+
+    @Test
+    fun deserializeInvalid() {
+        for (json in listOf("3.141", "92233720368547758.08", "1e100")) {
+            assertThatThrownBy { read(json) }.isInstanceOf(InvalidFormatException::class.java)
+        }
+    }
+
+    private fun read(json: String): Money? = objectMapper.readValue(json, Money::class.java)
+}
@@ -5,8 +5,12 @@ import cz.bedla.bank.RestServer
 import cz.bedla.bank.context.ApplicationContext
 import cz.bedla.bank.domain.Account
 import cz.bedla.bank.domain.AccountType
+import cz.bedla.bank.domain.Money
 import cz.bedla.bank.domain.PaymentOrder
 import cz.bedla.bank.domain.PaymentOrderState
+import cz.bedla.bank.domain.toMoney
+import cz.bedla.bank.service.InlineSettlement
+import cz.bedla.bank.service.SettlementResult
 import io.restassured.RestAssured.given
 import io.restassured.http.ContentType
 import org.hamcrest.Matchers.equalTo
@@ -31,8 +35,9 @@ class PaymentOrderEndpointTest {
 
     @Test
     fun receivePaymentRequest() {
-        mock(applicationContext.paymentOrderServiceBean()) {
-            on { receivePaymentRequest(eq(123), eq(456), eq(3.14.toBigDecimal())) } doReturn paymentOrder(111)
+        mock(applicationContext.inlineSettlementBean()) {
+            on { transfer(eq(123), eq(456), eq(Money(314)), isNull()) } doReturn
+                    SettlementResult(paymentOrder(111), PaymentOrderState.RECEIVED, InlineSettlement.Path.ASYNC)
         }
 
         given()
@@ -45,17 +50,49 @@ class PaymentOrderEndpointTest {
             .then()
             .log().all()
             .statusCode(200)
-            .body("paymentOrderId", equalTo(111))
+            .body(
+                "paymentOrderId", equalTo(111),
+                "state", equalTo("RECEIVED"),
+                "path", equalTo("ASYNC")
+            )
+
+        verify(applicationContext.inlineSettlementBean())
+            .transfer(eq(123), eq(456), eq(Money(314)), isNull())
+        verifyNoMoreInteractions(applicationContext.inlineSettlementBean())
+    }
 
-        verify(applicationContext.paymentOrderServiceBean())
-            .receivePaymentRequest(eq(123), eq(456), eq(3.14.toBigDecimal()))
-        verifyNoMoreInteractions(applicationContext.paymentOrderServiceBean())
+    @Test
+    fun receivePaymentRequestInline() {
+        mock(applicationContext.inlineSettlementBean()) {
+            on { transfer(eq(123), eq(456), eq(Money(314)), eq(true)) } doReturn
+                    SettlementResult(paymentOrder(111), PaymentOrderState.OK, InlineSettlement.Path.INLINE)
+        }
+
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .body(mapOf("fromAccountId" to 123, "toAccountId" to 456, "amount" to 3.14, "settleInline" to true))
+            .post("/api/payment-order/transfer")
+            .then()
+            .log().all()
+            .statusCode(200)
+            .body(
+                "paymentOrderId", equalTo(111),
+                "state", equalTo("OK"),
+                "path", equalTo("INLINE")
+            )
+
+        verify(applicationContext.inlineSettlementBean())
+            .transfer(eq(123), eq(456), eq(Money(314)), eq(true))
+        verifyNoMoreInteractions(applicationContext.inlineSettlementBean())
     }
 
     @Test
     fun topUp() {
         mock(applicationContext.paymentOrderServiceBean()) {
-            on { topUpRequest(eq(123), eq(3.14.toBigDecimal())) } doReturn paymentOrder(111)
+            on { topUpRequest(eq(123), eq(Money(314))) } doReturn paymentOrder(111)
         }
 
         given()
@@ -71,14 +108,30 @@ class PaymentOrderEndpointTest {
             .body("paymentOrderId", equalTo(111))
 
         verify(applicationContext.paymentOrderServiceBean())
-            .topUpRequest(eq(123), eq(3.14.toBigDecimal()))
+            .topUpRequest(eq(123), eq(Money(314)))
         verifyNoMoreInteractions(applicationContext.paymentOrderServiceBean())
     }
 
+    @Test
+    fun topUpSubMinorUnitAmount() {
+        given()
+            .log().all()
+            .port(server.port)
+            .`when`()
+            .contentType(ContentType.JSON)
+            .body("{\"accountId\": 123, \"amount\": 3.141}")
+            .post("/api/payment-order/top-up")
+            .then()
+            .log().all()
+            .statusCode(400)
+
+        verifyZeroInteractions(applicationContext.paymentOrderServiceBean())
+    }
+
     @Test
     fun withdrawal() {
         mock(applicationContext.paymentOrderServiceBean()) {
-            on { withdrawalRequest(eq(123), eq(3.14.toBigDecimal())) } doReturn paymentOrder(111)
+            on { withdrawalRequest(eq(123), eq(Money(314))) } doReturn paymentOrder(111)
         }
 
         given()
@@ -94,7 +147,7 @@ class PaymentOrderEndpointTest {
             .body("paymentOrderId", equalTo(111))
 
         verify(applicationContext.paymentOrderServiceBean())
-            .withdrawalRequest(eq(123), eq(3.14.toBigDecimal()))
+            .withdrawalRequest(eq(123), eq(Money(314)))
         verifyNoMoreInteractions(applicationContext.paymentOrderServiceBean())
     }
 
@@ -124,7 +177,7 @@ class PaymentOrderEndpointTest {
         PaymentOrder(
             account(222),
             account(333),
-            999.toBigDecimal(),
+            999.toMoney(),
             PaymentOrderState.RECEIVED,
             OffsetDateTime.now(),
             id,
@@ -132,7 +185,7 @@ class PaymentOrderEndpointTest {
         )
 
     private fun account(id: Int): Account {
-        return Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), 0.toBigDecimal(), id, 1)
+        return Account(AccountType.PERSONAL, "foo", OffsetDateTime.now(), 0.toMoney(), id, 1)
     }
 
     @AfterEach
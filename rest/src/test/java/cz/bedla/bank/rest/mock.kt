@@ -10,14 +10,24 @@ import org.mockito.Mockito.mock
 internal class MockApplicationContext : ApplicationContext {
     private val paymentOrderService = mock(PaymentOrderService::class.java)
 
+    private val paymentOrderQueue = mock(PaymentOrderQueue::class.java)
+
     private val paymentOrderDao = mock(PaymentOrderDao::class.java)
 
     private val accountDao = mock(AccountDao::class.java)
 
+    private val accountCache = mock(AccountCache::class.java)
+
     private val transactionDao = mock(TransactionDao::class.java)
 
     private val transactionService = mock(TransactionService::class.java)
 
+    private val balanceCheckpointer = mock(BalanceCheckpointer::class.java)
+
+    private val archiveDao = mock(ArchiveDao::class.java)
+
+    private val archiver = mock(Archiver::class.java)
+
     private val accountService = mock(AccountService::class.java)
 
     private val transactional = mock(Transactional::class.java)
@@ -28,18 +38,30 @@ internal class MockApplicationContext : ApplicationContext {
 
     private val transactor = mock(Transactor::class.java)
 
+    private val inlineSettlement = mock(InlineSettlement::class.java)
+
     private val bankInitializer = mock(BankInitializer::class.java)
 
     override fun paymentOrderServiceBean(): PaymentOrderService = paymentOrderService
 
+    override fun paymentOrderQueueBean(): PaymentOrderQueue = paymentOrderQueue
+
     override fun paymentOrderDaoBean(): PaymentOrderDao = paymentOrderDao
 
     override fun accountDaoBean(): AccountDao = accountDao
 
+    override fun accountCacheBean(): AccountCache = accountCache
+
     override fun transactionDaoBean(): TransactionDao = transactionDao
 
     override fun transactionServiceBean(): TransactionService = transactionService
 
+    override fun balanceCheckpointerBean(): BalanceCheckpointer = balanceCheckpointer
+
+    override fun archiveDaoBean(): ArchiveDao = archiveDao
+
+    override fun archiverBean(): Archiver = archiver
+
     override fun accountServiceBean(): AccountService = accountService
 
     override fun transactionalBean(): Transactional = transactional
@@ -50,6 +72,8 @@ internal class MockApplicationContext : ApplicationContext {
 
     override fun transactorBean(): Transactor = transactor
 
+    override fun inlineSettlementBean(): InlineSettlement = inlineSettlement
+
     override fun bankInitializerBean(): BankInitializer = bankInitializer
 
     override fun start() {
@@ -1,19 +1,51 @@
 package cz.bedla.bank.tx;
 
 import java.sql.Connection;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.apache.commons.lang3.Validate.validState;
 
 public final class ConnectionHolder {
-    private static final ThreadLocal<Connection> connectionThreadLocal = new ThreadLocal<>();
+    // REQUIRES_NEW pushes its own scope, suspended outer scope is current again when inner one is popped
+    private static final ThreadLocal<Deque<TransactionScope>> scopesThreadLocal = new ThreadLocal<>();
 
     public static Connection getConnection() {
-        return connectionThreadLocal.get();
+        final TransactionScope scope = currentScope();
+        return scope == null ? null : scope.getConnection();
+    }
+
+    public static boolean isReadOnly() {
+        final TransactionScope scope = currentScope();
+        return scope != null && scope.isReadOnly();
+    }
+
+    public static void registerAfterCommit(TransactionRunCallback callback) {
+        final TransactionScope scope = currentScope();
+        validState(scope != null, "No transaction bound to current thread");
+        scope.registerAfterCommit(callback);
+    }
+
+    static TransactionScope currentScope() {
+        final Deque<TransactionScope> scopes = scopesThreadLocal.get();
+        return scopes == null ? null : scopes.peek();
     }
 
-    public static void setConnection(Connection connection) {
-        connectionThreadLocal.set(connection);
+    static void push(TransactionScope scope) {
+        Deque<TransactionScope> scopes = scopesThreadLocal.get();
+        if (scopes == null) {
+            scopes = new ArrayDeque<>();
+            scopesThreadLocal.set(scopes);
+        }
+        scopes.push(scope);
     }
 
-    public static void remove() {
-        connectionThreadLocal.remove();
+    static void pop(TransactionScope scope) {
+        final Deque<TransactionScope> scopes = scopesThreadLocal.get();
+        validState(scopes != null && scopes.peek() == scope, "Transaction scope is not current one");
+        scopes.pop();
+        if (scopes.isEmpty()) {
+            scopesThreadLocal.remove();
+        }
     }
 }
@@ -0,0 +1,22 @@
+package cz.bedla.bank.tx;
+
+import java.sql.Connection;
+
+public enum Isolation {
+    // isolation configured on connection pool
+    DEFAULT(-1),
+    READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+    READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+    REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+    SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+    private final int level;
+
+    Isolation(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,12 @@
+package cz.bedla.bank.tx;
+
+public enum Propagation {
+    // join current transaction, start new one when there is none
+    REQUIRED,
+    // always start new transaction with its own connection, current transaction is suspended meanwhile
+    REQUIRES_NEW,
+    // run inside savepoint of current transaction (new transaction when there is none), failure rolls back to savepoint only
+    NESTED,
+    // join current transaction, start new read-only one on read-only pool when there is none
+    READ_ONLY
+}
@@ -0,0 +1,46 @@
+package cz.bedla.bank.tx;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+final class TransactionScope {
+    private final Connection connection;
+    private final boolean readOnly;
+    private final Isolation isolation;
+    private final List<TransactionRunCallback> afterCommitCallbacks = new ArrayList<>();
+
+    TransactionScope(Connection connection, boolean readOnly, Isolation isolation) {
+        this.connection = connection;
+        this.readOnly = readOnly;
+        this.isolation = isolation;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    Isolation getIsolation() {
+        return isolation;
+    }
+
+    void registerAfterCommit(TransactionRunCallback callback) {
+        afterCommitCallbacks.add(callback);
+    }
+
+    int afterCommitCount() {
+        return afterCommitCallbacks.size();
+    }
+
+    void discardAfterCommit(int fromIndex) {
+        afterCommitCallbacks.subList(fromIndex, afterCommitCallbacks.size()).clear();
+    }
+
+    List<TransactionRunCallback> getAfterCommitCallbacks() {
+        return afterCommitCallbacks;
+    }
+}
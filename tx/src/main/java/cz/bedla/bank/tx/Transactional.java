@@ -7,8 +7,18 @@ import static org.apache.commons.lang3.Validate.validState;
 public interface Transactional {
     void run(TransactionRunCallback action);
 
+    void run(Propagation propagation, TransactionRunCallback action);
+
     <T> T execute(TransactionExecuteCallback<T> action);
 
+    <T> T execute(Propagation propagation, TransactionExecuteCallback<T> action);
+
+    <T> T execute(Propagation propagation, Isolation isolation, TransactionExecuteCallback<T> action);
+
+    <T> T executeReadOnly(TransactionExecuteCallback<T> action);
+
+    void afterCommit(TransactionRunCallback action);
+
     static Connection currentConnection() {
         final Connection connection = ConnectionHolder.getConnection();
         validState(connection != null, "No transaction/connection bound to current thread");
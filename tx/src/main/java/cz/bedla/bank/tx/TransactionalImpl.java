@@ -5,22 +5,35 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 
 import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
 
 /**
  * Inspired by Spring TransactionTemplate
  */
 public final class TransactionalImpl implements Transactional {
     private final DataSource dataSource;
+    private final DataSource readOnlyDataSource;
 
     public TransactionalImpl(DataSource dataSource) {
+        this(dataSource, dataSource);
+    }
+
+    public TransactionalImpl(DataSource dataSource, DataSource readOnlyDataSource) {
         this.dataSource = notNull(dataSource, "dataSource cannot be null");
+        this.readOnlyDataSource = notNull(readOnlyDataSource, "readOnlyDataSource cannot be null");
     }
 
     @Override
     public void run(TransactionRunCallback action) {
-        execute(() -> {
+        run(Propagation.REQUIRED, action);
+    }
+
+    @Override
+    public void run(Propagation propagation, TransactionRunCallback action) {
+        execute(propagation, () -> {
             action.doInTransaction();
             return null;
         });
@@ -28,61 +41,145 @@ public final class TransactionalImpl implements Transactional {
 
     @Override
     public <T> T execute(TransactionExecuteCallback<T> action) {
+        return execute(Propagation.REQUIRED, Isolation.DEFAULT, action);
+    }
+
+    @Override
+    public <T> T execute(Propagation propagation, TransactionExecuteCallback<T> action) {
+        return execute(propagation, Isolation.DEFAULT, action);
+    }
+
+    @Override
+    public <T> T execute(Propagation propagation, Isolation isolation, TransactionExecuteCallback<T> action) {
+        notNull(propagation, "propagation cannot be null");
+        notNull(isolation, "isolation cannot be null");
+        final TransactionScope current = ConnectionHolder.currentScope();
+        switch (propagation) {
+            case REQUIRED:
+                if (current == null) {
+                    return doInNewTransaction(action, false, isolation);
+                }
+                validState(!current.isReadOnly(), "Unable to join read-only transaction for writing");
+                validateIsolation(current, isolation);
+                return action.doInTransaction();
+            case REQUIRES_NEW:
+                return doInNewTransaction(action, false, isolation);
+            case NESTED:
+                if (current == null) {
+                    return doInNewTransaction(action, false, isolation);
+                }
+                validState(!current.isReadOnly(), "Unable to nest into read-only transaction");
+                validateIsolation(current, isolation);
+                return doInSavepoint(current, action);
+            case READ_ONLY:
+                if (current == null) {
+                    return doInNewTransaction(action, true, isolation);
+                }
+                validateIsolation(current, isolation);
+                return action.doInTransaction();
+            default:
+                throw new IllegalArgumentException("Unsupported propagation " + propagation);
+        }
+    }
+
+    @Override
+    public <T> T executeReadOnly(TransactionExecuteCallback<T> action) {
+        return execute(Propagation.READ_ONLY, Isolation.DEFAULT, action);
+    }
+
+    @Override
+    public void afterCommit(TransactionRunCallback action) {
         if (ConnectionHolder.getConnection() == null) {
-            return doInNewTransaction(action);
+            action.doInTransaction();
         } else {
-            return action.doInTransaction();
+            ConnectionHolder.registerAfterCommit(action);
         }
     }
 
-    private <T> T doInNewTransaction(TransactionExecuteCallback<T> action) {
-        try (final Connection connection = obtainConnection()) {
-            try {
-                ConnectionHolder.setConnection(connection);
-
-                T result;
-                try {
-                    result = action.doInTransaction();
-                } catch (RuntimeException | Error e) {
-                    rollbackOnException(e);
-                    throw e;
-                } catch (Throwable e) {
-                    rollbackOnException(e);
-                    return ExceptionUtils.rethrow(e);
-                }
+    // isolation cannot be changed in the middle of transaction, DEFAULT joins any
+    private void validateIsolation(TransactionScope current, Isolation isolation) {
+        validState(isolation == Isolation.DEFAULT || isolation == current.getIsolation(),
+                "Unable to join transaction with isolation %s as %s", current.getIsolation(), isolation);
+    }
 
-                doCommit();
-                return result;
+    private <T> T doInNewTransaction(TransactionExecuteCallback<T> action, boolean readOnly, Isolation isolation) {
+        final TransactionScope scope;
+        final T result;
+        try (final Connection connection = obtainConnection(readOnly ? readOnlyDataSource : dataSource)) {
+            // also for connections of shared pool, Hikari resets read-only flag and isolation when connection is returned
+            if (readOnly) {
+                connection.setReadOnly(true);
+            }
+            if (isolation != Isolation.DEFAULT) {
+                connection.setTransactionIsolation(isolation.getLevel());
+            }
+            scope = new TransactionScope(connection, readOnly, isolation);
+            ConnectionHolder.push(scope);
+            try {
+                result = doInScope(action, () -> connection.rollback());
+                connection.commit();
             } finally {
-                ConnectionHolder.remove();
+                ConnectionHolder.pop(scope);
             }
         } catch (SQLException e) {
             return ExceptionUtils.rethrow(e);
         }
+
+        // suspended outer transaction (REQUIRES_NEW) is current again while callbacks run
+        for (TransactionRunCallback callback : scope.getAfterCommitCallbacks()) {
+            callback.doInTransaction();
+        }
+        return result;
     }
 
-    private Connection obtainConnection() {
+    private <T> T doInSavepoint(TransactionScope scope, TransactionExecuteCallback<T> action) {
         try {
-            return dataSource.getConnection();
+            final Connection connection = scope.getConnection();
+            final Savepoint savepoint = connection.setSavepoint();
+            final int afterCommitCount = scope.afterCommitCount();
+            final T result = doInScope(action, () -> {
+                connection.rollback(savepoint);
+                // callbacks registered inside rolled back savepoint must not run after commit
+                scope.discardAfterCommit(afterCommitCount);
+            });
+            connection.releaseSavepoint(savepoint);
+            return result;
         } catch (SQLException e) {
             return ExceptionUtils.rethrow(e);
         }
     }
 
-    private void doCommit() {
+    private <T> T doInScope(TransactionExecuteCallback<T> action, Rollback rollback) {
         try {
-            Transactional.currentConnection().commit();
+            return action.doInTransaction();
+        } catch (RuntimeException | Error e) {
+            rollbackOnException(rollback, e);
+            throw e;
+        } catch (Throwable e) {
+            rollbackOnException(rollback, e);
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private Connection obtainConnection(DataSource dataSource) {
+        try {
+            return dataSource.getConnection();
         } catch (SQLException e) {
-            ExceptionUtils.rethrow(e);
+            return ExceptionUtils.rethrow(e);
         }
     }
 
-    private void rollbackOnException(Throwable ex) {
+    private void rollbackOnException(Rollback rollback, Throwable ex) {
         try {
-            Transactional.currentConnection().rollback();
+            rollback.rollback();
         } catch (Exception e) {
             e.addSuppressed(ex);
             ExceptionUtils.rethrow(e);
         }
     }
+
+    @FunctionalInterface
+    private interface Rollback {
+        void rollback() throws SQLException;
+    }
 }
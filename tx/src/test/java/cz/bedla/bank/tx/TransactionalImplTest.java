@@ -0,0 +1,335 @@
+package cz.bedla.bank.tx;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(TempDirectory.class)
+class TransactionalImplTest {
+    private HikariDataSource dataSource;
+    private Transactional fixture;
+
+    @BeforeEach
+    void setUp(@TempDirectory.TempDir Path tempDir) throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:file:" + tempDir.resolve("tx").toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE");
+        config.setUsername("sa");
+        config.setPassword("");
+        config.setAutoCommit(false);
+        config.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+        config.setMaximumPoolSize(4);
+        dataSource = new HikariDataSource(config);
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT PRIMARY KEY)");
+            connection.commit();
+        }
+
+        fixture = new TransactionalImpl(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        assertThat(ConnectionHolder.getConnection()).isNull();
+        dataSource.close();
+    }
+
+    @Test
+    void requiredCommits() {
+        fixture.run(() -> insert(1));
+
+        assertThat(ids()).containsExactly(1);
+    }
+
+    @Test
+    void requiredRollsBackOnException() {
+        assertThatThrownBy(() -> fixture.run(() -> {
+            insert(1);
+            throw new IllegalStateException("failed");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("failed");
+
+        assertThat(ids()).isEmpty();
+        assertThat(ConnectionHolder.getConnection()).isNull();
+    }
+
+    @Test
+    void requiredJoinsCurrentTransaction() {
+        fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            fixture.run(() -> assertThat(Transactional.currentConnection()).isSameAs(outer));
+        });
+    }
+
+    @Test
+    void requiresNewSuspendsAndResumesOuter() {
+        assertThatThrownBy(() -> fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            insert(1);
+
+            fixture.run(Propagation.REQUIRES_NEW, () -> {
+                assertThat(Transactional.currentConnection()).isNotSameAs(outer);
+                insert(2);
+            });
+
+            assertThat(Transactional.currentConnection()).isSameAs(outer);
+            throw new IllegalStateException("outer failed");
+        })).hasMessage("outer failed");
+
+        assertThat(ids()).containsExactly(2);
+    }
+
+    @Test
+    void requiresNewFailureRestoresOuter() {
+        fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            insert(1);
+
+            assertThatThrownBy(() -> fixture.run(Propagation.REQUIRES_NEW, () -> {
+                insert(2);
+                throw new IllegalStateException("inner failed");
+            })).hasMessage("inner failed");
+
+            assertThat(Transactional.currentConnection()).isSameAs(outer);
+            insert(3);
+        });
+
+        assertThat(ids()).containsExactly(1, 3);
+    }
+
+    @Test
+    void requiresNewAfterCommitRunsWithOuterCurrent() {
+        final List<String> events = new ArrayList<>();
+        fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            fixture.run(Propagation.REQUIRES_NEW, () -> fixture.afterCommit(() -> {
+                assertThat(Transactional.currentConnection()).isSameAs(outer);
+                events.add("inner");
+            }));
+            assertThat(events).containsExactly("inner");
+            fixture.afterCommit(() -> events.add("outer"));
+            assertThat(events).containsExactly("inner");
+        });
+
+        assertThat(events).containsExactly("inner", "outer");
+    }
+
+    @Test
+    void nestedRollsBackToSavepoint() {
+        final List<String> events = new ArrayList<>();
+        fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            insert(1);
+            fixture.afterCommit(() -> events.add("before"));
+
+            assertThatThrownBy(() -> fixture.run(Propagation.NESTED, () -> {
+                assertThat(Transactional.currentConnection()).isSameAs(outer);
+                insert(2);
+                fixture.afterCommit(() -> events.add("nested"));
+                throw new IllegalStateException("nested failed");
+            })).hasMessage("nested failed");
+
+            assertThat(Transactional.currentConnection()).isSameAs(outer);
+            insert(3);
+            fixture.afterCommit(() -> events.add("after"));
+        });
+
+        assertThat(ids()).containsExactly(1, 3);
+        assertThat(events).containsExactly("before", "after");
+    }
+
+    @Test
+    void nestedCommitsWithOuter() {
+        final List<String> events = new ArrayList<>();
+        fixture.run(() -> {
+            insert(1);
+            fixture.run(Propagation.NESTED, () -> {
+                insert(2);
+                fixture.afterCommit(() -> events.add("nested"));
+            });
+        });
+
+        assertThat(ids()).containsExactly(1, 2);
+        assertThat(events).containsExactly("nested");
+    }
+
+    @Test
+    void nestedRolledBackWithOuter() {
+        final List<String> events = new ArrayList<>();
+        assertThatThrownBy(() -> fixture.run(() -> {
+            fixture.run(Propagation.NESTED, () -> {
+                insert(1);
+                fixture.afterCommit(() -> events.add("nested"));
+            });
+            throw new IllegalStateException("outer failed");
+        })).hasMessage("outer failed");
+
+        assertThat(ids()).isEmpty();
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void nestedWithoutTransactionStartsNewOne() {
+        fixture.run(Propagation.NESTED, () -> insert(1));
+
+        assertThat(ids()).containsExactly(1);
+    }
+
+    @Test
+    void readOnlyTransaction() {
+        fixture.run(() -> insert(1));
+
+        final List<Integer> ids = fixture.executeReadOnly(() -> {
+            assertThat(ConnectionHolder.isReadOnly()).isTrue();
+            return ids(Transactional.currentConnection());
+        });
+
+        assertThat(ids).containsExactly(1);
+        assertThat(ConnectionHolder.isReadOnly()).isFalse();
+    }
+
+    @Test
+    void requiredInsideReadOnlyFails() {
+        fixture.executeReadOnly(() -> {
+            final Connection outer = Transactional.currentConnection();
+
+            assertThatThrownBy(() -> fixture.run(() -> insert(1)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Unable to join read-only transaction for writing");
+            assertThatThrownBy(() -> fixture.run(Propagation.NESTED, () -> insert(1)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Unable to nest into read-only transaction");
+
+            assertThat(Transactional.currentConnection()).isSameAs(outer);
+            assertThat(ConnectionHolder.isReadOnly()).isTrue();
+            return null;
+        });
+
+        assertThat(ids()).isEmpty();
+    }
+
+    @Test
+    void requiresNewInsideReadOnlyWrites() {
+        fixture.executeReadOnly(() -> {
+            fixture.run(Propagation.REQUIRES_NEW, () -> {
+                assertThat(ConnectionHolder.isReadOnly()).isFalse();
+                insert(1);
+            });
+            assertThat(ConnectionHolder.isReadOnly()).isTrue();
+            return null;
+        });
+
+        assertThat(ids()).containsExactly(1);
+    }
+
+    @Test
+    void readOnlyJoinsWritingTransaction() {
+        fixture.run(() -> {
+            final Connection outer = Transactional.currentConnection();
+            insert(1);
+            final List<Integer> ids = fixture.executeReadOnly(() -> {
+                assertThat(Transactional.currentConnection()).isSameAs(outer);
+                return ids(outer);
+            });
+            assertThat(ids).containsExactly(1);
+        });
+    }
+
+    @Test
+    void isolation() {
+        fixture.execute(Propagation.REQUIRED, Isolation.SERIALIZABLE, () -> {
+            final Connection outer = Transactional.currentConnection();
+            assertThat(getTransactionIsolation(outer)).isEqualTo(Connection.TRANSACTION_SERIALIZABLE);
+
+            fixture.run(() -> assertThat(Transactional.currentConnection()).isSameAs(outer));
+            fixture.execute(Propagation.NESTED, Isolation.SERIALIZABLE, () -> null);
+            assertThatThrownBy(() -> fixture.execute(Propagation.REQUIRED, Isolation.READ_COMMITTED, () -> null))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Unable to join transaction with isolation SERIALIZABLE as READ_COMMITTED");
+
+            assertThat(Transactional.currentConnection()).isSameAs(outer);
+            return null;
+        });
+    }
+
+    @Test
+    void afterCommitNotRunOnRollback() {
+        final List<String> events = new ArrayList<>();
+        assertThatThrownBy(() -> fixture.run(() -> {
+            fixture.afterCommit(() -> events.add("committed"));
+            throw new IllegalStateException("failed");
+        })).hasMessage("failed");
+
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void afterCommitWithoutTransactionRunsImmediately() {
+        final List<String> events = new ArrayList<>();
+        fixture.afterCommit(() -> events.add("immediately"));
+
+        assertThat(events).containsExactly("immediately");
+    }
+
+    @Test
+    void currentConnectionWithoutTransaction() {
+        assertThatThrownBy(Transactional::currentConnection)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("No transaction/connection bound to current thread");
+    }
+
+    private void insert(int id) {
+        try (PreparedStatement statement = Transactional.currentConnection().prepareStatement("INSERT INTO item (id) VALUES (?)")) {
+            statement.setInt(1, id);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private List<Integer> ids() {
+        try (Connection connection = dataSource.getConnection()) {
+            return ids(connection);
+        } catch (SQLException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private List<Integer> ids(Connection connection) {
+        final List<Integer> result = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM item ORDER BY id");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                result.add(resultSet.getInt(1));
+            }
+        } catch (SQLException e) {
+            ExceptionUtils.rethrow(e);
+        }
+        return result;
+    }
+
+    private int getTransactionIsolation(Connection connection) {
+        try {
+            return connection.getTransactionIsolation();
+        } catch (SQLException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+}